@@ -25,6 +25,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Resources;
 import com.google.common.primitives.Ints;
 import net.minecraftforge.gradle.util.GradleConfigurationException;
+import net.minecraftforge.gradle.util.caching.CacheDirManager;
 import net.minecraftforge.gradle.util.delayed.ReplacementProvider;
 import org.gradle.api.Project;
 
@@ -58,6 +59,9 @@ public abstract class BaseExtension
 
     private boolean suppressVersionTest;
 
+    // size budget of the FG cache dir in bytes, -1 for none
+    protected long                  cacheSizeLimit  = -1;
+
     public BaseExtension(BasePlugin<? extends BaseExtension> plugin)
     {
         this.project = plugin.project;
@@ -367,6 +371,26 @@ public abstract class BaseExtension
         return foundIndex >= 0 && array[foundIndex] == key;
     }
 
+    /**
+     * Get the size the FG cache dir is trimmed down to, deleting what was used least recently.
+     *
+     * @return The size limit in bytes, or -1 if there is none
+     */
+    public long getCacheSizeLimit()
+    {
+        return cacheSizeLimit;
+    }
+
+    /**
+     * Set the size the FG cache dir is trimmed down to. Checked at most once a day, or when running trimCache.
+     *
+     * @param cacheSizeLimit The size limit in bytes, or a string like 500M or 20G
+     */
+    public void setCacheSizeLimit(Object cacheSizeLimit)
+    {
+        this.cacheSizeLimit = CacheDirManager.parseSize(cacheSizeLimit);
+    }
+
     /**
      * @param originalDomain the vanilla url domain, for example, resources.download.minecraft.net, launchermeta.mojang.com
      * @param mirrorDomain the mirror url root
@@ -29,6 +29,7 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -65,6 +66,7 @@ import com.google.gson.reflect.TypeToken;
 
 import groovy.lang.Closure;
 import net.minecraftforge.gradle.GradleVersionUtils;
+import net.minecraftforge.gradle.tasks.CacheReportTask;
 import net.minecraftforge.gradle.tasks.CrowdinDownload;
 import net.minecraftforge.gradle.tasks.Download;
 import net.minecraftforge.gradle.tasks.DownloadAssetsTask;
@@ -75,8 +77,12 @@ import net.minecraftforge.gradle.tasks.JenkinsChangelog;
 import net.minecraftforge.gradle.tasks.MergeJars;
 import net.minecraftforge.gradle.tasks.SignJar;
 import net.minecraftforge.gradle.tasks.SplitJarTask;
+import net.minecraftforge.gradle.tasks.TrimCacheTask;
 import net.minecraftforge.gradle.util.FileLogListener;
 import net.minecraftforge.gradle.util.GradleConfigurationException;
+import net.minecraftforge.gradle.util.caching.CacheDirManager;
+import net.minecraftforge.gradle.util.caching.FileHashIndex;
+import net.minecraftforge.gradle.util.caching.SharedOutputStore;
 import net.minecraftforge.gradle.util.delayed.DelayedFile;
 import net.minecraftforge.gradle.util.delayed.DelayedFileTree;
 import net.minecraftforge.gradle.util.delayed.DelayedString;
@@ -130,6 +136,8 @@ public abstract class BasePlugin<K extends BaseExtension> implements Plugin<Proj
 
         // set the obvious replacements
         replacer.putReplacement(REPLACE_CACHE_DIR, cacheFile("").getAbsolutePath());
+        FileHashIndex.setIndexFile(cacheFile("fileHashes.bin"));
+        SharedOutputStore.setDirectory(cacheFile("sharedOutputs"));
         replacer.putReplacement(REPLACE_BUILD_DIR, project.getLayout().getBuildDirectory().getAsFile().get().getAbsolutePath());
 
         // logging
@@ -260,6 +268,8 @@ public abstract class BasePlugin<K extends BaseExtension> implements Plugin<Proj
                 "ext", "zip"
                 ));
 
+        manageCache();
+
         if (!displayBanner)
             return;
 
@@ -571,6 +581,59 @@ public abstract class BasePlugin<K extends BaseExtension> implements Plugin<Proj
             clearCache.setGroup(GROUP_FG);
             clearCache.setDescription("Cleares the ForgeGradle cache. DONT RUN THIS unless you want a fresh start, or the dev tells you to.");
         }
+
+        Closure<Long> sizeLimit = new Closure<Long>(BasePlugin.class) {
+            public Long call()
+            {
+                return getExtension().getCacheSizeLimit();
+            }
+        };
+
+        CacheReportTask cacheReport = makeTask(TASK_CACHE_REPORT, CacheReportTask.class);
+        {
+            cacheReport.setCacheDir(delayedFile(REPLACE_CACHE_DIR));
+            cacheReport.setSizeLimit(sizeLimit);
+            cacheReport.setGroup(GROUP_FG);
+            cacheReport.setDescription("Lists what takes space in the ForgeGradle cache, and when it was last used.");
+        }
+
+        TrimCacheTask trimCache = makeTask(TASK_TRIM_CACHE, TrimCacheTask.class);
+        {
+            trimCache.setCacheDir(delayedFile(REPLACE_CACHE_DIR));
+            trimCache.setSizeLimit(sizeLimit);
+            trimCache.setGroup(GROUP_FG);
+            trimCache.setDescription("Deletes the least recently used parts of the ForgeGradle cache until it fits in minecraft.cacheSizeLimit.");
+        }
+    }
+
+    /**
+     * The directories in the cache dir that this project uses, each holding the files of one MC or mappings version.
+     * They are marked as used on every build, and the least recently used ones are deleted when the cache is over its size limit.
+     * @return directories in the cache dir
+     */
+    protected List<File> getCacheUnits()
+    {
+        List<File> units = new ArrayList<>();
+        units.add(delayedFile(DIR_MCP_DATA).call());
+        units.add(delayedFile(DIR_MCP_MAPPINGS).call());
+        units.add(delayedFile(JAR_CLIENT_FRESH).call().getParentFile());
+        units.add(delayedFile(JAR_SERVER_FRESH).call().getParentFile());
+        units.add(delayedFile(JAR_MERGED).call().getParentFile());
+        units.add(delayedFile(DIR_NATIVES).call());
+        return units;
+    }
+
+    private void manageCache()
+    {
+        CacheDirManager.markUsed(getCacheUnits());
+
+        long limit = getExtension().getCacheSizeLimit();
+        if (limit < 0)
+            return;
+
+        int deleted = CacheDirManager.trimDaily(cacheFile(""), SharedOutputStore.getDirectory(), limit).size();
+        if (deleted > 0)
+            LOGGER.lifecycle("Deleted {} unused entries from the ForgeGradle cache to keep it under its size limit", deleted);
     }
 
     /**
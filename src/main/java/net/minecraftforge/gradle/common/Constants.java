@@ -20,13 +20,51 @@
  */
 package net.minecraftforge.gradle.common;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
-
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import net.minecraftforge.gradle.patcher.PatcherExtension;
+import net.minecraftforge.gradle.util.caching.CacheDirManager;
+import net.minecraftforge.gradle.util.caching.FileHashIndex;
+
+import org.gradle.api.Project;
+import org.gradle.api.file.FileCollection;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import au.com.bytecode.opencsv.CSVParser;
+import au.com.bytecode.opencsv.CSVReader;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Files;
 
 import groovy.lang.Closure;
 import net.minecraftforge.gradle.util.json.version.OS;
@@ -50,6 +88,9 @@ public class Constants
     public static final SystemArch SYSTEM_ARCH      = getArch();
     public static final Charset    CHARSET          = Charsets.UTF_8;
     public static final String     HASH_FUNC        = "MD5";
+    private static final int       HASH_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<byte[]> HASH_BUFFER = ThreadLocal.withInitial(() -> new byte[HASH_BUFFER_SIZE]);
+    private static final ForkJoinPool HASH_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
     public static final String     USER_AGENT       = "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.11 (KHTML, like Gecko) Chrome/23.0.1271.95 Safari/537.11";
 
     // extension names
@@ -175,6 +216,8 @@ public class Constants
     public static final String TASK_EXTRACT_MAPPINGS = "extractMcpMappings";
     public static final String TASK_GENERATE_SRGS    = "genSrgs";
     public static final String TASK_CLEAN_CACHE      = "cleanCache";
+    public static final String TASK_CACHE_REPORT     = "cacheReport";
+    public static final String TASK_TRIM_CACHE       = "trimCache";
 
     private static final HashMap<String, String> url_redirect     = new HashMap<>();
 
@@ -324,38 +367,92 @@ public class Constants
         }
     }
 
+    /**
+     * Hashes the file, or its entries if it is a zip or jar. See {@link #hashZipEntries(File, String)}.
+     * Files that did not change since they were last hashed are looked up in the {@link FileHashIndex} instead of being read again.
+     * @param file file to hash
+     * @return hex string of the hash
+     */
     public static String hash(File file)
     {
+        String hash = FileHashIndex.get(file);
+        if (hash != null)
+            return hash;
+
         if (file.getPath().endsWith(".zip") || file.getPath().endsWith(".jar"))
-            return hashZip(file, HASH_FUNC);
+            hash = hashZipEntries(file, HASH_FUNC);
         else
-            return hash(file, HASH_FUNC);
+            hash = hash(file, HASH_FUNC);
+
+        FileHashIndex.put(file, hash);
+        return hash;
     }
 
     public static List<String> hashAll(File file)
     {
-        LinkedList<String> list = new LinkedList<>();
+        return hashAll(file, false);
+    }
 
-        if (file.isDirectory())
+    /**
+     * Hashes every file in this directory, skipping .cache files and cache markers, or just the file if it is not a directory.
+     * @param file file or directory to hash
+     * @param parallel whether to hash the files concurrently. The order of the hashes is the same either way.
+     * @return hashes of all the files
+     */
+    public static List<String> hashAll(File file, boolean parallel)
+    {
+        List<File> files = new ArrayList<>();
+        collectFiles(file, files);
+        return hashAll(files, parallel);
+    }
+
+    /**
+     * Hashes all of the files, in the order they are given.
+     * @param files files to hash
+     * @param parallel whether to hash the files concurrently in the shared hashing pool
+     * @return hashes of the files, in the same order as the files
+     */
+    public static List<String> hashAll(Collection<File> files, boolean parallel)
+    {
+        List<String> list = new ArrayList<>(files.size());
+
+        if (!parallel || files.size() < 2)
         {
-            for (File f : file.listFiles())
-                list.addAll(hashAll(f));
+            for (File f : files)
+                list.add(hash(f));
+
+            return list;
         }
-        else if (!file.getName().equals(".cache"))
-            list.add(hash(file));
+
+        List<ForkJoinTask<String>> tasks = new ArrayList<>(files.size());
+        for (File f : files)
+            tasks.add(HASH_POOL.submit(() -> hash(f)));
+
+        for (ForkJoinTask<String> task : tasks)
+            list.add(task.join());
 
         return list;
     }
 
+    private static void collectFiles(File file, List<File> into)
+    {
+        if (file.isDirectory())
+        {
+            for (File f : file.listFiles())
+                collectFiles(f, into);
+        }
+        else if (!file.getName().equals(".cache") && !file.getName().equals(CacheDirManager.MARKER))
+            into.add(file);
+    }
+
     public static String hash(File file, String function)
     {
-        try
+        try (InputStream fis = java.nio.file.Files.newInputStream(file.toPath()))
         {
-            InputStream fis = java.nio.file.Files.newInputStream(file.toPath());
-            byte[] array = ByteStreams.toByteArray(fis);
-            fis.close();
+            MessageDigest hasher = MessageDigest.getInstance(function);
+            digest(hasher, fis);
 
-            return hash(array, function);
+            return toHex(hasher.digest());
         }
         catch (Exception e)
         {
@@ -374,28 +471,96 @@ public class Constants
             while ((entry = zin.getNextEntry()) != null)
             {
                 hasher.update(entry.getName().getBytes());
-                hasher.update(ByteStreams.toByteArray(zin));
+                digest(hasher, zin);
             }
-            zin.close();
 
-            byte[] hash = hasher.digest();
+            return toHex(hasher.digest());
+        }
+        catch (Exception e)
+        {
+            LOGGER.error("[hashZip]", e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Hashes a zip by its entries rather than its bytes, so the hash does not change if the zip
+     * is written again with the entries in a different order or compressed differently.
+     * Each entry is digested on its own in the shared hashing pool, then the name and digest of every entry
+     * are combined in order of their names.
+     * @param file zip to hash
+     * @param function digest algorithm
+     * @return hex string of the hash
+     */
+    public static String hashZipEntries(File file, String function)
+    {
+        try (ZipFile zip = new ZipFile(file))
+        {
+            List<ZipEntry> entries = new ArrayList<>(zip.size());
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();)
+                entries.add(e.nextElement());
+            entries.sort(Comparator.comparing(ZipEntry::getName));
 
-            // convert to string
-            StringBuilder result = new StringBuilder();
+            List<ForkJoinTask<byte[]>> digests = new ArrayList<>(entries.size());
+            for (ZipEntry entry : entries)
+                digests.add(HASH_POOL.submit(() -> digestEntry(zip, entry, function)));
 
-            for (byte b : hash) {
-                result.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+            MessageDigest hasher = MessageDigest.getInstance(function);
+            for (int i = 0; i < entries.size(); i++)
+            {
+                hasher.update(entries.get(i).getName().getBytes(CHARSET));
+                hasher.update(digests.get(i).join());
             }
-            return result.toString();
+
+            return toHex(hasher.digest());
         }
         catch (Exception e)
         {
-            LOGGER.error("[hashZip]", e);
+            LOGGER.error("[hashZipEntries]", e);
         }
 
         return null;
     }
 
+    private static byte[] digestEntry(ZipFile zip, ZipEntry entry, String function) throws IOException, NoSuchAlgorithmException
+    {
+        MessageDigest hasher = MessageDigest.getInstance(function);
+        try (InputStream in = zip.getInputStream(entry))
+        {
+            digest(hasher, in);
+        }
+        return hasher.digest();
+    }
+
+    /**
+     * Feeds the rest of the stream into the digest through a reused per-thread buffer,
+     * so hashing a file never holds more than a few KB of it in ram.
+     * The stream is not closed.
+     * @param hasher digest to update
+     * @param in stream to read till its end
+     * @throws IOException Propagated from reading the stream
+     */
+    public static void digest(MessageDigest hasher, InputStream in) throws IOException
+    {
+        byte[] buffer = HASH_BUFFER.get();
+        int read;
+        while ((read = in.read(buffer)) != -1)
+        {
+            hasher.update(buffer, 0, read);
+        }
+    }
+
+    private static String toHex(byte[] hash)
+    {
+        StringBuilder result = new StringBuilder(hash.length * 2);
+
+        for (byte b : hash) {
+            result.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+        }
+        return result.toString();
+    }
+
     public static String hash(String str)
     {
         return hash(str.getBytes());
@@ -411,14 +576,7 @@ public class Constants
         try
         {
             MessageDigest complete = MessageDigest.getInstance(function);
-            byte[] hash = complete.digest(bytes);
-
-            StringBuilder result = new StringBuilder();
-
-            for (byte b : hash) {
-                result.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
-            }
-            return result.toString();
+            return toHex(complete.digest(bytes));
         }
         catch (Exception e)
         {
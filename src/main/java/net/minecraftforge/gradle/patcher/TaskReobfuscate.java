@@ -36,6 +36,7 @@ import net.md_5.specialsource.provider.ClassLoaderProvider;
 import net.md_5.specialsource.provider.JarProvider;
 import net.md_5.specialsource.provider.JointProvider;
 import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.ParallelJarRemapper;
 import net.minecraftforge.gradle.util.mcp.ReobfExceptor;
 
 import org.gradle.api.DefaultTask;
@@ -112,9 +113,6 @@ class TaskReobfuscate extends DefaultTask
         JarMapping mapping = new JarMapping();
         mapping.loadMappings(Files.newReader(srg, Charset.defaultCharset()), null, null, false);
 
-        // make remapper
-        JarRemapper remapper = new JarRemapper(null, mapping);
-
         // load jar
         URLClassLoader classLoader = null;
         try (Jar input = Jar.init(inJar))
@@ -126,7 +124,8 @@ class TaskReobfuscate extends DefaultTask
             if (classpath != null && !classpath.isEmpty())
                 inheritanceProviders.add(new ClassLoaderProvider(classLoader = new URLClassLoader(Constants.toUrls(classpath))));
 
-            mapping.setFallbackInheritanceProvider(inheritanceProviders);
+            // make remapper
+            ParallelJarRemapper remapper = new ParallelJarRemapper(mapping, inheritanceProviders, threadMapping -> new JarRemapper(null, threadMapping));
 
             File out = getOutJar();
             if (!out.getParentFile().exists()) //Needed because SS doesn't create it.
@@ -22,34 +22,54 @@ package net.minecraftforge.gradle.tasks;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
 import java.util.Map;
-import java.util.jar.JarEntry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.JarOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
-import java.util.zip.ZipInputStream;
 
 import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.SpillingSourceMap;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.caching.CachedTask;
+import net.minecraftforge.gradle.util.zip.RawZipFile;
+import net.minecraftforge.gradle.util.zip.ZipResourceMap;
+import net.minecraftforge.gradle.util.zip.ZipWriter;
 
 import org.apache.commons.io.FilenameUtils;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.Maps;
-import com.google.common.io.ByteStreams;
 
 public abstract class AbstractEditJarTask extends CachedTask
 {
+    private static final int THREADS     = Runtime.getRuntime().availableProcessors();
+    /** How many processed sources may wait in memory for the ones before them to be written. */
+    private static final int MAX_PENDING = THREADS * 4;
+    /** How many characters of sources are kept in memory between reading and saving the jar, the rest is spilled to disk. */
+    private static final long SOURCE_MEMORY_LIMIT = Runtime.getRuntime().maxMemory() / 8;
+    /** Entries smaller than this are stored, the deflate headers would make them bigger anyway. */
+    private static final int MIN_DEFLATE_SIZE = 64;
+
     private Object inJar;
     private Object outJar;
 
     protected File resolvedInJar;
     protected File resolvedOutJar;
 
+    private LegacyJarOutputStream legacyJarOut;
+
     @TaskAction
     public void doTask() throws Throwable
     {
@@ -62,14 +82,23 @@ public abstract class AbstractEditJarTask extends CachedTask
         {
             getLogger().debug("Reading jar: {}", resolvedInJar);
 
-            Map<String, String> sourceMap = Maps.newHashMap();
-            Map<String, byte[]> resourceMap = Maps.newHashMap();
+            // resources stay in the input jar until they are needed, and sources that don't fit in memory go to disk
+            try (RawZipFile zin = new RawZipFile(resolvedInJar);
+                 SpillingSourceMap sourceMap = new SpillingSourceMap(getTemporaryDir(), SOURCE_MEMORY_LIMIT))
+            {
+                ZipResourceMap resourceMap = new ZipResourceMap(zin);
 
-            readAndStoreJarInRam(resolvedInJar, sourceMap, resourceMap);
+                readAndStoreJarInRam(zin, sourceMap, resourceMap);
 
-            doStuffMiddle(sourceMap, resourceMap);
+                if (sourceMap.getSpilledCount() > 0)
+                {
+                    getLogger().info("{} of {} sources did not fit in memory and were written to disk", sourceMap.getSpilledCount(), sourceMap.size());
+                }
 
-            saveJar(resolvedOutJar, sourceMap, resourceMap);
+                doStuffMiddle(sourceMap, resourceMap);
+
+                saveJar(resolvedOutJar, sourceMap, resourceMap);
+            }
 
             getLogger().debug("Saving jar: {}", resolvedOutJar);
         }
@@ -98,6 +127,9 @@ public abstract class AbstractEditJarTask extends CachedTask
 
     /**
      * Do Stuff after the jar is read, but before it is written.
+     * The maps may keep their contents on disk, so every get reads them again.
+     * To replace contents, {@link #storeSource(Map, String, String)} and {@link #storeResource(Map, String, byte[])}
+     * don't read the old contents back like put does.
      * @param sourceMap name-&gt;contents for all java files in the jar
      * @param resourceMap name-&gt;contents for everything else
      * @throws Exception for convenience
@@ -112,19 +144,84 @@ public abstract class AbstractEditJarTask extends CachedTask
 
     /**
      * Called immediately after every file is written to the jar.
-     * @param jarOut The jar output stream
+     * @param jarOut The jar writer
      * @param entryName The path to the file in the jar
      * @throws IOException IOException
      */
+    protected void postWriteEntry(ZipWriter jarOut, String entryName) throws IOException
+    {
+        postWriteEntry(legacyJarOut(jarOut), entryName);
+    }
+
+    /**
+     * Called after all entries have been written to the jar. This can be useful for adding any additional entries
+     * @param jarOut The jar writer
+     * @throws IOException IOException
+     */
+    protected void postWrite(ZipWriter jarOut) throws IOException
+    {
+        postWrite(legacyJarOut(jarOut));
+    }
+
+    /**
+     * Called immediately after every file is written to the jar.
+     * @param jarOut The jar output stream, which writes to the jar writer
+     * @param entryName The path to the file in the jar
+     * @throws IOException IOException
+     * @deprecated override {@link #postWriteEntry(ZipWriter, String)} instead
+     */
+    @Deprecated
     protected void postWriteEntry(JarOutputStream jarOut, String entryName) throws IOException {}
 
     /**
      * Called after all entries have been written to the jar. This can be useful for adding any additional entries
-     * @param jarOut The jar output stream
+     * @param jarOut The jar output stream, which writes to the jar writer
      * @throws IOException IOException
+     * @deprecated override {@link #postWrite(ZipWriter)} instead
      */
+    @Deprecated
     protected void postWrite(JarOutputStream jarOut) throws IOException {}
 
+    /**
+     * The stream handed to the deprecated hooks, one per jar writer.
+     */
+    private JarOutputStream legacyJarOut(ZipWriter jarOut) throws IOException
+    {
+        if (legacyJarOut == null || legacyJarOut.target != jarOut)
+        {
+            legacyJarOut = new LegacyJarOutputStream(jarOut);
+        }
+        return legacyJarOut;
+    }
+
+    /**
+     * Puts a source in the map without reading back the one it replaces, if the map would have to for {@link Map#put}.
+     * @param sourceMap the sources, as given to {@link #doStuffMiddle(Map, Map)}
+     * @param name name of the source
+     * @param source new contents
+     */
+    protected static void storeSource(Map<String, String> sourceMap, String name, String source)
+    {
+        if (sourceMap instanceof SpillingSourceMap)
+            ((SpillingSourceMap) sourceMap).store(name, source);
+        else
+            sourceMap.put(name, source);
+    }
+
+    /**
+     * Puts a resource in the map without reading back the one it replaces, if the map would have to for {@link Map#put}.
+     * @param resourceMap the resources, as given to {@link #doStuffMiddle(Map, Map)}
+     * @param name name of the resource
+     * @param data new contents
+     */
+    protected static void storeResource(Map<String, byte[]> resourceMap, String name, byte[] data)
+    {
+        if (resourceMap instanceof ZipResourceMap)
+            ((ZipResourceMap) resourceMap).store(name, data);
+        else
+            resourceMap.put(name, data);
+    }
+
     /**
      * Whether to store the contents of the jar in RAM.
      * If this returns false, then the doStuffMiddle method is not called.
@@ -132,68 +229,234 @@ public abstract class AbstractEditJarTask extends CachedTask
      */
     protected abstract boolean storeJarInRam();
 
+    /**
+     * Whether {@link #asRead(String, String)} may be called from several threads at once.
+     * If this returns true, the sources are read and processed by a pool of threads,
+     * but still stored or written in the order of the jar.
+     * @return asRead is thread safe
+     */
+    protected boolean isAsReadThreadSafe()
+    {
+        return false;
+    }
+
+    /**
+     * Whether the task can run inside of another one, on every source as soon as that one has it, see {@link EditJarPipeline}.
+     * Tasks that need the whole jar in {@link #doStuffMiddle(Map, Map)} can not.
+     * @return whether the task can be fused into another
+     */
+    public boolean canBeFused()
+    {
+        return !storeJarInRam();
+    }
+
     final void readAndStoreJarInRam(File jar, Map<String, String> sourceMap, Map<String, byte[]> resourceMap) throws Exception
     {
-        try (ZipInputStream zin = new ZipInputStream(Files.newInputStream(jar.toPath())))
+        try (RawZipFile zin = new RawZipFile(jar))
+        {
+            readAndStoreJarInRam(zin, sourceMap, resourceMap);
+        }
+    }
+
+    /**
+     * Reads the jar into the maps. If the resource map is a {@link ZipResourceMap} of the same jar,
+     * the resources are only referenced instead of being read.
+     */
+    final void readAndStoreJarInRam(RawZipFile zin, Map<String, String> sourceMap, Map<String, byte[]> resourceMap) throws Exception
+    {
+        final ZipResourceMap lazyResources = resourceMap instanceof ZipResourceMap && ((ZipResourceMap) resourceMap).getZip() == zin
+                ? (ZipResourceMap) resourceMap : null;
+
+        readJar(zin, (entry, source) -> {
+            // resources or directories.
+            if (source == null)
+            {
+                if (lazyResources != null)
+                    lazyResources.putEntry(entry);
+                else
+                    storeResource(resourceMap, entry.getName(), zin.getBytes(entry));
+            }
+            else
+            {
+                storeSource(sourceMap, entry.getName(), source);
+            }
+        });
+    }
+
+    /**
+     * Passes every source of the jar through asRead, and hands the entries to the consumer in the order of the jar.
+     * Entries in META-INF are skipped, it shouldn't be there. If it is we remove it from the output jar.
+     */
+    private void readJar(RawZipFile zin, EntryConsumer consumer) throws Exception
+    {
+        if (!isAsReadThreadSafe())
         {
-            ZipEntry entry;
-            String fileStr;
+            for (RawZipFile.Entry entry : zin.getEntries())
+            {
+                if (!entry.getName().contains("META-INF"))
+                    consumer.accept(entry, isSourceFile(new ZipEntry(entry.getName())) ? readSource(zin, entry) : null);
+            }
+            return;
+        }
 
-            while ((entry = zin.getNextEntry()) != null)
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try
+        {
+            // the workers read and process the sources, and this thread consumes them in order
+            Deque<Map.Entry<RawZipFile.Entry, Future<String>>> pending = new ArrayDeque<>();
+            for (RawZipFile.Entry entry : zin.getEntries())
             {
-                // ignore META-INF, it shouldn't be here. If it is we remove it from the output jar.
                 if (entry.getName().contains("META-INF"))
                 {
                     continue;
                 }
 
-                // resources or directories.
-                if (!isSourceFile(entry))
+                Future<String> source = null;
+                if (isSourceFile(new ZipEntry(entry.getName())))
                 {
-                    resourceMap.put(entry.getName(), ByteStreams.toByteArray(zin));
+                    source = executor.submit(() -> readSource(zin, entry));
                 }
-                else
+                pending.add(Maps.immutableEntry(entry, source));
+
+                if (pending.size() >= MAX_PENDING)
                 {
-                    // source!
-                    fileStr = new String(ByteStreams.toByteArray(zin), Constants.CHARSET);
+                    consumeNext(pending, consumer);
+                }
+            }
+
+            while (!pending.isEmpty())
+            {
+                consumeNext(pending, consumer);
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
 
-                    fileStr = asRead(entry.getName(), fileStr);
+    private String readSource(RawZipFile zin, RawZipFile.Entry entry) throws Exception
+    {
+        return asRead(entry.getName(), new String(zin.getBytes(entry), Constants.CHARSET));
+    }
 
-                    sourceMap.put(entry.getName(), fileStr);
-                }
+    private static void consumeNext(Deque<Map.Entry<RawZipFile.Entry, Future<String>>> pending, EntryConsumer consumer) throws Exception
+    {
+        Map.Entry<RawZipFile.Entry, Future<String>> next = pending.poll();
+        String source = null;
+        if (next.getValue() != null)
+        {
+            try
+            {
+                source = next.getValue().get();
+            }
+            catch (ExecutionException e)
+            {
+                Throwables.throwIfInstanceOf(e.getCause(), Exception.class);
+                Throwables.throwIfUnchecked(e.getCause());
+                throw e;
             }
         }
+        consumer.accept(next.getKey(), source);
+    }
+
+    private interface EntryConsumer
+    {
+        /**
+         * @param entry the entry of the input jar
+         * @param source the processed source, or null if the entry is not a source file
+         */
+        void accept(RawZipFile.Entry entry, String source) throws Exception;
     }
 
+    /**
+     * Writes the maps to the jar. Entries are sorted by name and get a constant time,
+     * so the same contents always make the same jar.
+     */
     protected void saveJar(File output, Map<String, String> sourceMap, Map<String, byte[]> resourceMap) throws IOException
     {
         output.getParentFile().mkdirs();
 
-        try (JarOutputStream zout = new JarOutputStream(Files.newOutputStream(output.toPath())))
-        {
+        ZipResourceMap lazyResources = resourceMap instanceof ZipResourceMap ? (ZipResourceMap) resourceMap : null;
 
-            // write in resources
-            for (Map.Entry<String, byte[]> entry : resourceMap.entrySet())
-            {
-                zout.putNextEntry(new JarEntry(entry.getKey()));
-                zout.write(entry.getValue());
-                zout.closeEntry();
-                postWriteEntry(zout, entry.getKey());
-            }
+        Set<String> names = new TreeSet<>(resourceMap.keySet());
+        names.addAll(sourceMap.keySet());
 
-            // write in sources
-            for (Map.Entry<String, String> entry : sourceMap.entrySet())
+        try (ZipWriter zout = new ZipWriter(output))
+        {
+            for (String name : names)
             {
-                zout.putNextEntry(new JarEntry(entry.getKey()));
-                zout.write(entry.getValue().getBytes());
-                zout.closeEntry();
-                postWriteEntry(zout, entry.getKey());
+                // resources or directories.
+                if (resourceMap.containsKey(name))
+                {
+                    RawZipFile.Entry unchanged = lazyResources == null ? null : lazyResources.getUnchangedEntry(name);
+                    if (unchanged != null)
+                    {
+                        // still in the input jar, copied without inflating and deflating it again
+                        zout.copyEntry(lazyResources.getZip(), unchanged, ZipWriter.NORMALIZED_TIME);
+                    }
+                    else
+                    {
+                        writeEntry(zout, name, resourceMap.get(name));
+                    }
+                    postWriteEntry(zout, name);
+                }
+
+                // sources
+                if (sourceMap.containsKey(name))
+                {
+                    writeEntry(zout, name, sourceMap.get(name).getBytes(Constants.CHARSET));
+                    postWriteEntry(zout, name);
+                }
             }
 
             postWrite(zout);
         }
     }
 
+    /**
+     * Writes a whole entry with the constant entry time, stored or deflated as {@link #isStoredUncompressed(String, byte[])} decides.
+     * @param zout The jar writer
+     * @param name The path to the file in the jar
+     * @param data The contents of the file
+     * @throws IOException IOException
+     */
+    protected final void writeEntry(ZipWriter zout, String name, byte[] data) throws IOException
+    {
+        zout.writeEntry(name, data, ZipWriter.NORMALIZED_TIME, isStoredUncompressed(name, data));
+    }
+
+    /**
+     * Whether an entry should be stored instead of deflated.
+     * <p>
+     * By default tiny files and files that are compressed already are stored, deflating them only costs time.
+     * This can be overridden to change or disable that.
+     *
+     * @param name The path to the file in the jar
+     * @param data The contents of the file
+     * @return true to store the entry uncompressed
+     */
+    protected boolean isStoredUncompressed(String name, byte[] data)
+    {
+        if (data.length < MIN_DEFLATE_SIZE)
+            return true;
+        switch (FilenameUtils.getExtension(name).toLowerCase(Locale.ROOT)) {
+            case "png":
+            case "jpg":
+            case "jpeg":
+            case "gif":
+            case "ogg":
+            case "mp3":
+            case "zip":
+            case "jar":
+            case "gz":
+            case "xz":
+            case "lzma":
+                return true;
+        }
+        return false;
+    }
+
     /**
      * Checks whether the given entry should be treated as a source file
      * <p>
@@ -219,34 +482,23 @@ public abstract class AbstractEditJarTask extends CachedTask
     private void copyJar(File input, File output) throws Exception
     {
         // begin reading jar
-        try (ZipInputStream zin = new ZipInputStream(Files.newInputStream(input.toPath()));
-             JarOutputStream zout = new JarOutputStream(Files.newOutputStream(output.toPath())))
+        try (RawZipFile zin = new RawZipFile(input);
+             ZipWriter zout = new ZipWriter(output))
         {
-            ZipEntry entry;
-            while ((entry = zin.getNextEntry()) != null)
-            {
-                // no META or dirs. wel take care of dirs later.
-                if (entry.getName().contains("META-INF"))
-                {
-                    continue;
-                }
-
+            readJar(zin, (entry, source) -> {
                 // resources or directories.
                 try
                 {
-                    if (!isSourceFile(entry))
+                    if (source == null)
                     {
-                        zout.putNextEntry(new JarEntry(entry));
-                        ByteStreams.copy(zin, zout);
-                        zout.closeEntry();
+                        // copied as they are, without inflating and deflating them again
+                        zout.copyEntry(zin, entry, ZipWriter.NORMALIZED_TIME);
                         postWriteEntry(zout, entry.getName());
                     }
                     else
                     {
                         // source
-                        zout.putNextEntry(new JarEntry(entry.getName()));
-                        zout.write(asRead(entry.getName(), new String(ByteStreams.toByteArray(zin), Constants.CHARSET)).getBytes());
-                        zout.closeEntry();
+                        writeEntry(zout, entry.getName(), source.getBytes(Constants.CHARSET));
                         postWriteEntry(zout, entry.getName());
                     }
                 }
@@ -254,7 +506,7 @@ public abstract class AbstractEditJarTask extends CachedTask
                 {
                     getLogger().debug("Duplicate zip entry {} in {} writing {}", entry.getName(), input, output);
                 }
-            }
+            });
 
             postWrite(zout);
         }
@@ -282,4 +534,57 @@ public abstract class AbstractEditJarTask extends CachedTask
     {
         this.outJar = outJar;
     }
+
+    /**
+     * Passes the calls of a JarOutputStream to a {@link ZipWriter}, so subclasses that still override the
+     * JarOutputStream hooks keep working. Closing it does not close the writer.
+     */
+    private static final class LegacyJarOutputStream extends JarOutputStream
+    {
+        private final ZipWriter target;
+
+        LegacyJarOutputStream(ZipWriter target) throws IOException
+        {
+            super(target);
+            this.target = target;
+            // everything goes to the target, the deflater of the stream is never used
+            def.end();
+        }
+
+        @Override
+        public void putNextEntry(ZipEntry entry) throws IOException
+        {
+            target.putNextEntry(entry);
+        }
+
+        @Override
+        public void closeEntry() throws IOException
+        {
+            target.closeEntry();
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            target.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            target.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            target.flush();
+        }
+
+        @Override
+        public void finish() {}
+
+        @Override
+        public void close() {}
+    }
 }
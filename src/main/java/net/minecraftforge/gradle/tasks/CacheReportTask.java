@@ -0,0 +1,112 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+import net.minecraftforge.gradle.util.caching.CacheDirManager;
+import net.minecraftforge.gradle.util.caching.CacheDirManager.Unit;
+import net.minecraftforge.gradle.util.caching.SharedOutputStore;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+
+import groovy.lang.Closure;
+
+/**
+ * Lists what takes space in the FG cache dir, biggest first, with when it was last used.
+ */
+public class CacheReportTask extends DefaultTask
+{
+    private Object cacheDir;
+    private Object sizeLimit;
+
+    public CacheReportTask()
+    {
+        getOutputs().upToDateWhen(task -> false);
+    }
+
+    @TaskAction
+    public void doTask()
+    {
+        File root = getCacheDir();
+        List<Unit> units = CacheDirManager.scan(root, SharedOutputStore.getDirectory());
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+
+        long total = 0;
+        for (Unit unit : units)
+        {
+            total += unit.getSize();
+            String path = root.toURI().relativize(unit.getRoot().toURI()).getPath();
+            getLogger().lifecycle(String.format("%10s  %s  %s", formatSize(unit.getSize()), format.format(new Date(unit.getLastUsed())), path));
+        }
+
+        getLogger().lifecycle("Total: {} in {} entries", formatSize(total), units.size());
+
+        long limit = getSizeLimit();
+        if (limit >= 0)
+            getLogger().lifecycle("Limit: {}", formatSize(limit));
+        else
+            getLogger().lifecycle("No limit set, see minecraft.cacheSizeLimit");
+    }
+
+    static String formatSize(long bytes)
+    {
+        if (bytes < 1024)
+            return bytes + " B";
+
+        int exp = (int) (Math.log(bytes) / Math.log(1024));
+        return String.format("%.1f %sB", bytes / Math.pow(1024, exp), "KMGTPE".charAt(exp - 1));
+    }
+
+    @Internal
+    public File getCacheDir()
+    {
+        return getProject().file(cacheDir);
+    }
+
+    public void setCacheDir(Object cacheDir)
+    {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * @return the size limit in bytes, or -1 if there is none
+     */
+    @Internal
+    public long getSizeLimit()
+    {
+        Object limit = sizeLimit;
+        while (limit instanceof Closure)
+            limit = ((Closure<?>) limit).call();
+
+        return limit == null ? -1 : CacheDirManager.parseSize(limit);
+    }
+
+    public void setSizeLimit(Object sizeLimit)
+    {
+        this.sizeLimit = sizeLimit;
+    }
+}
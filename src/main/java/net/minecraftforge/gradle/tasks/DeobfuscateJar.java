@@ -20,17 +20,13 @@
  */
 package net.minecraftforge.gradle.tasks;
 
-import static org.objectweb.asm.Opcodes.ACC_FINAL;
-import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
-import static org.objectweb.asm.Opcodes.ACC_PROTECTED;
-import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
-
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
 import java.util.*;
-import java.util.zip.ZipFile;
+import java.util.concurrent.ExecutionException;
 
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.tasks.Input;
@@ -40,13 +36,25 @@ import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InnerClassNode;
+import org.objectweb.asm.tree.MethodNode;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.io.Files;
 import com.google.common.io.LineProcessor;
+import com.google.gson.JsonParseException;
 
 import de.oceanlabs.mcp.mcinjector.LVTNaming;
 import de.oceanlabs.mcp.mcinjector.MCInjectorImpl;
@@ -59,11 +67,14 @@ import net.md_5.specialsource.RemapperProcessor;
 import net.md_5.specialsource.provider.JarProvider;
 import net.md_5.specialsource.provider.JointProvider;
 import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.ParallelJarRemapper;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.caching.CachedTask;
 import net.minecraftforge.gradle.util.json.JsonFactory;
 import net.minecraftforge.gradle.util.json.MCInjectorStruct;
 import net.minecraftforge.gradle.util.json.MCInjectorStruct.InnerClass;
+import net.minecraftforge.gradle.util.zip.RawZipFile;
+import net.minecraftforge.gradle.util.zip.ZipWriter;
 import org.jetbrains.annotations.NotNull;
 
 public class DeobfuscateJar extends CachedTask
@@ -105,6 +116,8 @@ public class DeobfuscateJar extends CachedTask
     {
         // make stuff into files.
         File tempObfJar = new File(getTemporaryDir(), "deobfed.jar"); // courtesy of gradle temp dir.
+        File baseJar = new File(getTemporaryDir(), "exceptored.jar"); // everything but the ATs applied
+        File baseInfo = new File(getTemporaryDir(), "exceptored.json");
         File out = getOutJar();
 
         // make the ATs list.. its a Set to avoid duplication.
@@ -114,161 +127,352 @@ public class DeobfuscateJar extends CachedTask
             ats.add(getProject().file(obj).getCanonicalFile());
         }
 
-        // deobf
-        getLogger().lifecycle("Applying SpecialSource...");
-        deobfJar(getInJar(), tempObfJar, getSrg(), ats);
+        // the ATs are applied last, so when only they change the deobfuscated jar of the last run can be used again
+        String baseInputs = hashBaseInputs();
+        BaseJarInfo info = readBaseJarInfo(baseInfo, baseJar, baseInputs);
+        if (info == null)
+        {
+            baseInfo.delete();
 
-        File log = getLog();
-        if (log == null)
-            log = new File(getTemporaryDir(), "exceptor.log");
+            // deobf
+            getLogger().lifecycle("Applying SpecialSource...");
+            Set<String> deobfEntries = deobfJar(getInJar(), tempObfJar, getSrg());
 
-        // apply exceptor
-        getLogger().lifecycle("Applying Exceptor...");
-        applyExceptor(tempObfJar, out, getExceptorCfg(), log, ats);
+            File log = getLog();
+            if (log == null)
+                log = new File(getTemporaryDir(), "exceptor.log");
+
+            // apply exceptor
+            getLogger().lifecycle("Applying Exceptor...");
+            applyExceptor(tempObfJar, deobfEntries, baseJar, getExceptorCfg(), log);
+
+            info = new BaseJarInfo(baseInputs, Constants.hash(baseJar), readInnerClasses(baseJar));
+            Files.write(JsonFactory.GSON.toJson(info).getBytes(Constants.CHARSET), baseInfo);
+        }
+        else
+        {
+            getLogger().lifecycle("Only the access transformers changed, reusing the deobfuscated jar");
+        }
+
+        getLogger().lifecycle("Applying AccessTransformers...");
+        applyAccessTransformers(baseJar, out, ats, info.innerClasses);
     }
 
-    private void deobfJar(File inJar, File outJar, File srg, Collection<File> ats) throws IOException
+    /**
+     * @return the names of the entries in the deobfuscated jar
+     */
+    private Set<String> deobfJar(File inJar, File outJar, File srg) throws IOException
     {
         // load mapping
         JarMapping mapping = new JarMapping();
         mapping.loadMappings(srg);
 
+        // load jar
+        try (Jar input = Jar.init(inJar))
+        {
+            // ensure that inheritance provider is used
+            JointProvider inheritanceProviders = new JointProvider();
+            inheritanceProviders.add(new JarProvider(input));
+
+            // make a remapper for every thread, with a processor out of the mappings.
+            ParallelJarRemapper remapper = new ParallelJarRemapper(mapping, inheritanceProviders,
+                    threadMapping -> new JarRemapper(new RemapperProcessor(null, threadMapping, null), threadMapping));
+
+            // only the exceptor reads it, so the time for deflating it is saved
+            remapper.setCompress(false);
+
+            // remap jar
+            return remapper.remapJar(input, outJar);
+        }
+    }
+
+    /**
+     * Applies the ATs to the deobfuscated jar, the same way SpecialSource would.
+     * Only the classes the ATs can be about are rewritten, everything else is copied as it is.
+     */
+    private void applyAccessTransformers(File inJar, File outJar, Collection<File> ats, Map<String, List<String>> innerClasses) throws IOException
+    {
         // load in ATs
-        ErroringRemappingAccessMap accessMap = new ErroringRemappingAccessMap(new File[] { getMethodCsv(), getFieldCsv() });
+        ErroringRemappingAccessMap accessMap = new ErroringRemappingAccessMap(loadRenames(getMethodCsv(), getFieldCsv()));
 
         getLogger().info("Using AccessTransformers...");
-        //Make SS shutup about access maps
         for (File at : ats)
         {
             getLogger().info("{}", at);
             accessMap.loadAccessTransformer(at);
         }
-        //        System.setOut(tmp);
 
-        // make a processor out of the ATS and mappings.
-        RemapperProcessor srgProcessor = new RemapperProcessor(null, mapping, null);
-
-        RemapperProcessor atProcessor = new RemapperProcessor(null, null, accessMap);
-        // make remapper
-        JarRemapper remapper = new JarRemapper(srgProcessor, mapping, atProcessor);
-
-        // load jar
-        try (Jar input = Jar.init(inJar))
+        // the keys are  class,  class/member  or  class/method desc  so every prefix up to a / may be the class.
+        boolean everything = false;
+        Set<String> targets = new HashSet<>();
+        for (String key : accessMap.getMap().keySet())
         {
-            // ensure that inheritance provider is used
-            JointProvider inheritanceProviders = new JointProvider();
-            inheritanceProviders.add(new JarProvider(input));
-            mapping.setFallbackInheritanceProvider(inheritanceProviders);
+            if (key.startsWith("*"))
+            {
+                everything = true;
+                break;
+            }
 
-            // remap jar
-            remapper.remapJar(input, outJar);
+            String symbol = key.indexOf(' ') == -1 ? key : key.substring(0, key.indexOf(' '));
+            targets.add(symbol);
+            for (int i = symbol.lastIndexOf('/'); i > 0; i = symbol.lastIndexOf('/', i - 1))
+            {
+                targets.add(symbol.substring(0, i));
+            }
+        }
 
-            // throw error for broken AT lines
-            if (!accessMap.brokenLines.isEmpty() && failOnAtError)
+        int rewritten = 0;
+        outJar.getParentFile().mkdirs();
+        try (RawZipFile zin = new RawZipFile(inJar);
+             ZipWriter zout = new ZipWriter(outJar))
+        {
+            for (RawZipFile.Entry entry : zin.getEntries())
             {
-                getLogger().error("{} Broken Access Transformer lines:", accessMap.brokenLines.size());
-                for (String line : accessMap.brokenLines.values())
+                String name = entry.getName();
+                if (!name.endsWith(".class"))
                 {
-                    getLogger().error(" ---  {}", line);
+                    zout.copyEntry(zin, entry);
+                    continue;
                 }
 
-                // TODO: add info for disabling
-
-                throw new RuntimeException("Your Access Transformers be broke!");
+                String className = name.substring(0, name.length() - ".class".length());
+                if (everything || targets.contains(className) || !Collections.disjoint(targets, innerClasses.getOrDefault(className, Collections.emptyList())))
+                {
+                    zout.writeEntry(name, applyAccess(accessMap, zin.getBytes(entry)), ZipWriter.NORMALIZED_TIME, false);
+                    rewritten++;
+                }
+                else
+                {
+                    zout.copyEntry(zin, entry);
+                }
             }
         }
-    }
+        getLogger().info("Rewrote {} classes for the AccessTransformers", rewritten);
 
-    private int fixAccess(int access, String target)
-    {
-        int ret = access & ~7;
-        int t = 0;
-
-        if (target.startsWith("public"))
-            t = ACC_PUBLIC;
-        else if (target.startsWith("private"))
-            t = ACC_PRIVATE;
-        else if (target.startsWith("protected"))
-            t = ACC_PROTECTED;
-
-        switch (access & 7)
+        // throw error for broken AT lines
+        if (!accessMap.brokenLines.isEmpty() && failOnAtError)
+        {
+            getLogger().error("{} Broken Access Transformer lines:", accessMap.brokenLines.size());
+            for (String line : accessMap.brokenLines.values())
             {
-                case ACC_PRIVATE:
-                    ret |= t;
-                    break;
-                case 0:
-                    ret |= (t != ACC_PRIVATE ? t : 0);
-                    break;
-                case ACC_PROTECTED:
-                    ret |= (t != ACC_PRIVATE && t != 0 ? t : ACC_PROTECTED);
-                    break;
-                case ACC_PUBLIC:
-                    ret |= ACC_PUBLIC;
-                    break;
+                getLogger().error(" ---  {}", line);
             }
 
-        if (target.endsWith("-f"))
-            ret &= ~ACC_FINAL;
-        else if (target.endsWith("+f"))
-            ret |= ACC_FINAL;
-        return ret;
+            // TODO: add info for disabling
+
+            throw new RuntimeException("Your Access Transformers be broke!");
+        }
     }
 
-    public void applyExceptor(File inJar, File outJar, File config, File log, Set<File> ats) throws IOException
+    /**
+     * The SRG to MCP names of the CSVs, shared by every task that renames its ATs with the same CSVs.
+     * Keyed by the hashes of the CSVs, so a changed CSV is read again.
+     */
+    private static final Cache<List<String>, Map<String, String>> RENAMES = CacheBuilder.newBuilder()
+            .maximumSize(4)
+            .softValues()
+            .build();
+
+    private static Map<String, String> loadRenames(final File... csvs) throws IOException
     {
-        String json = null;
-        File getJson = getExceptorJson();
-        if (getJson != null)
+        List<String> key = Lists.newArrayList();
+        for (File csv : csvs)
         {
-            final Map<String, MCInjectorStruct> struct = JsonFactory.loadMCIJson(getJson);
-            for (File at : ats)
-            {
-                getLogger().info("loading AT: {}", at.getCanonicalPath());
+            key.add(csv == null ? "" : Constants.hash(csv));
+        }
 
-                Files.asCharSource(at, Charset.defaultCharset()).readLines( new LineProcessor<Object>()
+        try
+        {
+            return RENAMES.get(key, () -> {
+                final Map<String, String> renames = Maps.newHashMap();
+                for (File csv : csvs)
                 {
-                    @Override
-                    public boolean processLine(@NotNull String line) throws IOException
+                    if (csv == null)
+                        continue;
+                    Files.asCharSource(csv, Charsets.UTF_8).readLines(new LineProcessor<String>()
                     {
-                        if (line.indexOf('#') != -1)
-                            line = line.substring(0, line.indexOf('#'));
-                        line = line.trim().replace('.', '/');
-                        if (line.isEmpty())
-                            return true;
-
-                        String[] s = line.split(" ");
-                        if (s.length == 2 && s[1].indexOf('$') > 0)
+                        @Override
+                        public boolean processLine(@NotNull String line)
                         {
-                            String parent = s[1].substring(0, s[1].indexOf('$'));
-                            for (MCInjectorStruct cls : new MCInjectorStruct[] { struct.get(parent), struct.get(s[1]) })
+                            String[] pts = line.split(",");
+                            if (!"searge".equals(pts[0]))
                             {
-                                if (cls != null && cls.innerClasses != null)
-                                {
-                                    for (InnerClass inner : cls.innerClasses)
-                                    {
-                                        if (inner.inner_class.equals(s[1]))
-                                        {
-                                            int access = fixAccess(inner.getAccess(), s[0]);
-                                            inner.access = (access == 0 ? null : Integer.toHexString(access));
-                                        }
-                                    }
-                                }
+                                renames.put(pts[0], pts[1]);
                             }
+
+                            return true;
                         }
 
-                        return true;
+                        @Override
+                        public String getResult()
+                        {
+                            return null;
+                        }
+                    });
+                }
+                return Collections.unmodifiableMap(renames);
+            });
+        }
+        catch (ExecutionException e)
+        {
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static byte[] applyAccess(AccessMap accessMap, byte[] data)
+    {
+        ClassNode node = new ClassNode();
+        new ClassReader(data).accept(node, 0);
+
+        node.access = accessMap.applyClassAccess(node.name, node.access);
+        for (InnerClassNode inner : node.innerClasses)
+        {
+            inner.access = accessMap.applyClassAccess(inner.name, inner.access);
+        }
+        for (FieldNode field : node.fields)
+        {
+            field.access = accessMap.applyFieldAccess(node.name, field.name, field.access);
+        }
+        for (MethodNode method : node.methods)
+        {
+            method.access = accessMap.applyMethodAccess(node.name, method.name, method.desc, method.access);
+        }
+
+        ClassWriter writer = new ClassWriter(0);
+        node.accept(writer);
+        return writer.toByteArray();
+    }
+
+    /**
+     * @return class name -&gt; names in its InnerClasses attribute, for every class that has one
+     */
+    private static Map<String, List<String>> readInnerClasses(File jar) throws IOException
+    {
+        final Map<String, List<String>> ret = new HashMap<>();
+        try (RawZipFile zin = new RawZipFile(jar))
+        {
+            for (RawZipFile.Entry entry : zin.getEntries())
+            {
+                if (!entry.getName().endsWith(".class"))
+                    continue;
+
+                new ClassReader(zin.getBytes(entry)).accept(new ClassVisitor(Opcodes.ASM9)
+                {
+                    private String name;
+
+                    @Override
+                    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces)
+                    {
+                        this.name = name;
                     }
 
                     @Override
-                    public Object getResult()
+                    public void visitInnerClass(String innerName, String outerName, String simpleName, int access)
                     {
-                        return null;
+                        ret.computeIfAbsent(name, k -> new ArrayList<>()).add(innerName);
                     }
-                });
+                }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
             }
+        }
+        return ret;
+    }
+
+    /**
+     * @return a hash of every input, except the ATs and the CSVs that are only used to rename them
+     */
+    private String hashBaseInputs()
+    {
+        List<String> hashes = Lists.newArrayList(Constants.hash(getInJar()), Constants.hash(getSrg()), Constants.hash(getExceptorCfg()));
+        File json = getExceptorJson();
+        hashes.add(json == null ? "" : Constants.hash(json));
+        hashes.add(Boolean.toString(isApplyMarkers()));
+        // the jar is made by this plugin, SpecialSource and MCInjector, which the task inputs don't cover
+        hashes.add(String.valueOf(DeobfuscateJar.class.getPackage().getImplementationVersion()));
+        hashes.add(hashCodeSource(DeobfuscateJar.class));
+        hashes.add(hashCodeSource(Jar.class));
+        hashes.add(hashCodeSource(MCInjectorImpl.class));
+        return Constants.hash(Joiner.on(',').join(hashes));
+    }
+
+    /**
+     * @return the hash of the jar a class was loaded from, or its location if that is not a jar
+     */
+    private static String hashCodeSource(Class<?> type)
+    {
+        CodeSource source = type.getProtectionDomain().getCodeSource();
+        if (source == null || source.getLocation() == null)
+            return type.getName();
+
+        File file;
+        try
+        {
+            file = new File(source.getLocation().toURI());
+        }
+        catch (URISyntaxException | IllegalArgumentException e)
+        {
+            return source.getLocation().toString();
+        }
+        return file.isFile() ? Constants.hash(file) : file.getAbsolutePath();
+    }
+
+    private BaseJarInfo readBaseJarInfo(File infoFile, File baseJar, String inputs) throws IOException
+    {
+        if (!infoFile.exists() || !baseJar.exists())
+            return null;
+
+        BaseJarInfo info;
+        try
+        {
+            info = JsonFactory.GSON.fromJson(Files.asCharSource(infoFile, Constants.CHARSET).read(), BaseJarInfo.class);
+        }
+        catch (JsonParseException e)
+        {
+            getLogger().debug("Ignoring unreadable {}", infoFile, e);
+            return null;
+        }
+
+        if (info == null || info.innerClasses == null || !inputs.equals(info.inputs) || !Constants.hash(baseJar).equals(info.jar))
+            return null;
+        return info;
+    }
+
+    /**
+     * What the deobfuscated jar without ATs was made from, stored next to it.
+     */
+    private static class BaseJarInfo
+    {
+        private final String                    inputs;
+        private final String                    jar;
+        private final Map<String, List<String>> innerClasses;
+
+        private BaseJarInfo(String inputs, String jar, Map<String, List<String>> innerClasses)
+        {
+            this.inputs = inputs;
+            this.jar = jar;
+            this.innerClasses = innerClasses;
+        }
+    }
+
+    /**
+     * @param inJar the deobfuscated jar
+     * @param inEntries the names of the entries in the deobfuscated jar
+     * @param outJar the jar to write
+     * @param config the exceptor config
+     * @param log the file to log to
+     * @throws IOException if the jars could not be read or written
+     */
+    public void applyExceptor(File inJar, Set<String> inEntries, File outJar, File config, File log) throws IOException
+    {
+        String json = null;
+        File getJson = getExceptorJson();
+        if (getJson != null)
+        {
+            final Map<String, MCInjectorStruct> struct = JsonFactory.loadMCIJson(getJson);
 
             // Remove unknown classes from configuration
-            removeUnknownClasses(inJar, struct);
+            removeUnknownClasses(inEntries, struct);
 
             File jsonTmp = new File(this.getTemporaryDir(), "transformed.json");
             json = jsonTmp.getCanonicalPath();
@@ -295,38 +499,35 @@ public class DeobfuscateJar extends CachedTask
                 );
     }
 
-    private void removeUnknownClasses(File inJar, Map<String, MCInjectorStruct> config) throws IOException
+    private void removeUnknownClasses(Set<String> entries, Map<String, MCInjectorStruct> config)
     {
-        try (ZipFile zip = new ZipFile(inJar))
+        Iterator<Map.Entry<String, MCInjectorStruct>> iterator = config.entrySet().iterator();
+        while (iterator.hasNext())
         {
-            Iterator<Map.Entry<String, MCInjectorStruct>> entries = config.entrySet().iterator();
-            while (entries.hasNext())
-            {
-                Map.Entry<String, MCInjectorStruct> entry = entries.next();
-                String className = entry.getKey();
+            Map.Entry<String, MCInjectorStruct> entry = iterator.next();
+            String className = entry.getKey();
 
-                // Verify the configuration contains only classes we actually have
-                if (zip.getEntry(className + ".class") == null)
-                {
-                    getLogger().info("Removing unknown class {}", className);
-                    entries.remove();
-                    continue;
-                }
+            // Verify the configuration contains only classes we actually have
+            if (!entries.contains(className + ".class"))
+            {
+                getLogger().info("Removing unknown class {}", className);
+                iterator.remove();
+                continue;
+            }
 
-                MCInjectorStruct struct = entry.getValue();
+            MCInjectorStruct struct = entry.getValue();
 
-                // Verify the inner classes in the configuration actually exist in our deobfuscated JAR file
-                if (struct.innerClasses != null)
+            // Verify the inner classes in the configuration actually exist in our deobfuscated JAR file
+            if (struct.innerClasses != null)
+            {
+                Iterator<InnerClass> innerClasses = struct.innerClasses.iterator();
+                while (innerClasses.hasNext())
                 {
-                    Iterator<InnerClass> innerClasses = struct.innerClasses.iterator();
-                    while (innerClasses.hasNext())
+                    InnerClass innerClass = innerClasses.next();
+                    if (!entries.contains(innerClass.inner_class + ".class"))
                     {
-                        InnerClass innerClass = innerClasses.next();
-                        if (zip.getEntry(innerClass.inner_class + ".class") == null)
-                        {
-                            getLogger().info("Removing unknown inner class {} from {}", innerClass.inner_class, className);
-                            innerClasses.remove();
-                        }
+                        getLogger().info("Removing unknown inner class {} from {}", innerClass.inner_class, className);
+                        innerClasses.remove();
                     }
                 }
             }
@@ -498,39 +699,21 @@ public class DeobfuscateJar extends CachedTask
         this.methodCsv = methodCsv;
     }
 
+    @Override
+    protected boolean defaultShareOutputs()
+    {
+        return true;
+    }
+
     private static final class ErroringRemappingAccessMap extends AccessMap
     {
-        private final Map<String, String> renames     = Maps.newHashMap();
+        private final Map<String, String> renames;
         public final Map<String, String>  brokenLines = Maps.newTreeMap();
 
-        public ErroringRemappingAccessMap(File[] renameCsvs) throws IOException
+        public ErroringRemappingAccessMap(Map<String, String> renames)
         {
             super();
-
-            for (File f : renameCsvs)
-            {
-                if (f == null)
-                    continue;
-                Files.asCharSource(f, Charsets.UTF_8).readLines( new LineProcessor<String>()
-                {
-                    @Override
-                    public boolean processLine(@NotNull String line) {
-                        String[] pts = line.split(",");
-                        if (!"searge".equals(pts[0]))
-                        {
-                            renames.put(pts[0], pts[1]);
-                        }
-
-                        return true;
-                    }
-
-                    @Override
-                    public String getResult()
-                    {
-                        return null;
-                    }
-                });
-            }
+            this.renames = renames;
         }
 
         @Override
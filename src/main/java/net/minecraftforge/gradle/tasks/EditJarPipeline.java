@@ -0,0 +1,315 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.zip.RawZipFile;
+import net.minecraftforge.gradle.util.zip.ZipWriter;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Runs {@link AbstractEditJarTask}s that each read the jar the one before them writes on the sources of one jar,
+ * without writing the jars in between. What it writes is what the last of them would write.
+ * Only tasks that edit one source at a time can run like this, see {@link AbstractEditJarTask#canBeFused()}.
+ */
+public class EditJarPipeline
+{
+    private static final int THREADS     = Runtime.getRuntime().availableProcessors();
+    /** How many processed sources may wait in memory for the ones before them to be written. */
+    private static final int MAX_PENDING = THREADS * 4;
+
+    private final List<AbstractEditJarTask> stages;
+
+    public EditJarPipeline(List<AbstractEditJarTask> stages)
+    {
+        this.stages = ImmutableList.copyOf(stages);
+    }
+
+    /**
+     * @return hash of what the stages read besides their input jar, so it changes whenever what they write could
+     */
+    public String hashInputs()
+    {
+        List<String> hashes = new ArrayList<>();
+        for (AbstractEditJarTask stage : stages)
+        {
+            hashes.add(stage.getClass().getName());
+            hashes.add(new TreeMap<>(stage.getInputs().getProperties()).toString());
+
+            File inJar = stage.getInJar();
+            Map<String, File> files = new TreeMap<>();
+            for (File file : stage.getInputs().getFiles().getFiles())
+            {
+                if (!file.equals(inJar))
+                    files.put(file.getAbsolutePath(), file);
+            }
+            for (File file : files.values())
+            {
+                // patches are found by their names
+                hashes.add(file.getName() + ':' + Constants.hash(file));
+            }
+        }
+        return Constants.hash(Joiner.on(',').join(hashes));
+    }
+
+    /**
+     * Prepares every stage, like the tasks do before reading their jar.
+     * @throws Exception if a stage could not be prepared
+     */
+    public void begin() throws Exception
+    {
+        for (AbstractEditJarTask stage : stages)
+        {
+            stage.doStuffBefore();
+        }
+    }
+
+    /**
+     * Passes a source through every stage that treats it as a source. This may be called from several threads at once.
+     * @param name name of the source in the jar
+     * @param source contents of the source
+     * @return what the last stage would write
+     * @throws Exception if a stage could not process it
+     */
+    public String process(String name, String source) throws Exception
+    {
+        return process(name, source, 0);
+    }
+
+    private String process(String name, String source, int firstStage) throws Exception
+    {
+        ZipEntry entry = new ZipEntry(name);
+        for (AbstractEditJarTask stage : stages.subList(firstStage, stages.size()))
+        {
+            if (!stage.isSourceFile(entry))
+                continue;
+
+            if (stage.isAsReadThreadSafe())
+            {
+                source = stage.asRead(name, source);
+            }
+            else
+            {
+                synchronized (stage)
+                {
+                    source = stage.asRead(name, source);
+                }
+            }
+        }
+        return source;
+    }
+
+    /**
+     * Copies the jar with its sources passed through {@link #process(String, String)}, for when they could not be processed as they were made.
+     * The sources are processed by a pool of threads, but the entries stay in the same order. Nothing is left out yet.
+     * @param in the jar to read
+     * @param out where to write the jar
+     * @throws Exception if the jar could not be read or written, or a source not processed
+     */
+    public void processJar(File in, File out) throws Exception
+    {
+        AbstractEditJarTask last = stages.get(stages.size() - 1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try (RawZipFile zin = new RawZipFile(in);
+             ZipWriter zout = new ZipWriter(out))
+        {
+            Deque<Map.Entry<RawZipFile.Entry, Future<String>>> pending = new ArrayDeque<>();
+            for (RawZipFile.Entry entry : zin.getEntries())
+            {
+                Future<String> source = null;
+                if (isAnySourceFile(entry.getName()))
+                {
+                    source = executor.submit(() -> process(entry.getName(), new String(zin.getBytes(entry), Constants.CHARSET)));
+                }
+                pending.add(Maps.immutableEntry(entry, source));
+
+                while (pending.size() >= MAX_PENDING || !pending.isEmpty() && (pending.peek().getValue() == null || pending.peek().getValue().isDone()))
+                {
+                    writeNext(pending, zin, zout, last);
+                }
+            }
+
+            while (!pending.isEmpty())
+            {
+                writeNext(pending, zin, zout, last);
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void writeNext(Deque<Map.Entry<RawZipFile.Entry, Future<String>>> pending, RawZipFile zin, ZipWriter zout, AbstractEditJarTask stage) throws Exception
+    {
+        Map.Entry<RawZipFile.Entry, Future<String>> next = pending.poll();
+        if (next.getValue() == null)
+        {
+            zout.copyEntry(zin, next.getKey());
+            return;
+        }
+
+        String source;
+        try
+        {
+            source = next.getValue().get();
+        }
+        catch (ExecutionException e)
+        {
+            Throwables.throwIfInstanceOf(e.getCause(), Exception.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw e;
+        }
+        stage.writeEntry(zout, next.getKey().getName(), source.getBytes(Constants.CHARSET));
+    }
+
+    private boolean isAnySourceFile(String name)
+    {
+        ZipEntry entry = new ZipEntry(name);
+        for (AbstractEditJarTask stage : stages)
+        {
+            if (stage.isSourceFile(entry))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the jar the last stage would write, from a jar with sources passed through {@link #process(String, String)} already.
+     * The entries are copied as they are, in the same order, without META-INF like every stage leaves it out.
+     * What every stage adds after its entries is then passed through the stages after it.
+     * @param in the jar with the processed sources
+     * @param out where to write the jar
+     * @throws Exception if the jar could not be read or written, or a stage failed
+     */
+    public void writeJar(File in, File out) throws Exception
+    {
+        out.getParentFile().mkdirs();
+
+        try (RawZipFile zin = new RawZipFile(in);
+             ZipWriter zout = new ZipWriter(out))
+        {
+            for (RawZipFile.Entry entry : zin.getEntries())
+            {
+                if (entry.getName().contains("META-INF"))
+                    continue;
+
+                zout.copyEntry(zin, entry, ZipWriter.NORMALIZED_TIME);
+                written(zout, entry.getName(), 0);
+            }
+
+            for (int i = 0; i < stages.size(); i++)
+            {
+                writeAdded(zout, i);
+            }
+        }
+    }
+
+    /**
+     * Writes what the stage adds at the end of its jar, passed through the stages after it.
+     */
+    private void writeAdded(ZipWriter zout, int stage) throws Exception
+    {
+        // only a few small files, so kept in memory
+        ByteArrayOutputStream added = new ByteArrayOutputStream();
+        try (ZipWriter addedOut = new ZipWriter(added))
+        {
+            stages.get(stage).postWrite(addedOut);
+        }
+
+        AbstractEditJarTask last = stages.get(stages.size() - 1);
+        try (ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(added.toByteArray())))
+        {
+            ZipEntry entry;
+            while ((entry = zin.getNextEntry()) != null)
+            {
+                String name = entry.getName();
+                boolean later = stage < stages.size() - 1;
+                // the stages after it would leave those out
+                if (later && name.contains("META-INF") || zout.hasEntry(name))
+                {
+                    stages.get(stage).getLogger().debug("Leaving out the added entry {}", name);
+                    continue;
+                }
+
+                byte[] data = ByteStreams.toByteArray(zin);
+                if (later && !entry.isDirectory())
+                {
+                    data = processAdded(name, data, stage + 1);
+                }
+                last.writeEntry(zout, name, data);
+                written(zout, name, stage + 1);
+            }
+        }
+    }
+
+    private byte[] processAdded(String name, byte[] data, int firstStage) throws Exception
+    {
+        for (AbstractEditJarTask stage : stages.subList(firstStage, stages.size()))
+        {
+            if (stage.isSourceFile(new ZipEntry(name)))
+                return process(name, new String(data, Constants.CHARSET), firstStage).getBytes(Constants.CHARSET);
+        }
+        return data;
+    }
+
+    private void written(ZipWriter zout, String name, int firstStage) throws IOException
+    {
+        for (AbstractEditJarTask stage : stages.subList(firstStage, stages.size()))
+        {
+            stage.postWriteEntry(zout, name);
+        }
+    }
+
+    /**
+     * Finishes every stage, like the tasks do after writing their jar.
+     * @throws Exception if a stage failed, like when a patch could not be applied
+     */
+    public void end() throws Exception
+    {
+        for (AbstractEditJarTask stage : stages)
+        {
+            stage.doStuffAfter();
+        }
+    }
+}
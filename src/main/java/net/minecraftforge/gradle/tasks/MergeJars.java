@@ -20,28 +20,40 @@
  */
 package net.minecraftforge.gradle.tasks;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.RecordComponentVisitor;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AnnotationNode;
 import org.objectweb.asm.tree.ClassNode;
@@ -52,6 +64,7 @@ import org.objectweb.asm.tree.InnerClassNode;
 import com.google.common.base.Function;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.ByteStreams;
@@ -61,6 +74,8 @@ import net.minecraftforge.fml.relauncher.Side;
 import net.minecraftforge.fml.relauncher.SideOnly;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.caching.CachedTask;
+import net.minecraftforge.gradle.util.zip.RawZipFile;
+import net.minecraftforge.gradle.util.zip.ZipWriter;
 
 public class MergeJars extends CachedTask
 {
@@ -79,6 +94,9 @@ public class MergeJars extends CachedTask
 
     private static final boolean  DEBUG         = false;
 
+    /** How many classes are merged at once. Tests set this to 1 to compare against a sequential merge. */
+    int                           threads       = Runtime.getRuntime().availableProcessors();
+
     @TaskAction
     public void doTask() throws IOException
     {
@@ -87,67 +105,73 @@ public class MergeJars extends CachedTask
 
     private void processJar(File clientInFile, File serverInFile, File outFile) throws IOException
     {
-        try (ZipFile cInJar = new ZipFile(clientInFile);
-             ZipFile sInJar = new ZipFile(serverInFile);
-             ZipOutputStream outJar = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(outFile))))
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        // how many merged classes may wait in memory for the ones before them to be written
+        int maxPending = threads * 8;
+        try (RawZipFile cInJar = new RawZipFile(clientInFile);
+             RawZipFile sInJar = new RawZipFile(serverInFile);
+             ZipWriter outJar = new ZipWriter(outFile))
         {
             // read in the jars, and initalize some variables
             HashSet<String> resources = new HashSet<>();
-            HashMap<String, ZipEntry> cClasses = getClassEntries(cInJar, outJar, resources);
-            HashMap<String, ZipEntry> sClasses = getClassEntries(sInJar, outJar, resources);
+            HashMap<String, RawZipFile.Entry> cClasses = getClassEntries(cInJar, outJar, resources);
+            HashMap<String, RawZipFile.Entry> sClasses = getClassEntries(sInJar, outJar, resources);
             HashSet<String> cAdded = new HashSet<>();
 
+            // the classes are merged by the workers, but written here in the order they were submitted
+            Deque<PendingClass> pending = new ArrayDeque<>();
+
             // start processing
-            for (Entry<String, ZipEntry> entry : cClasses.entrySet())
+            for (Entry<String, RawZipFile.Entry> entry : cClasses.entrySet())
             {
                 String name = entry.getKey();
-                ZipEntry cEntry = entry.getValue();
-                ZipEntry sEntry = sClasses.get(name);
+                RawZipFile.Entry cEntry = entry.getValue();
+                RawZipFile.Entry sEntry = sClasses.get(name);
 
                 if (sEntry == null)
                 {
-                    copyClass(cInJar, cEntry, outJar, true);
-                    cAdded.add(name);
-                    continue;
+                    pending.add(new PendingClass(cEntry.getName(), executor.submit(() -> copyClass(cInJar.getBytes(cEntry), true))));
                 }
-
-                sClasses.remove(name);
-                byte[] cData = readEntry(cInJar, entry.getValue());
-                byte[] sData = readEntry(sInJar, sEntry);
-                byte[] data = processClass(cData, sData);
-
-                ZipEntry newEntry = new ZipEntry(cEntry.getName());
-                try {
-                    outJar.putNextEntry(newEntry);
-                    outJar.write(data);
-                } finally {
-                    outJar.closeEntry();
+                else
+                {
+                    sClasses.remove(name);
+                    pending.add(new PendingClass(cEntry.getName(), executor.submit(() -> processClass(cInJar.getBytes(cEntry), sInJar.getBytes(sEntry)))));
                 }
                 cAdded.add(name);
+
+                if (pending.size() >= maxPending)
+                {
+                    pending.poll().write(outJar);
+                }
             }
 
-            for (Entry<String, ZipEntry> entry : sClasses.entrySet())
+            for (Entry<String, RawZipFile.Entry> entry : sClasses.entrySet())
             {
                 if (DEBUG)
                 {
                     System.out.println("Copy class s->c : " + entry.getKey());
                 }
-                copyClass(sInJar, entry.getValue(), outJar, false);
+                RawZipFile.Entry sEntry = entry.getValue();
+                pending.add(new PendingClass(sEntry.getName(), executor.submit(() -> copyClass(sInJar.getBytes(sEntry), false))));
+
+                if (pending.size() >= maxPending)
+                {
+                    pending.poll().write(outJar);
+                }
+            }
+
+            while (!pending.isEmpty())
+            {
+                pending.poll().write(outJar);
             }
 
             for (String name : new String[] { sideOnlyClass.getName(), sideClass.getName() })
             {
                 String eName = name.replace(".", "/");
                 String classPath = eName + ".class";
-                ZipEntry newEntry = new ZipEntry(classPath);
                 if (!cAdded.contains(eName))
                 {
-                    try {
-                        outJar.putNextEntry(newEntry);
-                        outJar.write(getClassBytes(name));
-                    } finally {
-                        outJar.closeEntry();
-                    }
+                    outJar.writeEntry(classPath, getClassBytes(name), ZipWriter.NORMALIZED_TIME, false);
                 }
             }
 
@@ -156,39 +180,57 @@ public class MergeJars extends CachedTask
         {
             throw new FileNotFoundException("Could not open input/output file: " + e.getMessage());
         }
+        finally
+        {
+            executor.shutdownNow();
+        }
     }
 
-    private void copyClass(ZipFile inJar, ZipEntry entry, ZipOutputStream outJar, boolean isClientOnly) throws IOException
+    /**
+     * A class that is being merged or copied by a worker, and still has to be written to the output jar.
+     */
+    private static class PendingClass
     {
-        ClassReader reader = new ClassReader(readEntry(inJar, entry));
-        ClassNode classNode = new ClassNode();
+        private final String         entryName;
+        private final Future<byte[]> data;
 
-        reader.accept(classNode, 0);
-
-        if (classNode.visibleAnnotations == null)
+        public PendingClass(String entryName, Future<byte[]> data)
         {
-            classNode.visibleAnnotations = new ArrayList<>();
+            this.entryName = entryName;
+            this.data = data;
         }
-        classNode.visibleAnnotations.add(getSideAnn(isClientOnly));
-
-        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-        classNode.accept(writer);
-        byte[] data = writer.toByteArray();
 
-        ZipEntry newEntry = new ZipEntry(entry.getName());
-        if (outJar != null)
+        public void write(ZipWriter outJar) throws IOException
         {
-            outJar.putNextEntry(newEntry);
-            outJar.write(data);
+            byte[] bytes;
+            try
+            {
+                bytes = data.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while merging " + entryName);
+            }
+            catch (ExecutionException e)
+            {
+                Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+                Throwables.throwIfUnchecked(e.getCause());
+                throw new RuntimeException("Failed to merge " + entryName, e.getCause());
+            }
+
+            // the time of the entry does not depend on when the merge ran, so the same inputs give the same jar
+            outJar.writeEntry(entryName, bytes, ZipWriter.NORMALIZED_TIME, false);
         }
     }
 
-    private byte[] readEntry(ZipFile inFile, ZipEntry entry) throws IOException
+    private byte[] copyClass(byte[] data, boolean isClientOnly)
     {
-        try (InputStream is = inFile.getInputStream(entry))
-        {
-            return ByteStreams.toByteArray(is);
-        }
+        // the writer copies the methods of the reader as they are, as long as nothing in between touches them
+        ClassReader reader = new ClassReader(data);
+        ClassWriter writer = new ClassWriter(reader, 0);
+        reader.accept(new ClassAnnotator(writer, getSideAnn(isClientOnly)), 0);
+        return writer.toByteArray();
     }
 
     private AnnotationNode getSideAnn(boolean isClientOnly)
@@ -202,15 +244,15 @@ public class MergeJars extends CachedTask
 
     /**
      * @param inFile From which to read classes and resources
-     * @param outFile The place to write resources and ignored classes
+     * @param outFile The place to copy resources to, as they are
      * @param resources The registry to add resources to, and to check against.
      * @return HashMap of all the desired Classes and their ZipEntrys
      */
-    private HashMap<String, ZipEntry> getClassEntries(ZipFile inFile, ZipOutputStream outFile, HashSet<String> resources) throws IOException
+    private HashMap<String, RawZipFile.Entry> getClassEntries(RawZipFile inFile, ZipWriter outFile, HashSet<String> resources) throws IOException
     {
-        HashMap<String, ZipEntry> ret = new HashMap<>();
+        HashMap<String, RawZipFile.Entry> ret = new HashMap<>();
 
-        for (ZipEntry entry : Collections.list(inFile.entries()))
+        for (RawZipFile.Entry entry : inFile.getEntries())
         {
             String entryName = entry.getName();
             // Always skip the manifest
@@ -233,9 +275,7 @@ public class MergeJars extends CachedTask
             {
                 if (!resources.contains(entryName))
                 {
-                    ZipEntry newEntry = new ZipEntry(entryName);
-                    outFile.putNextEntry(newEntry);
-                    outFile.write(readEntry(inFile, entry));
+                    outFile.copyEntry(inFile, entry);
                     resources.add(entryName);
                 }
             }
@@ -256,6 +296,52 @@ public class MergeJars extends CachedTask
     }
 
     public byte[] processClass(byte[] cIn, byte[] sIn)
+    {
+        // only read the members the merge needs to see, and write the class straight from the client reader
+        ClassReader cReader = new ClassReader(cIn);
+        MemberIndex cClassNode = new MemberIndex(null);
+        cReader.accept(cClassNode, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        MemberIndex sClassNode = new MemberIndex(cClassNode);
+        new ClassReader(sIn).accept(sClassNode, 0);
+
+        List<MethodNode> cMethods = new ArrayList<>(cClassNode.methods);
+        int cInners = cClassNode.innerClasses.size();
+
+        processFields(cClassNode, sClassNode);
+        processMethods(cClassNode, sClassNode);
+        processInners(cClassNode, sClassNode);
+
+        if (!keepsClientOrder(cClassNode.methods, cMethods))
+        {
+            // the shared methods are in a different order on each side, so the client methods need to be moved around
+            return processClassTree(cIn, sIn);
+        }
+
+        ClassWriter writer = new ClassWriter(cReader, 0);
+        cReader.accept(new MergingVisitor(writer, cClassNode, cInners), 0);
+        return writer.toByteArray();
+    }
+
+    private static boolean keepsClientOrder(List<MethodNode> merged, List<MethodNode> client)
+    {
+        Set<String> clientKeys = new HashSet<>();
+        for (MethodNode node : client)
+            clientKeys.add(methodKey(node));
+
+        int idx = 0;
+        for (MethodNode node : merged)
+        {
+            if (clientKeys.contains(methodKey(node)) && !methodKey(client.get(idx++)).equals(methodKey(node)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Merges the classes by reading both into trees and writing the client tree back out.
+     * {@link #processClass} falls back to this, and gives the same result otherwise.
+     */
+    byte[] processClassTree(byte[] cIn, byte[] sIn)
     {
         ClassNode cClassNode = getClassNode(cIn);
         ClassNode sClassNode = getClassNode(sIn);
@@ -269,37 +355,35 @@ public class MergeJars extends CachedTask
         return writer.toByteArray();
     }
 
-    private static boolean innerMatches(InnerClassNode o, InnerClassNode o2)
+    private static List<String> innerKey(InnerClassNode node)
     {
-        if (o.innerName == null && o2.innerName != null) return false;
-        if (o.innerName != null && !o.innerName.equals(o2.innerName)) return false;
-        if (o.name == null && o2.name != null) return false;
-        if (o.name != null && !o.name.equals(o2.name)) return false;
-        if (o.outerName == null && o2.outerName != null) return false;
-        return o.outerName == null || !o.outerName.equals(o2.outerName);
-    }
-    private static boolean contains(List<InnerClassNode> list, InnerClassNode node)
-    {
-        for (InnerClassNode n : list)
-            if (innerMatches(n, node))
-                return true;
-        return false;
+        return Arrays.asList(node.name, node.outerName, node.innerName);
     }
+
     private static void processInners(ClassNode cClass, ClassNode sClass)
     {
         List<InnerClassNode> cIners = cClass.innerClasses;
         List<InnerClassNode> sIners = sClass.innerClasses;
 
+        Set<List<String>> cKeys = new HashSet<>();
+        for (InnerClassNode n : cIners)
+            cKeys.add(innerKey(n));
+        Set<List<String>> sKeys = new HashSet<>();
+        for (InnerClassNode n : sIners)
+            sKeys.add(innerKey(n));
+
+        List<InnerClassNode> cOnly = new ArrayList<>();
         for (InnerClassNode n : cIners)
         {
-            if (!contains(sIners, n))
-                sIners.add(n);
+            if (!sKeys.contains(innerKey(n)))
+                cOnly.add(n);
         }
         for (InnerClassNode n : sIners)
         {
-            if (!contains(cIners, n))
+            if (!cKeys.contains(innerKey(n)))
                 cIners.add(n);
         }
+        sIners.addAll(cOnly);
     }
 
     private ClassNode getClassNode(byte[] data)
@@ -310,100 +394,85 @@ public class MergeJars extends CachedTask
         return classNode;
     }
 
+    private static String fieldKey(FieldNode field)
+    {
+        return field.name + " " + field.desc;
+    }
+
+    /**
+     * Merges the fields of both sides into the client order. The fields only the server has go right
+     * before the next field both sides have, after the client only fields that come before that one.
+     */
     private void processFields(ClassNode cClass, ClassNode sClass)
     {
         List<FieldNode> cFields = cClass.fields;
         List<FieldNode> sFields = sClass.fields;
-
-        int serverFieldIdx = 0;
         if (DEBUG)
             System.out.printf("B: Server List: %s\nB: Client List: %s\n", Lists.transform(sFields, FieldName.instance), Lists.transform(cFields, FieldName.instance));
-        for (int clientFieldIdx = 0; clientFieldIdx < cFields.size(); clientFieldIdx++)
+
+        Set<String> cKeys = new HashSet<>();
+        for (FieldNode field : cFields)
+            cKeys.add(fieldKey(field));
+        Set<String> sKeys = new HashSet<>();
+        for (FieldNode field : sFields)
+            sKeys.add(fieldKey(field));
+
+        // group the server only fields by the shared field that follows them
+        Map<String, List<FieldNode>> serverOnly = new HashMap<>();
+        List<FieldNode> trailing = new ArrayList<>();
+        for (FieldNode field : sFields)
         {
-            FieldNode clientField = cFields.get(clientFieldIdx);
-            if (serverFieldIdx < sFields.size())
+            String key = fieldKey(field);
+            if (!cKeys.contains(key))
             {
-                FieldNode serverField = sFields.get(serverFieldIdx);
-                if (!clientField.name.equals(serverField.name))
-                {
-                    boolean foundServerField = false;
-                    for (int serverFieldSearchIdx = serverFieldIdx + 1; serverFieldSearchIdx < sFields.size(); serverFieldSearchIdx++)
-                    {
-                        if (clientField.name.equals(sFields.get(serverFieldSearchIdx).name))
-                        {
-                            foundServerField = true;
-                            break;
-                        }
-                    }
-                    // Found a server field match ahead in the list - walk to it and add the missing server fields to the client
-                    if (foundServerField)
-                    {
-                        boolean foundClientField = false;
-                        for (int clientFieldSearchIdx = clientFieldIdx + 1; clientFieldSearchIdx < cFields.size(); clientFieldSearchIdx++)
-                        {
-                            if (serverField.name.equals(cFields.get(clientFieldSearchIdx).name))
-                            {
-                                foundClientField = true;
-                                break;
-                            }
-                        }
-                        if (!foundClientField)
-                        {
-                            if (serverField.visibleAnnotations == null)
-                            {
-                                serverField.visibleAnnotations = new ArrayList<>();
-                            }
-                            serverField.visibleAnnotations.add(getSideAnn(false));
-                            cFields.add(clientFieldIdx, serverField);
-                            if (DEBUG)
-                                System.out.printf("1. Server List: %s\n1. Client List: %s\nIdx: %d %d\n", Lists.transform(sFields, FieldName.instance), Lists.transform(cFields, FieldName.instance), serverFieldIdx, clientFieldIdx);
-                        }
-                    }
-                    else
-                    {
-                        if (clientField.visibleAnnotations == null)
-                        {
-                            clientField.visibleAnnotations = new ArrayList<>();
-                        }
-                        clientField.visibleAnnotations.add(getSideAnn(true));
-                        sFields.add(serverFieldIdx, clientField);
-                        if (DEBUG)
-                            System.out.printf("2. Server List: %s\n2. Client List: %s\nIdx: %d %d\n", Lists.transform(sFields, FieldName.instance), Lists.transform(cFields, FieldName.instance), serverFieldIdx, clientFieldIdx);
-                    }
-                }
+                trailing.add(field);
             }
-            else
+            else if (!trailing.isEmpty())
             {
-                if (clientField.visibleAnnotations == null)
-                {
-                    clientField.visibleAnnotations = new ArrayList<>();
-                }
-                clientField.visibleAnnotations.add(getSideAnn(true));
-                sFields.add(serverFieldIdx, clientField);
-                if (DEBUG)
-                    System.out.printf("3. Server List: %s\n3. Client List: %s\nIdx: %d %d\n", Lists.transform(sFields, FieldName.instance), Lists.transform(cFields, FieldName.instance), serverFieldIdx, clientFieldIdx);
+                serverOnly.put(key, trailing);
+                trailing = new ArrayList<>();
             }
-            serverFieldIdx++;
         }
-        if (DEBUG)
-            System.out.printf("A. Server List: %s\nA. Client List: %s\n", Lists.transform(sFields, FieldName.instance), Lists.transform(cFields, FieldName.instance));
-        if (sFields.size() != cFields.size())
+
+        List<FieldNode> merged = new ArrayList<>(cFields.size() + sFields.size());
+        for (FieldNode field : cFields)
         {
-            for (int x = cFields.size(); x < sFields.size(); x++)
+            String key = fieldKey(field);
+            if (sKeys.contains(key))
             {
-                FieldNode sF = sFields.get(x);
-                if (sF.visibleAnnotations == null)
-                {
-                    sF.visibleAnnotations = new ArrayList<>();
-                }
-                sF.visibleAnnotations.add(getSideAnn(true));
-                cFields.add(x++, sF);
+                List<FieldNode> before = serverOnly.remove(key);
+                if (before != null)
+                    addSided(merged, before, false);
+                merged.add(field);
+            }
+            else
+            {
+                addSided(merged, Collections.singletonList(field), true);
             }
         }
+        addSided(merged, trailing, false);
+
+        cFields.clear();
+        cFields.addAll(merged);
+        sFields.clear();
+        sFields.addAll(merged);
         if (DEBUG)
             System.out.printf("E. Server List: %s\nE. Client List: %s\n", Lists.transform(sFields, FieldName.instance), Lists.transform(cFields, FieldName.instance));
     }
 
+    private void addSided(List<FieldNode> merged, List<FieldNode> fields, boolean isClientOnly)
+    {
+        for (FieldNode field : fields)
+        {
+            if (field.visibleAnnotations == null)
+            {
+                field.visibleAnnotations = new ArrayList<>();
+            }
+            field.visibleAnnotations.add(getSideAnn(isClientOnly));
+            merged.add(field);
+        }
+    }
+
     private static class FieldName implements Function<FieldNode, String>
     {
         public static FieldName instance = new FieldName();
@@ -509,6 +578,301 @@ public class MergeJars extends CachedTask
         }
     }
 
+    private static String methodKey(MethodNode method)
+    {
+        return method.name + " " + method.desc;
+    }
+
+    /**
+     * Collects the members of a class without their code. Given the index of the client class, it reads the
+     * members only the server has fully instead, as those are the ones copied into the merged class.
+     */
+    private static class MemberIndex extends ClassNode
+    {
+        private final MemberIndex client;
+        private final Set<String> fieldKeys  = new HashSet<>();
+        private final Set<String> methodKeys = new HashSet<>();
+
+        public MemberIndex(MemberIndex client)
+        {
+            super(Opcodes.ASM9);
+            this.client = client;
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value)
+        {
+            String key = name + " " + desc;
+            fieldKeys.add(key);
+            if (client != null && !client.fieldKeys.contains(key))
+                return super.visitField(access, name, desc, signature, value);
+
+            fields.add(new FieldNode(access, name, desc, signature, value));
+            return null;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions)
+        {
+            String key = name + " " + desc;
+            methodKeys.add(key);
+            if (client != null && !client.methodKeys.contains(key))
+                return super.visitMethod(access, name, desc, signature, exceptions);
+
+            methods.add(new MethodNode(access, name, desc, signature, exceptions));
+            return null;
+        }
+    }
+
+    /**
+     * Writes the merged class as the client class is read. The client members are passed through, so the writer
+     * can copy their code as it is, and the server only members are added in between where the merge put them.
+     */
+    private static class MergingVisitor extends ClassVisitor
+    {
+        private final MemberIndex merged;
+        private final int         clientInners;
+        private boolean           addedInners;
+        private int               field;
+        private int               method;
+
+        public MergingVisitor(ClassVisitor cv, MemberIndex merged, int clientInners)
+        {
+            super(Opcodes.ASM9, cv);
+            this.merged = merged;
+            this.clientInners = clientInners;
+        }
+
+        private void addServerInners()
+        {
+            if (!addedInners)
+            {
+                addedInners = true;
+                for (InnerClassNode node : merged.innerClasses.subList(clientInners, merged.innerClasses.size()))
+                    node.accept(cv);
+            }
+        }
+
+        private void addServerFields()
+        {
+            for (; field < merged.fields.size() && !merged.fieldKeys.contains(fieldKey(merged.fields.get(field))); field++)
+                merged.fields.get(field).accept(cv);
+        }
+
+        private void addServerMethods()
+        {
+            for (; method < merged.methods.size() && !merged.methodKeys.contains(methodKey(merged.methods.get(method))); method++)
+                merged.methods.get(method).accept(cv);
+        }
+
+        @Override
+        public RecordComponentVisitor visitRecordComponent(String name, String desc, String signature)
+        {
+            addServerInners();
+            return super.visitRecordComponent(name, desc, signature);
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value)
+        {
+            addServerInners();
+            addServerFields();
+
+            FieldNode node = merged.fields.get(field++);
+            if (!node.name.equals(name) || !node.desc.equals(desc))
+                throw new IllegalStateException("Merged fields of " + merged.name + " are not in the client order");
+
+            FieldVisitor fv = super.visitField(access, name, desc, signature, value);
+            // the client fields were read without annotations, so these are the ones the merge added
+            if (node.visibleAnnotations == null)
+                return fv;
+
+            return new FieldVisitor(Opcodes.ASM9, fv)
+            {
+                private boolean added;
+
+                private void addAnnotations()
+                {
+                    if (!added)
+                    {
+                        added = true;
+                        for (AnnotationNode ann : node.visibleAnnotations)
+                            ann.accept(super.visitAnnotation(ann.desc, true));
+                    }
+                }
+
+                @Override
+                public void visitAttribute(Attribute attribute)
+                {
+                    addAnnotations();
+                    super.visitAttribute(attribute);
+                }
+
+                @Override
+                public void visitEnd()
+                {
+                    addAnnotations();
+                    super.visitEnd();
+                }
+            };
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions)
+        {
+            addServerInners();
+            addServerFields();
+            addServerMethods();
+
+            MethodNode node = merged.methods.get(method++);
+            if (!node.name.equals(name) || !node.desc.equals(desc))
+                throw new IllegalStateException("Merged methods of " + merged.name + " are not in the client order");
+
+            MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+            if (node.visibleAnnotations == null)
+                return mv;
+
+            // this also hides the writer from the reader, which would otherwise copy the method with just its old annotations
+            return new MethodVisitor(Opcodes.ASM9, mv)
+            {
+                private boolean added;
+
+                private void addAnnotations()
+                {
+                    if (!added)
+                    {
+                        added = true;
+                        for (AnnotationNode ann : node.visibleAnnotations)
+                            ann.accept(super.visitAnnotation(ann.desc, true));
+                    }
+                }
+
+                @Override
+                public void visitAnnotableParameterCount(int parameterCount, boolean visible)
+                {
+                    addAnnotations();
+                    super.visitAnnotableParameterCount(parameterCount, visible);
+                }
+
+                @Override
+                public AnnotationVisitor visitParameterAnnotation(int parameter, String desc, boolean visible)
+                {
+                    addAnnotations();
+                    return super.visitParameterAnnotation(parameter, desc, visible);
+                }
+
+                @Override
+                public void visitAttribute(Attribute attribute)
+                {
+                    addAnnotations();
+                    super.visitAttribute(attribute);
+                }
+
+                @Override
+                public void visitCode()
+                {
+                    addAnnotations();
+                    super.visitCode();
+                }
+
+                @Override
+                public void visitEnd()
+                {
+                    addAnnotations();
+                    super.visitEnd();
+                }
+            };
+        }
+
+        @Override
+        public void visitEnd()
+        {
+            addServerInners();
+            addServerFields();
+            addServerMethods();
+            super.visitEnd();
+        }
+    }
+
+    /**
+     * Adds an annotation to a class after the ones it already has, and passes everything else on unchanged.
+     */
+    private static class ClassAnnotator extends ClassVisitor
+    {
+        private AnnotationNode annotation;
+
+        public ClassAnnotator(ClassVisitor cv, AnnotationNode annotation)
+        {
+            super(Opcodes.ASM9, cv);
+            this.annotation = annotation;
+        }
+
+        private void addAnnotation()
+        {
+            if (annotation != null)
+            {
+                annotation.accept(super.visitAnnotation(annotation.desc, true));
+                annotation = null;
+            }
+        }
+
+        @Override
+        public void visitAttribute(Attribute attribute)
+        {
+            addAnnotation();
+            super.visitAttribute(attribute);
+        }
+
+        @Override
+        public void visitNestMember(String nestMember)
+        {
+            addAnnotation();
+            super.visitNestMember(nestMember);
+        }
+
+        @Override
+        public void visitPermittedSubclass(String permittedSubclass)
+        {
+            addAnnotation();
+            super.visitPermittedSubclass(permittedSubclass);
+        }
+
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access)
+        {
+            addAnnotation();
+            super.visitInnerClass(name, outerName, innerName, access);
+        }
+
+        @Override
+        public RecordComponentVisitor visitRecordComponent(String name, String desc, String signature)
+        {
+            addAnnotation();
+            return super.visitRecordComponent(name, desc, signature);
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value)
+        {
+            addAnnotation();
+            return super.visitField(access, name, desc, signature, value);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions)
+        {
+            addAnnotation();
+            return super.visitMethod(access, name, desc, signature, exceptions);
+        }
+
+        @Override
+        public void visitEnd()
+        {
+            addAnnotation();
+            super.visitEnd();
+        }
+    }
+
     private static class MethodWrapper
     {
         private final MethodNode node;
@@ -585,4 +949,10 @@ public class MergeJars extends CachedTask
     {
         this.server = server;
     }
+
+    @Override
+    protected boolean defaultShareOutputs()
+    {
+        return true;
+    }
 }
@@ -166,11 +166,11 @@ public class PatchSourcesTask extends AbstractEditJarTask
 
                 if (details.getName().endsWith(".java"))
                 {
-                    sourceMap.put(path, new String(array, Constants.CHARSET));
+                    storeSource(sourceMap, path, new String(array, Constants.CHARSET));
                 }
                 else
                 {
-                    resourceMap.put(path, array);
+                    storeResource(resourceMap, path, array);
                 }
             }
 
@@ -188,11 +188,11 @@ public class PatchSourcesTask extends AbstractEditJarTask
             }
             else if (inject.getName().endsWith(".java"))
             {
-                sourceMap.put(inject.getName(), Files.asCharSource(inject, Constants.CHARSET).read());
+                storeSource(sourceMap, inject.getName(), Files.asCharSource(inject, Constants.CHARSET).read());
             }
             else
             {
-                resourceMap.put(inject.getName(), Files.toByteArray(inject));
+                storeResource(resourceMap, inject.getName(), Files.toByteArray(inject));
             }
         }
     }
@@ -392,6 +392,7 @@ public class PatchSourcesTask extends AbstractEditJarTask
 
     //@formatter:off
     @Override protected boolean storeJarInRam() { return true; }
+    @Override protected boolean isAsReadThreadSafe() { return true; }
     @Override public String asRead(String fileName, String file) { return file; }
     @Override public void doStuffAfter() { }
     //@formatter:on
@@ -441,7 +442,7 @@ public class PatchSourcesTask extends AbstractEditJarTask
         public void setData(String target, List<String> data)
         {
             target = strip(target);
-            fileMap.put(target, Joiner.on(Constants.NEWLINE).join(data));
+            storeSource(fileMap, target, Joiner.on(Constants.NEWLINE).join(data));
         }
     }
 
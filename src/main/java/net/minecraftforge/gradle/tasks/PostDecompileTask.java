@@ -28,11 +28,10 @@ import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.jar.JarOutputStream;
-import java.util.zip.ZipEntry;
 
 import net.minecraftforge.gradle.common.Constants;
 import net.minecraftforge.gradle.util.ThrowableUtil;
@@ -44,6 +43,7 @@ import net.minecraftforge.gradle.util.patching.ContextualPatch;
 import net.minecraftforge.gradle.util.patching.ContextualPatch.HunkReport;
 import net.minecraftforge.gradle.util.patching.ContextualPatch.PatchReport;
 import net.minecraftforge.gradle.util.patching.ContextualPatch.PatchStatus;
+import net.minecraftforge.gradle.util.zip.ZipWriter;
 
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.logging.Logger;
@@ -55,7 +55,6 @@ import com.github.abrarsyed.jastyle.OptParser;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
@@ -70,10 +69,11 @@ public class PostDecompileTask extends AbstractEditJarTask
     //private static final Pattern         BEFORE      = Pattern.compile("(?m)((case|default).+(?:\\r\\n|\\r|\\n))(?:\\r\\n|\\r|\\n)");
     //private static final Pattern         AFTER       = Pattern.compile("(?m)(?:\\r\\n|\\r|\\n)((?:\\r\\n|\\r|\\n)[ \\t]+(case|default))");
 
-    private final Set<String>            seenPackages = Sets.newHashSet();
+    private final Set<String>            seenPackages = Sets.newTreeSet();
     private final Multimap<String, File> patchesMap  = ArrayListMultimap.create();
-    private final List<PatchAttempt>     patchErrors = Lists.newArrayList();
-    private final ASFormatter            formatter   = new ASFormatter();
+    private final List<PatchAttempt>     patchErrors = Collections.synchronizedList(new ArrayList<>());
+    private final ThreadLocal<ASFormatter> formatters = new ThreadLocal<>();
+    private File                         astyleConfigFile;
     private GLConstantFixer              oglFixer;
 
     @Override
@@ -92,12 +92,31 @@ public class PostDecompileTask extends AbstractEditJarTask
             patchesMap.put(name.substring(0, patchIndex), f);
         }
 
-        formatter.setUseProperInnerClassIndenting(false);
-        OptParser parser = new OptParser(formatter);
-        parser.parseOptionFile(getAstyleConfig());
+        astyleConfigFile = getAstyleConfig();
 
         oglFixer = new GLConstantFixer();
     }
+
+    /**
+     * The formatter keeps state while formatting a file, so every thread gets its own.
+     */
+    private ASFormatter getFormatter() throws Exception
+    {
+        ASFormatter formatter = formatters.get();
+        if (formatter == null)
+        {
+            // created one at a time, in case the formatter sets up shared tables on first use
+            synchronized (PostDecompileTask.class)
+            {
+                formatter = new ASFormatter();
+                formatter.setUseProperInnerClassIndenting(false);
+                OptParser parser = new OptParser(formatter);
+                parser.parseOptionFile(astyleConfigFile);
+            }
+            formatters.set(formatter);
+        }
+        return formatter;
+    }
     static class PatchAttempt {
         public PatchAttempt(List<PatchReport> report, String file) {
             super();
@@ -142,7 +161,7 @@ public class PostDecompileTask extends AbstractEditJarTask
         getLogger().debug("formatting source");
         Reader reader = new StringReader(file);
         Writer writer = new StringWriter();
-        formatter.format(reader, writer);
+        getFormatter().format(reader, writer);
         reader.close();
         writer.flush();
         writer.close();
@@ -157,14 +176,14 @@ public class PostDecompileTask extends AbstractEditJarTask
     }
 
     @Override
-    protected void postWriteEntry(JarOutputStream jarOut, String entryName) throws IOException
+    protected void postWriteEntry(ZipWriter jarOut, String entryName) throws IOException
     {
         if (entryName.startsWith("net/minecraft/") && entryName.endsWith(".java"))
             this.seenPackages.add(entryName.substring(0, entryName.lastIndexOf('/')));
     }
 
     @Override
-    protected void postWrite(JarOutputStream jarOut) throws IOException
+    protected void postWrite(ZipWriter jarOut) throws IOException
     {
         File file = ((DelayedFile)this.injectDir).call();
         File info = new File(file, "package-info-template.java");
@@ -175,9 +194,7 @@ public class PostDecompileTask extends AbstractEditJarTask
             for (String pkg : this.seenPackages)
             {
                 getLogger().info("  {}/package-info.java", pkg);
-                jarOut.putNextEntry(new ZipEntry(pkg + "/package-info.java"));
-                jarOut.write(template.replaceAll("\\{PACKAGE\\}", pkg.replace('/', '.')).getBytes());
-                jarOut.closeEntry();
+                writeEntry(jarOut, pkg + "/package-info.java", template.replaceAll("\\{PACKAGE\\}", pkg.replace('/', '.')).getBytes(Constants.CHARSET));
             }
         }
         File common = new File(file, "common/");
@@ -187,14 +204,13 @@ public class PostDecompileTask extends AbstractEditJarTask
             if (!root.endsWith("/")) root += '/';
             getLogger().info("Inject Root: {}", root);
 
-            for (File f : this.getProject().fileTree(common))
+            // sorted, so the jar is the same every time
+            for (File f : Sets.newTreeSet(this.getProject().fileTree(common)))
             {
                 String full = f.getAbsolutePath().replace('\\', '/');
                 String name = full.substring(root.length());
                 getLogger().info("  Injecting: {}", name);
-                jarOut.putNextEntry(new ZipEntry(name));
-                jarOut.write(Resources.toByteArray(f.toURI().toURL()));
-                jarOut.closeEntry();
+                writeEntry(jarOut, name, Resources.toByteArray(f.toURI().toURL()));
             }
         }
     }
@@ -354,9 +370,21 @@ public class PostDecompileTask extends AbstractEditJarTask
     {
     }
 
+    @Override
+    protected boolean isAsReadThreadSafe()
+    {
+        return true;
+    }
+
     @Override
     protected boolean storeJarInRam()
     {
         return false;
     }
+
+    @Override
+    protected boolean defaultShareOutputs()
+    {
+        return true;
+    }
 }
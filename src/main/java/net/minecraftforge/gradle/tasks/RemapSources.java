@@ -92,6 +92,12 @@ public class RemapSources extends AbstractEditJarTask
         return false;
     }
 
+    @Override
+    protected boolean isAsReadThreadSafe()
+    {
+        return true;
+    }
+
     @Override
     public String asRead(String name, String text)
     {
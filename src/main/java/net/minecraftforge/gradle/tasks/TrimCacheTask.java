@@ -0,0 +1,55 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks;
+
+import java.util.List;
+
+import net.minecraftforge.gradle.util.caching.CacheDirManager;
+import net.minecraftforge.gradle.util.caching.CacheDirManager.Unit;
+import net.minecraftforge.gradle.util.caching.SharedOutputStore;
+
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Deletes the least recently used entries of the FG cache dir until it fits in the size limit.
+ */
+public class TrimCacheTask extends CacheReportTask
+{
+    @TaskAction
+    @Override
+    public void doTask()
+    {
+        long limit = getSizeLimit();
+        if (limit < 0)
+        {
+            getLogger().lifecycle("No limit set, see minecraft.cacheSizeLimit");
+            return;
+        }
+
+        List<Unit> deleted = CacheDirManager.trim(getCacheDir(), SharedOutputStore.getDirectory(), limit);
+
+        long freed = 0;
+        for (Unit unit : deleted)
+            freed += unit.getSize();
+
+        getLogger().lifecycle("Deleted {} entries, freeing {}", deleted.size(), formatSize(freed));
+    }
+}
@@ -20,13 +20,20 @@
  */
 package net.minecraftforge.gradle.tasks.fernflower;
 
+import com.google.common.base.Joiner;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import groovy.lang.Closure;
 import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.tasks.AbstractEditJarTask;
+import net.minecraftforge.gradle.tasks.EditJarPipeline;
+import net.minecraftforge.gradle.util.GradleConfigurationException;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.caching.CachedTask;
 import org.codehaus.groovy.runtime.ResourceGroovyMethods;
+import org.gradle.api.Task;
 import org.gradle.api.file.FileCollection;
+import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.InputFiles;
 import org.gradle.api.tasks.OutputFile;
@@ -38,14 +45,28 @@ import org.jetbrains.java.decompiler.main.extern.IFernflowerPreferences;
 import java.io.File;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class ApplyFernFlowerTask extends CachedTask {
 
     // 2.5 GB
     private static final long REQUIRED_MEMORY = (long) (2.5 * 1024 * 1024 * 1024);
     private static final String FORK_FLAG = "forkDecompile";
+    private static final String THREADS_FLAG = "decompileThreads";
+    private static final String DAEMON_FLAG = "decompileDaemon";
+    private static final String DAEMON_HEAP_FLAG = "decompileDaemonHeap";
+    private static final String DAEMON_IDLE_FLAG = "decompileDaemonIdleMinutes";
+    private static final String FUSE_FLAG = "fuseDecompile";
 
     @InputFile
     Object inJar;
@@ -56,6 +77,7 @@ public class ApplyFernFlowerTask extends CachedTask {
 
     private FileCollection classpath;
     private FileCollection forkedClasspath;
+    private final List<AbstractEditJarTask> fusedStages = new ArrayList<>();
 
     @TaskAction
     public void applyFernFlower() throws IOException
@@ -64,7 +86,11 @@ public class ApplyFernFlowerTask extends CachedTask {
         final File out = getOutJar();
 
         final File tempDir = this.getTemporaryDir();
-        final File tempJar = new File(this.getTemporaryDir(), in.getName());
+
+        // the decompiled jar is kept for the class cache, the output is deleted whenever the inputs change.
+        // with stages fused, it has the sources processed already
+        EditJarPipeline pipeline = fusedStages.isEmpty() ? null : new EditJarPipeline(fusedStages);
+        final File decompiled = new File(tempDir, in.getName());
 
         Map<String, Object> mapOptions = new HashMap<>();
         mapOptions.put(IFernflowerPreferences.DECOMPILE_INNER, "1");
@@ -78,32 +104,284 @@ public class ApplyFernFlowerTask extends CachedTask {
         mapOptions.put(IFernflowerPreferences.MAX_PROCESSING_METHOD, "0");
         mapOptions.put(DecompilerContext.RENAMER_FACTORY, AdvancedJadRenamerFactory.class.getName());
 
-        FernFlowerSettings settings = new FernFlowerSettings(tempDir, in, tempJar, Constants.getTaskLogFile(getProject(), getName() + ".log"), classpath.getFiles(), mapOptions);
+        FernFlowerSettings settings = new FernFlowerSettings(tempDir, in, decompiled, Constants.getTaskLogFile(getProject(), getName() + ".log"), classpath.getFiles(), mapOptions);
+
+        // only the classes that changed since the last run are decompiled again
+        DecompiledClassCache cache = new DecompiledClassCache(new File(tempDir, "classCache.json"), decompiled, hashBase(mapOptions));
+        FernFlowerSettings toDecompile = cache.prepare(settings);
+        if (toDecompile != settings) {
+            getLogger().lifecycle("Decompiling {} of {} classes, the others did not change since the last run", cache.getClassCount() - cache.getCachedCount(), cache.getClassCount());
+        }
+
+        SourceProcessor processor = null;
+        if (pipeline != null) {
+            getLogger().info("Running {} in {}", Joiner.on(", ").join(getFusedStageNames()), getName());
+            try {
+                pipeline.begin();
+            } catch (Exception e) {
+                throw new IOException("Could not prepare " + Joiner.on(", ").join(getFusedStageNames()), e);
+            }
+            processor = pipeline::process;
+        }
+
+        int threads = getThreads();
+        boolean processed;
+        if (threads > 1) {
+            processed = runParallelFernFlower(toDecompile, threads, toDecompile.getJarTo(), processor);
+        } else {
+            processed = runFernFlower(toDecompile, processor);
+        }
+
+        try {
+            if (pipeline != null && !processed) {
+                // decompiled in another process, so the sources are processed after all of them are
+                File jar = toDecompile.getJarTo();
+                File unprocessed = new File(jar.getParentFile(), "unprocessed-" + jar.getName());
+                Files.move(jar.toPath(), unprocessed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                pipeline.processJar(unprocessed, jar);
+                unprocessed.delete();
+            }
+            cache.merge(toDecompile);
+
+            if (pipeline != null) {
+                pipeline.writeJar(decompiled, out);
+                pipeline.end();
+            } else {
+                linkOutput(decompiled, out);
+            }
+
+            // only once the stages did not fail, or the next run would take the sources they failed on from the cache
+            cache.finish();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Could not run " + Joiner.on(", ").join(getFusedStageNames()), e);
+        }
+    }
 
-        runFernFlower(settings);
+    /**
+     * Runs the stage in this task, on every source as soon as it is decompiled, instead of on the decompiled jar after.
+     * This task then writes what the stage would write, and the stage itself is skipped.
+     * @param stage the task to run in this one, see {@link #canFuse(AbstractEditJarTask)}
+     */
+    public void fuse(AbstractEditJarTask stage)
+    {
+        if (!canFuse(stage)) {
+            throw new GradleConfigurationException("The task " + stage.getName() + " can not run in " + getName());
+        }
+
+        List<String> names = getFusedStageNames();
+        names.add(getName());
+        for (Object dependency : stage.getDependsOn()) {
+            // what the stage needs besides the jar has to be there before decompiling
+            String name = dependency instanceof Task ? ((Task) dependency).getName() : dependency instanceof CharSequence ? dependency.toString() : null;
+            if (!names.contains(name)) {
+                dependsOn(dependency);
+            }
+        }
 
-        Constants.copyFile(tempJar, out);
+        fusedStages.add(stage);
+        stage.setEnabled(false);
     }
 
-    private void runFernFlower(FernFlowerSettings settings) throws IOException
+    /**
+     * @param stage a task that may run in this one
+     * @return whether the stage edits one source at a time, and reads what this task or the stage last fused in it would write
+     */
+    public boolean canFuse(AbstractEditJarTask stage)
+    {
+        return stage.canBeFused() && stage.getInJar().equals(getOutJar());
+    }
+
+    /**
+     * @return whether the stages after decompiling should run in this task, off unless the property is set
+     */
+    public boolean isFuseEnabled()
+    {
+        return getProject().hasProperty(FUSE_FLAG) && Boolean.parseBoolean(getProject().property(FUSE_FLAG).toString());
+    }
+
+    private List<String> getFusedStageNames()
+    {
+        List<String> names = new ArrayList<>();
+        for (AbstractEditJarTask stage : fusedStages) {
+            names.add(stage.getName());
+        }
+        return names;
+    }
+
+    /**
+     * @return hash of what the fused stages read besides the decompiled jar, as they change what this task writes
+     */
+    @Input
+    public String getFusedInputs()
+    {
+        return fusedStages.isEmpty() ? "" : new EditJarPipeline(fusedStages).hashInputs();
+    }
+
+    /**
+     * @return a hash of everything but the input jar the decompiled code depends on
+     */
+    private String hashBase(Map<String, Object> mapOptions)
+    {
+        List<String> hashes = new ArrayList<>();
+        hashes.add(new TreeMap<>(mapOptions).toString());
+        for (File file : classpath.getFiles()) {
+            hashes.add(file.isFile() ? Constants.hash(file) : file.getAbsolutePath());
+        }
+        // the decompiler itself
+        for (File file : forkedClasspath.getFiles()) {
+            hashes.add(file.isFile() ? Constants.hash(file) : file.getAbsolutePath());
+        }
+        // the cached sources are processed by the fused stages
+        hashes.add(getFusedInputs());
+        return Constants.hash(Joiner.on(',').join(hashes));
+    }
+
+    /**
+     * @return the number of parts to split the jar into and decompile at once, 1 unless the property is set
+     */
+    private int getThreads()
+    {
+        if (!getProject().hasProperty(THREADS_FLAG))
+            return 1;
+
+        String value = getProject().property(THREADS_FLAG).toString();
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new GradleConfigurationException("The " + THREADS_FLAG + " property must be a number, not " + value);
+        }
+    }
+
+    private boolean isForkAllowed()
     {
         // forking allowed if the property is not present or it is "true" ("true" is the default)
-        boolean forkAllowed = "x86".equals(System.getProperty("os.arch")) || !getProject().hasProperty(FORK_FLAG) || Boolean.parseBoolean(getProject().property(FORK_FLAG).toString());
-        if (!forkAllowed || Runtime.getRuntime().maxMemory() >= REQUIRED_MEMORY) {
-            // no fork, either not allowed or memory is OK
-            FernFlowerInvoker.runFernFlower(settings);
+        return "x86".equals(System.getProperty("os.arch")) || !getProject().hasProperty(FORK_FLAG) || Boolean.parseBoolean(getProject().property(FORK_FLAG).toString());
+    }
+
+    /**
+     * @return whether the parts were decompiled in this process, so the sources went through the processor
+     */
+    private boolean runParallelFernFlower(FernFlowerSettings settings, int threads, File out, SourceProcessor processor) throws IOException
+    {
+        List<FernFlowerSettings> parts = FernFlowerInvoker.splitJar(settings, threads);
+        getLogger().info("Decompiling {} in {} parts", settings.getJarFrom(), parts.size());
+
+        boolean inProcess = !isForkAllowed() || Runtime.getRuntime().maxMemory() >= REQUIRED_MEMORY * parts.size();
+        if (inProcess) {
+            // every part has its own decompiler, so each needs about as much memory as a whole one
+            FernFlowerInvoker.runFernFlower(parts, processor);
         } else {
-            // put this in the info logs, but day-to-day use doesn't need to see it
-            getLogger().info("Note: " + Constants.GROUP_FG + " is forking a new process to run decompilation.");
-            getLogger().debug("Settings: {}", settings);
-            final File data = File.createTempFile("fg-fernflowersettings", ".ser");
+            getLogger().info("Note: " + Constants.GROUP_FG + " is forking {} new processes to run decompilation.", parts.size());
+            ExecutorService executor = Executors.newFixedThreadPool(parts.size());
             try {
-                writeSettings(settings, data);
-                runForkedFernFlower(data);
+                List<Future<?>> futures = new ArrayList<>();
+                for (FernFlowerSettings part : parts) {
+                    futures.add(executor.submit(() -> {
+                        runForkedFernFlower(part);
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while decompiling", e);
+            } catch (ExecutionException e) {
+                Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+                Throwables.throwIfUnchecked(e.getCause());
+                throw new IOException(e.getCause());
             } finally {
-                data.delete();
+                executor.shutdownNow();
             }
         }
+
+        List<File> decompiled = new ArrayList<>();
+        for (FernFlowerSettings part : parts) {
+            decompiled.add(part.getJarTo());
+        }
+        ArtifactSaver.mergeArchives(decompiled, out);
+        return inProcess;
+    }
+
+    /**
+     * @return whether it was decompiled in this process, so the sources went through the processor
+     */
+    private boolean runFernFlower(FernFlowerSettings settings, SourceProcessor processor) throws IOException
+    {
+        if (!isForkAllowed() || Runtime.getRuntime().maxMemory() >= REQUIRED_MEMORY) {
+            // no fork, either not allowed or memory is OK
+            FernFlowerInvoker.runFernFlower(settings, processor);
+            return true;
+        } else if (isDaemonEnabled()) {
+            getLogger().info("Note: " + Constants.GROUP_FG + " is using a decompiler daemon to run decompilation.");
+            runDaemonFernFlower(settings);
+        } else {
+            // put this in the info logs, but day-to-day use doesn't need to see it
+            getLogger().info("Note: " + Constants.GROUP_FG + " is forking a new process to run decompilation.");
+            runForkedFernFlower(settings);
+        }
+        return false;
+    }
+
+    /**
+     * Makes the output the same file as the decompiled jar, which the class cache keeps even when the output is deleted.
+     * Copies it where the file system has no hard links.
+     */
+    private void linkOutput(File decompiled, File out) throws IOException
+    {
+        Files.deleteIfExists(out.toPath());
+        out.getParentFile().mkdirs();
+        try {
+            Files.createLink(out.toPath(), decompiled.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            getLogger().debug("Could not link {} to {}, copying it", out, decompiled, e);
+            Constants.copyFile(decompiled, out);
+        }
+    }
+
+    private boolean isDaemonEnabled()
+    {
+        return getProject().hasProperty(DAEMON_FLAG) && Boolean.parseBoolean(getProject().property(DAEMON_FLAG).toString());
+    }
+
+    private void runDaemonFernFlower(FernFlowerSettings settings) throws IOException
+    {
+        String heap = getProject().hasProperty(DAEMON_HEAP_FLAG) ? getProject().property(DAEMON_HEAP_FLAG).toString().trim() : "3G";
+        int idleMinutes;
+        try {
+            idleMinutes = getProject().hasProperty(DAEMON_IDLE_FLAG) ? Integer.parseInt(getProject().property(DAEMON_IDLE_FLAG).toString().trim()) : 30;
+        } catch (NumberFormatException e) {
+            throw new GradleConfigurationException("The " + DAEMON_IDLE_FLAG + " property must be a number of minutes");
+        }
+        if (idleMinutes < 1) {
+            throw new GradleConfigurationException("The " + DAEMON_IDLE_FLAG + " property must be at least 1 minute");
+        }
+
+        // a daemon started from other jars or with another heap is not the one to use
+        List<String> key = new ArrayList<>();
+        key.add(heap);
+        for (File file : forkedClasspath.getFiles()) {
+            key.add(file.getAbsolutePath() + ':' + file.length() + ':' + file.lastModified());
+        }
+        File dir = new File(getProject().getGradle().getGradleUserHomeDir(), "caches/minecraft/fernflowerDaemons/" + Constants.hash(Joiner.on(',').join(key)));
+
+        getLogger().debug("Settings: {}", settings);
+        FernFlowerDaemon.decompile(dir, ImmutableList.of("-Xmx" + heap), forkedClasspath.getFiles(), idleMinutes, settings);
+    }
+
+    private void runForkedFernFlower(FernFlowerSettings settings) throws IOException
+    {
+        getLogger().debug("Settings: {}", settings);
+        final File data = File.createTempFile("fg-fernflowersettings", ".ser");
+        try {
+            writeSettings(settings, data);
+            runForkedFernFlower(data);
+        } finally {
+            data.delete();
+        }
     }
 
     @SuppressWarnings("serial")
@@ -154,7 +432,8 @@ public class ApplyFernFlowerTask extends CachedTask {
 
     public File getOutJar()
     {
-        return getProject().file(outJar);
+        // what the last of the fused stages would write
+        return fusedStages.isEmpty() ? getProject().file(outJar) : fusedStages.get(fusedStages.size() - 1).getOutJar();
     }
 
     public void setOutJar(Object outJar)
@@ -184,4 +463,9 @@ public class ApplyFernFlowerTask extends CachedTask {
         this.forkedClasspath = forkedClasspath;
     }
 
+    @Override
+    protected boolean defaultShareOutputs()
+    {
+        return true;
+    }
 }
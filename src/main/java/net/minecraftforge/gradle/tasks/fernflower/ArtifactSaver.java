@@ -21,40 +21,113 @@
 package net.minecraftforge.gradle.tasks.fernflower;
 
 import com.google.common.base.Charsets;
+import net.minecraftforge.gradle.util.zip.RawZipFile;
+import net.minecraftforge.gradle.util.zip.ZipWriter;
 import org.jetbrains.java.decompiler.main.DecompilerContext;
 import org.jetbrains.java.decompiler.main.extern.IFernflowerLogger;
 import org.jetbrains.java.decompiler.main.extern.IResultSaver;
 import org.jetbrains.java.decompiler.util.InterpreterUtil;
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
-class ArtifactSaver implements IResultSaver {
+class ArtifactSaver implements IResultSaver, Closeable {
+    private static final Comparator<String> MANIFEST_FIRST = Comparator
+            .comparing((String name) -> !name.equals("META-INF/"))
+            .thenComparing(name -> !name.equals(JarFile.MANIFEST_NAME))
+            .thenComparing(Comparator.naturalOrder());
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    /** How many processed sources may wait in memory for the entries before them to be written. */
+    private static final int MAX_PENDING = THREADS * 4;
+
     private final Map<String, ZipOutputStream> mapArchiveStreams = new HashMap<>();
     private final Map<String, Set<String>> mapArchiveEntries = new HashMap<>();
+    private final Map<String, ZipFile> sourceArchives = new HashMap<>();
     private final File root;
+    private final String outputName;
+    private final File output;
+    private final SourceProcessor processor;
+    private final Deque<PendingEntry> pendingEntries = new ArrayDeque<>();
+    /** runs the processor, given by whoever made the saver or made by it the first time a source is processed. */
+    private ExecutorService executor;
+    private final boolean sharedExecutor;
+    private Exception processingFailure;
+
     public ArtifactSaver(File tempDir) {
+        this(tempDir, null, null);
+    }
+
+    public ArtifactSaver(File tempDir, String outputName, File output) {
+        this(tempDir, outputName, output, null);
+    }
+
+    /**
+     * @param tempDir directory to save everything in, but the decompiled archive
+     * @param outputName name of the archive that is decompiled
+     * @param output file to write the decompiled archive to
+     * @param processor what to pass the sources through before they are saved in an archive, or null to save them as they are
+     */
+    public ArtifactSaver(File tempDir, String outputName, File output, SourceProcessor processor) {
+        this(tempDir, outputName, output, processor, null);
+    }
+
+    /**
+     * @param tempDir directory to save everything in, but the decompiled archive
+     * @param outputName name of the archive that is decompiled
+     * @param output file to write the decompiled archive to
+     * @param processor what to pass the sources through before they are saved in an archive, or null to save them as they are
+     * @param executor the threads to run the processor on, shared with other savers and shut down by the caller,
+     *                 or null for the saver to start its own
+     */
+    public ArtifactSaver(File tempDir, String outputName, File output, SourceProcessor processor, ExecutorService executor) {
         this.root = tempDir;
+        this.outputName = outputName;
+        this.output = output;
+        this.processor = processor;
+        this.executor = executor;
+        this.sharedExecutor = executor != null;
     }
 
     private String getAbsolutePath(String path) {
         return new File(root, path).getAbsolutePath();
       }
 
+    private String getArchivePath(String path, String archiveName) {
+        // the decompiled archive goes straight to where it is wanted, instead of being copied there after
+        if (output != null && path.isEmpty() && archiveName.equals(outputName)) {
+            return output.getPath();
+        }
+        return new File(getAbsolutePath(path), archiveName).getPath();
+    }
+
 
     @Override
     public void saveFolder(String path) {
@@ -88,13 +161,14 @@ class ArtifactSaver implements IResultSaver {
 
     @Override
     public void createArchive(String path, String archiveName, Manifest manifest) {
-        File file = new File(getAbsolutePath(path), archiveName);
+        File file = new File(getArchivePath(path, archiveName));
         try {
+            file.getParentFile().mkdirs();
             if (!(file.createNewFile() || file.isFile())) {
                 throw new IOException("Cannot create file " + file);
             }
 
-            FileOutputStream fileStream = new FileOutputStream(file);
+            OutputStream fileStream = new BufferedOutputStream(new FileOutputStream(file));
             ZipOutputStream zipStream = manifest != null ? new JarOutputStream(fileStream, manifest) : new ZipOutputStream(fileStream);
             mapArchiveStreams.put(file.getPath(), zipStream);
         } catch (IOException ex) {
@@ -109,14 +183,23 @@ class ArtifactSaver implements IResultSaver {
 
     @Override
     public void copyEntry(String source, String path, String archiveName, String entryName) {
-        String file = new File(getAbsolutePath(path), archiveName).getPath();
+        String file = getArchivePath(path, archiveName);
 
         if (!checkEntry(entryName, file)) {
             return;
         }
 
+        if (processor != null) {
+            // after the sources saved before it
+            addPending(new PendingEntry(file, entryName, null, source));
+        } else {
+            writeCopy(source, file, entryName);
+        }
+    }
 
-        try (ZipFile srcArchive = new ZipFile(new File(source))) {
+    private void writeCopy(String source, String file, String entryName) {
+        try {
+            ZipFile srcArchive = getSourceArchive(source);
             ZipEntry entry = srcArchive.getEntry(entryName);
             if (entry != null) {
                 try (InputStream in = srcArchive.getInputStream(entry)) {
@@ -137,17 +220,30 @@ class ArtifactSaver implements IResultSaver {
 
     @Override
     public void saveClassEntry(String path, String archiveName, String qualifiedName, String entryName, String content) {
-        String file = new File(getAbsolutePath(path), archiveName).getPath();
+        String file = getArchivePath(path, archiveName);
 
         if (!checkEntry(entryName, file)) {
             return;
         }
 
+        if (processor != null) {
+            // processed by another thread while the decompiler goes on, and written in its turn so the order stays the same
+            Future<String> processed = content == null ? null : getExecutor().submit(() -> processor.process(entryName, content));
+            addPending(new PendingEntry(file, entryName, processed, null));
+        } else {
+            writeEntry(file, entryName, content);
+        }
+    }
+
+    private void writeEntry(String file, String entryName, String content) {
         try {
             ZipOutputStream out = mapArchiveStreams.get(file);
             out.putNextEntry(new ZipEntry(entryName));
             if (content != null) {
-                out.write(content.getBytes(Charsets.UTF_8));
+                // encoded a bit at a time, not into another copy of the whole source. Closing it would close the archive.
+                Writer writer = new OutputStreamWriter(out, Charsets.UTF_8);
+                writer.write(content);
+                writer.flush();
             }
         } catch (IOException ex) {
             String message = "Cannot write entry " + entryName + " to " + file;
@@ -155,6 +251,78 @@ class ArtifactSaver implements IResultSaver {
         }
     }
 
+    private ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(THREADS);
+        }
+        return executor;
+    }
+
+    private void addPending(PendingEntry entry) {
+        pendingEntries.add(entry);
+
+        // written as soon as everything before it is, and only waited for if too many are pending
+        while (!pendingEntries.isEmpty() && (pendingEntries.size() > MAX_PENDING || pendingEntries.peek().isDone())) {
+            writeNextPending();
+        }
+    }
+
+    private void writeAllPending() {
+        while (!pendingEntries.isEmpty()) {
+            writeNextPending();
+        }
+    }
+
+    private void writeNextPending() {
+        PendingEntry entry = pendingEntries.poll();
+        if (entry.copySource != null) {
+            writeCopy(entry.copySource, entry.file, entry.entryName);
+            return;
+        }
+
+        String content = null;
+        if (entry.content != null) {
+            try {
+                content = entry.content.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failProcessing(entry.entryName, e);
+                return;
+            } catch (ExecutionException e) {
+                failProcessing(entry.entryName, e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                return;
+            }
+        }
+        writeEntry(entry.file, entry.entryName, content);
+    }
+
+    private void failProcessing(String entryName, Exception e) {
+        DecompilerContext.getLogger().writeMessage("Cannot process " + entryName, e);
+        if (processingFailure == null) {
+            processingFailure = e;
+        }
+    }
+
+    /**
+     * The decompiler only logs what goes wrong while saving, so a source that could not be processed is thrown from here.
+     * @throws IOException if a source could not be processed, caused by what the processor threw
+     */
+    void checkProcessed() throws IOException {
+        if (processingFailure != null) {
+            throw new IOException("Could not process the decompiled sources", processingFailure);
+        }
+    }
+
+    private ZipFile getSourceArchive(String source) throws IOException {
+        // opened once for all the entries copied from it, until every archive is closed
+        ZipFile archive = sourceArchives.get(source);
+        if (archive == null) {
+            archive = new ZipFile(new File(source));
+            sourceArchives.put(source, archive);
+        }
+        return archive;
+    }
+
     private boolean checkEntry(String entryName, String file) {
         Set<String> set = mapArchiveEntries.computeIfAbsent(file, k -> new HashSet<>());
 
@@ -168,16 +336,109 @@ class ArtifactSaver implements IResultSaver {
 
     @Override
     public void closeArchive(String path, String archiveName) {
-        String file = new File(getAbsolutePath(path), archiveName).getPath();
+        String file = getArchivePath(path, archiveName);
+        writeAllPending();
         try {
             mapArchiveEntries.remove(file);
             mapArchiveStreams.remove(file).close();
         } catch (IOException ex) {
             DecompilerContext.getLogger().writeMessage("Cannot close " + file, IFernflowerLogger.Severity.WARN);
         }
+
+        if (mapArchiveStreams.isEmpty()) {
+            closeSourceArchives();
+        }
+    }
+
+    /**
+     * Stops the threads processing the sources, in case the decompiler failed before closing its archives.
+     * A shared executor is left running, only the sources of this saver are cancelled.
+     */
+    @Override
+    public void close() {
+        if (sharedExecutor) {
+            for (PendingEntry entry : pendingEntries) {
+                if (entry.content != null) {
+                    entry.content.cancel(true);
+                }
+            }
+            pendingEntries.clear();
+        } else if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        closeSourceArchives();
+    }
+
+    private void closeSourceArchives() {
+        for (Map.Entry<String, ZipFile> archive : sourceArchives.entrySet()) {
+            try {
+                archive.getValue().close();
+            } catch (IOException ex) {
+                DecompilerContext.getLogger().writeMessage("Cannot close " + archive.getKey(), IFernflowerLogger.Severity.WARN);
+            }
+        }
+        sourceArchives.clear();
+    }
+
+    /**
+     * Merges the archives decompiled from the parts of a jar into one.
+     * The entries are sorted by name, with the manifest first, so the result does not depend on how the jar was split.
+     * Entries in more than one archive, like directories, are only written once.
+     * @param archives the decompiled parts
+     * @param out the file to write the merged archive to
+     * @throws IOException if an archive could not be read or the merged one written
+     */
+    static void mergeArchives(List<File> archives, File out) throws IOException {
+        List<RawZipFile> zips = new ArrayList<>();
+        try {
+            Map<String, RawZipFile.Entry> entries = new TreeMap<>(MANIFEST_FIRST);
+            Map<RawZipFile.Entry, RawZipFile> owners = new HashMap<>();
+            for (File archive : archives) {
+                RawZipFile zip = new RawZipFile(archive);
+                zips.add(zip);
+                for (RawZipFile.Entry entry : zip.getEntries()) {
+                    if (entries.putIfAbsent(entry.getName(), entry) == null) {
+                        owners.put(entry, zip);
+                    }
+                }
+            }
+
+            try (ZipWriter zout = new ZipWriter(out)) {
+                for (RawZipFile.Entry entry : entries.values()) {
+                    zout.copyEntry(owners.get(entry), entry, ZipWriter.NORMALIZED_TIME);
+                }
+            }
+        } finally {
+            for (RawZipFile zip : zips) {
+                zip.close();
+            }
+        }
     }
 
     boolean areAnyArchiveStreamsOpen() {
         return !mapArchiveStreams.isEmpty();
     }
+
+    private static class PendingEntry {
+        private final String         file;
+        private final String         entryName;
+        private final Future<String> content;
+        private final String         copySource;
+
+        /**
+         * @param content the processed source, or null for a directory or a copied entry
+         * @param copySource the archive to copy the entry from, or null to save the content
+         */
+        private PendingEntry(String file, String entryName, Future<String> content, String copySource) {
+            this.file = file;
+            this.entryName = entryName;
+            this.content = content;
+            this.copySource = copySource;
+        }
+
+        private boolean isDone() {
+            return content == null || content.isDone();
+        }
+    }
 }
@@ -20,28 +20,106 @@
  */
 package net.minecraftforge.gradle.tasks.fernflower;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.jetbrains.java.decompiler.main.extern.IBytecodeProvider;
 import org.jetbrains.java.decompiler.util.InterpreterUtil;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
-class ByteCodeProvider implements IBytecodeProvider {
+/**
+ * Keeps every archive fernflower reads from open until it is closed, instead of opening it
+ * and reading its central directory again for every class. The bytes of the classes read
+ * can also be kept in ram, up to a limit, as fernflower reads the code of a class more than once.
+ */
+class ByteCodeProvider implements IBytecodeProvider, Closeable {
+    private final Map<String, ZipFile> archives = new ConcurrentHashMap<>();
+    private final Cache<String, byte[]> classes;
+
+    public ByteCodeProvider() {
+        this(0);
+    }
+
+    /**
+     * @param cacheBytes how many bytes of class files to keep in ram, 0 to not keep any
+     */
+    public ByteCodeProvider(long cacheBytes) {
+        if (cacheBytes > 0) {
+            classes = CacheBuilder.newBuilder()
+                    .maximumWeight(cacheBytes)
+                    .<String, byte[]>weigher((key, value) -> value.length)
+                    .build();
+        } else {
+            classes = null;
+        }
+    }
+
     @Override
     public byte[] getBytecode(String externalPath, String internalPath) throws IOException {
-        File file = new File(externalPath);
         if (internalPath == null) {
-            return InterpreterUtil.getBytes(file);
-        } else {
-            try (ZipFile archive = new ZipFile(file)) {
-                ZipEntry entry = archive.getEntry(internalPath);
-                if (entry == null) {
-                    throw new IOException("Entry not found: " + internalPath);
+            return InterpreterUtil.getBytes(new File(externalPath));
+        }
+
+        String key = externalPath + '!' + internalPath;
+        byte[] data = classes == null ? null : classes.getIfPresent(key);
+        if (data == null) {
+            ZipFile archive = getArchive(externalPath);
+            ZipEntry entry = archive.getEntry(internalPath);
+            if (entry == null) {
+                throw new IOException("Entry not found: " + internalPath);
+            }
+            data = InterpreterUtil.getBytes(archive, entry);
+
+            if (classes != null) {
+                classes.put(key, data);
+            }
+        }
+        return data;
+    }
+
+    private ZipFile getArchive(String path) throws IOException {
+        try {
+            return archives.computeIfAbsent(path, k -> {
+                try {
+                    return new ZipFile(new File(k));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (ZipFile archive : archives.values()) {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
                 }
-                return InterpreterUtil.getBytes(archive, entry);
             }
         }
+        archives.clear();
+
+        if (classes != null) {
+            classes.invalidateAll();
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
     }
 }
@@ -0,0 +1,213 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks.fernflower;
+
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+import com.google.gson.JsonParseException;
+import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.json.JsonFactory;
+import net.minecraftforge.gradle.util.zip.RawZipFile;
+import net.minecraftforge.gradle.util.zip.ZipWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Remembers what every class of the last decompiled jar was decompiled from, so that only the classes
+ * that changed since have to be decompiled again, and the others can be taken from the last decompiled jar.
+ * A class is keyed by its bytes and those of its inner classes, and all of them by the options and the libraries.
+ * Changes to other classes of the jar are not part of the key, as they hardly ever change the decompiled code.
+ */
+class DecompiledClassCache {
+    private final File   indexFile;
+    private final File   decompiledJar;
+    private final String base;
+
+    private final Map<String, String> groups = new TreeMap<>();
+    private File cachedJar;
+    private int  cachedCount;
+
+    /**
+     * @param indexFile where to remember the classes of the decompiled jar
+     * @param decompiledJar the output of the decompiling, of the last run before {@link #prepare(FernFlowerSettings)} and of this run after {@link #merge(FernFlowerSettings)}
+     * @param base key of everything but the classes the decompiled code depends on
+     */
+    public DecompiledClassCache(File indexFile, File decompiledJar, String base) {
+        this.indexFile = indexFile;
+        this.decompiledJar = decompiledJar;
+        this.base = base;
+    }
+
+    /**
+     * @param settings settings to decompile the whole jar
+     * @return the settings to decompile what is not cached. These are the given ones if nothing is.
+     * @throws IOException if the jars could not be read or written
+     */
+    public FernFlowerSettings prepare(FernFlowerSettings settings) throws IOException {
+        Index last = readIndex();
+        // a run that fails half way must not leave an index for a jar it did not write
+        indexFile.delete();
+
+        File dir = new File(settings.getCacheDirectory(), "incremental");
+        try (RawZipFile jar = new RawZipFile(settings.getJarFrom())) {
+            List<RawZipFile.Entry> resources = new ArrayList<>();
+            Map<String, List<RawZipFile.Entry>> classes = FernFlowerInvoker.groupClasses(jar, resources);
+            for (Map.Entry<String, List<RawZipFile.Entry>> group : classes.entrySet()) {
+                List<String> hashes = new ArrayList<>();
+                for (RawZipFile.Entry entry : group.getValue()) {
+                    hashes.add(entry.getName() + ':' + Constants.hash(jar.getBytes(entry)));
+                }
+                groups.put(group.getKey(), Constants.hash(Joiner.on(',').join(hashes)));
+            }
+
+            // the decompiled jar has to be the one of the last run, and not put there by anything else since
+            if (last == null || !base.equals(last.base) || !decompiledJar.isFile() || !Constants.hash(decompiledJar).equals(last.jar)) {
+                return settings;
+            }
+
+            // the classes that are the same as last time, and were decompiled last time
+            Set<String> cached = new HashSet<>();
+            try (RawZipFile decompiled = new RawZipFile(decompiledJar)) {
+                Set<String> sources = new HashSet<>();
+                for (RawZipFile.Entry entry : decompiled.getEntries()) {
+                    sources.add(entry.getName());
+                }
+
+                for (Map.Entry<String, String> group : groups.entrySet()) {
+                    if (group.getValue().equals(last.groups.get(group.getKey())) && sources.contains(group.getKey() + ".java")) {
+                        cached.add(group.getKey());
+                    }
+                }
+
+                if (cached.isEmpty()) {
+                    return settings;
+                }
+                cachedCount = cached.size();
+
+                dir.mkdirs();
+                cachedJar = new File(dir, "cached.jar");
+                try (ZipWriter out = new ZipWriter(cachedJar)) {
+                    for (RawZipFile.Entry entry : decompiled.getEntries()) {
+                        String name = entry.getName();
+                        if (name.endsWith(".java") && cached.contains(name.substring(0, name.length() - ".java".length()))) {
+                            out.copyEntry(decompiled, entry);
+                        }
+                    }
+                }
+            }
+
+            // the changed classes and the resources are decompiled, with the others as a library to see them
+            File changedJar = new File(dir, "changed.jar");
+            File unchangedJar = new File(dir, "unchanged.jar");
+            try (ZipWriter changed = new ZipWriter(changedJar);
+                 ZipWriter unchanged = new ZipWriter(unchangedJar)) {
+                for (RawZipFile.Entry entry : resources) {
+                    changed.copyEntry(jar, entry);
+                }
+                for (Map.Entry<String, List<RawZipFile.Entry>> group : classes.entrySet()) {
+                    ZipWriter out = cached.contains(group.getKey()) ? unchanged : changed;
+                    for (RawZipFile.Entry entry : group.getValue()) {
+                        out.copyEntry(jar, entry);
+                    }
+                }
+            }
+
+            Set<File> classpath = new LinkedHashSet<>();
+            classpath.add(unchangedJar);
+            classpath.addAll(settings.getClasspath());
+
+            File outDir = new File(dir, "decompiled");
+            outDir.mkdirs();
+            return new FernFlowerSettings(outDir, changedJar, new File(outDir, changedJar.getName()), settings.getTaskLogFile(), classpath, settings.getMapOptions());
+        }
+    }
+
+    /**
+     * @return the number of classes in the jar, counting an outer class with its inner classes once
+     */
+    public int getClassCount() {
+        return groups.size();
+    }
+
+    /**
+     * @return the number of classes taken from the last run, counting an outer class with its inner classes once
+     */
+    public int getCachedCount() {
+        return cachedCount;
+    }
+
+    /**
+     * Merges what was decompiled with what was cached into the decompiled jar.
+     * @param decompiled the settings returned by {@link #prepare(FernFlowerSettings)}, after decompiling them
+     * @throws IOException if the jars could not be read or written
+     */
+    public void merge(FernFlowerSettings decompiled) throws IOException {
+        if (cachedJar != null) {
+            List<File> archives = new ArrayList<>();
+            archives.add(decompiled.getJarTo());
+            archives.add(cachedJar);
+            ArtifactSaver.mergeArchives(archives, decompiledJar);
+        }
+    }
+
+    /**
+     * Remembers the classes of the decompiled jar for the next run. Until this is called, the next run decompiles everything.
+     * @throws IOException if the index could not be written
+     */
+    public void finish() throws IOException {
+        Index index = new Index(base, Constants.hash(decompiledJar), new HashMap<>(groups));
+        Files.write(JsonFactory.GSON.toJson(index).getBytes(Constants.CHARSET), indexFile);
+    }
+
+    private Index readIndex() throws IOException {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+
+        try {
+            Index index = JsonFactory.GSON.fromJson(Files.asCharSource(indexFile, Constants.CHARSET).read(), Index.class);
+            return index == null || index.base == null || index.jar == null || index.groups == null ? null : index;
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    private static class Index {
+        private final String              base;
+        private final String              jar;
+        private final Map<String, String> groups;
+
+        private Index(String base, String jar, Map<String, String> groups) {
+            this.base = base;
+            this.jar = jar;
+            this.groups = groups;
+        }
+    }
+}
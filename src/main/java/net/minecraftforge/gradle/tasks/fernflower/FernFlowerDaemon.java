@@ -0,0 +1,321 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks.fernflower;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Throwables;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A decompiler process that stays alive between builds, so the JVM does not have to be started and warmed up for every decompile.
+ * It listens on a loopback port written to a file in its directory, together with a secret every request has to start with,
+ * and decompiles one request after the other. It exits once it did not get a request for the idle timeout, or when it is {@link #stop stopped}.
+ */
+public class FernFlowerDaemon {
+
+    private static final String ADDRESS_FILE = "daemon.address";
+    private static final String LOCK_FILE    = "daemon.lock";
+    private static final String LOG_FILE     = "daemon.log";
+
+    private static final long STARTUP_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+    private static final int  REQUEST_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(30);
+
+    public static void main(String[] args) throws Exception {
+        // the directory of the daemon, and the idle timeout in minutes. A timeout of 0 would mean waiting forever.
+        File dir = new File(args[0]);
+        long idleMillis = TimeUnit.MINUTES.toMillis(Math.max(1, Long.parseLong(args[1])));
+        String secret = UUID.randomUUID().toString();
+
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout((int) Math.min(idleMillis, Integer.MAX_VALUE));
+            writeAddress(dir, new Address(server.getLocalPort(), secret));
+
+            boolean running = true;
+            while (running) {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketTimeoutException e) {
+                    break;
+                }
+
+                try (Socket s = socket) {
+                    running = handle(s, secret);
+                } catch (EOFException | SocketException e) {
+                    // clients check if the daemon is alive by connecting without sending anything
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            // a newer daemon may have taken over the directory already
+            Address address = readAddress(dir);
+            if (address != null && secret.equals(address.secret)) {
+                new File(dir, ADDRESS_FILE).delete();
+            }
+        }
+    }
+
+    /**
+     * @return false if the daemon was asked to stop
+     */
+    private static boolean handle(Socket socket, String secret) throws Exception {
+        socket.setSoTimeout(REQUEST_TIMEOUT);
+        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.flush();
+        ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        // nothing is deserialized from whoever does not know the secret
+        if (!secret.equals(in.readUTF())) {
+            return true;
+        }
+        final FernFlowerSettings settings = (FernFlowerSettings) in.readObject();
+        if (settings == null) {
+            out.writeObject(null);
+            out.flush();
+            return false;
+        }
+        socket.setSoTimeout(0);
+
+        // on a new thread every time, so nothing the decompiler keeps per thread stays around between requests
+        final Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(() -> {
+            try {
+                FernFlowerInvoker.runFernFlower(settings);
+            } catch (Throwable t) {
+                failure[0] = t;
+            }
+        }, "FernFlower");
+        thread.start();
+        thread.join();
+
+        out.writeObject(failure[0] == null ? null : Throwables.getStackTraceAsString(failure[0]));
+        out.flush();
+        return true;
+    }
+
+    /**
+     * Decompiles in the daemon of this directory, starting it if it is not running.
+     * @param dir directory of the daemon. Daemons with another classpath or other JVM arguments need another directory.
+     * @param jvmArgs arguments for the JVM of the daemon, if it has to be started
+     * @param classpath the classpath of the daemon, if it has to be started
+     * @param idleMinutes how long the daemon waits for another request before exiting, if it has to be started
+     * @param settings what to decompile
+     * @throws IOException if the daemon could not be started or the decompiling failed
+     */
+    public static void decompile(File dir, List<String> jvmArgs, Collection<File> classpath, int idleMinutes, FernFlowerSettings settings) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            Address address = connect(dir, jvmArgs, classpath, idleMinutes);
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), address.port)) {
+                send(socket, address.secret, settings);
+                return;
+            } catch (EOFException | SocketException e) {
+                // the daemon may have timed out just as we connected, so try once more with a new one
+                if (attempt > 0) {
+                    throw new IOException("The decompiler daemon stopped while decompiling, see " + new File(dir, LOG_FILE), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the daemon of this directory, if one is running. It finishes the request it is working on first.
+     * @param dir directory of the daemon
+     * @throws IOException if the daemon could not be asked to stop
+     */
+    public static void stop(File dir) throws IOException {
+        synchronized (FernFlowerDaemon.class) {
+            try (RandomAccessFile lockFile = new RandomAccessFile(new File(dir, LOCK_FILE), "rw");
+                 FileLock lock = lockFile.getChannel().lock()) {
+                Address address = readAddress(dir);
+                if (address == null) {
+                    return;
+                }
+
+                try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), address.port)) {
+                    // no settings is the request to stop
+                    send(socket, address.secret, null);
+                } catch (EOFException | SocketException e) {
+                    // it has exited already
+                }
+            }
+        }
+    }
+
+    private static void send(Socket socket, String secret, FernFlowerSettings settings) throws IOException {
+        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeUTF(secret);
+        out.writeObject(settings);
+        out.flush();
+
+        ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+        String failure;
+        try {
+            failure = (String) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+
+        if (failure != null) {
+            throw new IOException("Decompiling failed in the decompiler daemon:\n" + failure);
+        }
+    }
+
+    /**
+     * @return the address of a running daemon, started now if there was none
+     */
+    private static Address connect(File dir, List<String> jvmArgs, Collection<File> classpath, int idleMinutes) throws IOException {
+        dir.mkdirs();
+
+        // the file lock keeps out other builds, but throws if another thread of this one holds it already
+        synchronized (FernFlowerDaemon.class) {
+            try (RandomAccessFile lockFile = new RandomAccessFile(new File(dir, LOCK_FILE), "rw");
+                 FileLock lock = lockFile.getChannel().lock()) {
+                Address address = readAddress(dir);
+                if (address != null && isListening(address)) {
+                    return address;
+                }
+
+                new File(dir, ADDRESS_FILE).delete();
+                Process process = start(dir, jvmArgs, classpath, idleMinutes);
+
+                long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT;
+                while ((address = readAddress(dir)) == null) {
+                    if (!process.isAlive()) {
+                        throw new IOException("The decompiler daemon exited with " + process.exitValue() + ", see " + new File(dir, LOG_FILE));
+                    }
+                    if (System.currentTimeMillis() > deadline) {
+                        process.destroy();
+                        throw new IOException("The decompiler daemon did not start in time, see " + new File(dir, LOG_FILE));
+                    }
+
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while starting the decompiler daemon", e);
+                    }
+                }
+                return address;
+            }
+        }
+    }
+
+    private static Process start(File dir, List<String> jvmArgs, Collection<File> classpath, int idleMinutes) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+        command.addAll(jvmArgs);
+        List<String> paths = new ArrayList<>();
+        for (File file : classpath) {
+            paths.add(file.getAbsolutePath());
+        }
+
+        command.add("-cp");
+        command.add(Joiner.on(File.pathSeparatorChar).join(paths));
+        command.add(FernFlowerDaemon.class.getName());
+        command.add(dir.getAbsolutePath());
+        command.add(Integer.toString(idleMinutes));
+
+        return new ProcessBuilder(command)
+                .directory(dir)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(new File(dir, LOG_FILE)))
+                .start();
+    }
+
+    private static boolean isListening(Address address) {
+        try (Socket ignored = new Socket(InetAddress.getLoopbackAddress(), address.port)) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static Address readAddress(File dir) {
+        File file = new File(dir, ADDRESS_FILE);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            if (lines.size() < 2) {
+                return null;
+            }
+            return new Address(Integer.parseInt(lines.get(0)), lines.get(1));
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void writeAddress(File dir, Address address) throws IOException {
+        File file = new File(dir, ADDRESS_FILE);
+        File temp = new File(dir, ADDRESS_FILE + ".tmp");
+
+        // only we may read the secret
+        temp.delete();
+        temp.createNewFile();
+        temp.setReadable(false, false);
+        temp.setReadable(true, true);
+        temp.setWritable(false, false);
+        temp.setWritable(true, true);
+        Files.write(temp.toPath(), (address.port + "\n" + address.secret + "\n").getBytes(StandardCharsets.UTF_8));
+
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static class Address {
+        private final int    port;
+        private final String secret;
+
+        private Address(int port, String secret) {
+            this.port = port;
+            this.secret = secret;
+        }
+    }
+}
@@ -20,7 +20,10 @@
  */
 package net.minecraftforge.gradle.tasks.fernflower;
 
+import com.google.common.base.Throwables;
 import groovy.lang.Closure;
+import net.minecraftforge.gradle.util.zip.RawZipFile;
+import net.minecraftforge.gradle.util.zip.ZipWriter;
 import org.codehaus.groovy.runtime.ResourceGroovyMethods;
 import org.jetbrains.java.decompiler.main.decompiler.BaseDecompiler;
 import org.jetbrains.java.decompiler.main.decompiler.PrintStreamLogger;
@@ -29,8 +32,23 @@ import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class FernFlowerInvoker {
+
+    // the decompiler needs most of the heap for itself
+    private static final long CLASS_CACHE_BYTES = Runtime.getRuntime().maxMemory() / 16;
     
     public static void main(String[] args) throws Exception {
         // Data file is the first argument
@@ -61,15 +79,198 @@ public class FernFlowerInvoker {
     }
 
     public static void runFernFlower(FernFlowerSettings settings) throws IOException {
-        PrintStreamLogger logger = new PrintStreamLogger(new PrintStream(settings.getTaskLogFile()));
-        BaseDecompiler decompiler = new BaseDecompiler(new ByteCodeProvider(), new ArtifactSaver(settings.getCacheDirectory()), settings.getMapOptions(), logger);
+        runFernFlower(settings, (SourceProcessor) null);
+    }
 
-        decompiler.addSpace(settings.getJarFrom(), true);
-        for (File library : settings.getClasspath()) {
-            decompiler.addSpace(library, false);
+    /**
+     * Decompiles the jar, passing every source through the processor as soon as it is decompiled.
+     * The sources are processed on other threads while the decompiler goes on with the next classes.
+     * @param settings what to decompile
+     * @param processor what to pass the sources through, or null to save them as they are
+     * @throws IOException if the jar could not be decompiled, or a source not processed
+     */
+    public static void runFernFlower(FernFlowerSettings settings, SourceProcessor processor) throws IOException {
+        // the archives stay open until the decompiler is done with them
+        try (ByteCodeProvider provider = new ByteCodeProvider(CLASS_CACHE_BYTES)) {
+            runFernFlower(settings, provider, processor, null);
         }
+    }
+
+    /**
+     * Decompiles the parts of a jar made by {@link #splitJar(FernFlowerSettings, int)} at the same time,
+     * every part on its own thread with its own decompiler.
+     * The archives, which are mostly the same libraries for every part, are only opened once.
+     * @param parts settings of every part
+     * @throws IOException if any part could not be decompiled
+     */
+    public static void runFernFlower(List<FernFlowerSettings> parts) throws IOException {
+        runFernFlower(parts, null);
+    }
+
+    /**
+     * Decompiles the parts like {@link #runFernFlower(List)}, passing the sources through the processor
+     * like {@link #runFernFlower(FernFlowerSettings, SourceProcessor)}.
+     * @param parts settings of every part
+     * @param processor what to pass the sources through, or null to save them as they are
+     * @throws IOException if any part could not be decompiled, or a source not processed
+     */
+    public static void runFernFlower(List<FernFlowerSettings> parts, SourceProcessor processor) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(parts.size());
+        // one pool for the sources of all parts, not one of every core for each
+        ExecutorService processors = processor == null ? null : Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try (ByteCodeProvider provider = new ByteCodeProvider(CLASS_CACHE_BYTES)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (FernFlowerSettings part : parts) {
+                futures.add(executor.submit(() -> {
+                    runFernFlower(part, provider, processor, processors);
+                    return null;
+                }));
+            }
 
-        decompiler.decompileContext();
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while decompiling", e);
+                } catch (ExecutionException e) {
+                    Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+                    Throwables.throwIfUnchecked(e.getCause());
+                    throw new IOException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            if (processors != null) {
+                processors.shutdownNow();
+            }
+        }
     }
 
+    /**
+     * @param processors the threads to process the sources on, or null for the saver to start its own
+     */
+    private static void runFernFlower(FernFlowerSettings settings, ByteCodeProvider provider, SourceProcessor processor, ExecutorService processors) throws IOException {
+        try (PrintStream log = new PrintStream(settings.getTaskLogFile());
+             ArtifactSaver saver = new ArtifactSaver(settings.getCacheDirectory(), settings.getJarFrom().getName(), settings.getJarTo(), processor, processors)) {
+            BaseDecompiler decompiler = new BaseDecompiler(provider, saver, settings.getMapOptions(), new PrintStreamLogger(log));
+
+            decompiler.addSpace(settings.getJarFrom(), true);
+            for (File library : settings.getClasspath()) {
+                decompiler.addSpace(library, false);
+            }
+
+            decompiler.decompileContext();
+            saver.checkProcessed();
+        }
+    }
+
+    /**
+     * Splits the jar to decompile into parts that can be decompiled on their own.
+     * Inner classes stay in the part of their outer class, and the resources all go in the first part.
+     * Every part has the other parts on its classpath, so it still sees every class of the jar.
+     * The same jar is always split the same way.
+     * @param settings settings for decompiling the whole jar
+     * @param count the number of parts to split into at most
+     * @return settings for decompiling every part. The decompiled part is {@link FernFlowerSettings#getJarTo()}.
+     * @throws IOException if the jar could not be read or the parts written
+     */
+    public static List<FernFlowerSettings> splitJar(FernFlowerSettings settings, int count) throws IOException {
+        File dir = new File(settings.getCacheDirectory(), "parts");
+        dir.mkdirs();
+
+        try (RawZipFile jar = new RawZipFile(settings.getJarFrom())) {
+            List<RawZipFile.Entry> resources = new ArrayList<>();
+            Map<String, List<RawZipFile.Entry>> groups = groupClasses(jar, resources);
+
+            int partCount = Math.max(1, Math.min(count, groups.size()));
+            Map<RawZipFile.Entry, Integer> partOf = new HashMap<>();
+            long[] partSizes = new long[partCount];
+            for (RawZipFile.Entry entry : resources) {
+                partOf.put(entry, 0);
+            }
+
+            // biggest groups first, each into the smallest part so far
+            List<List<RawZipFile.Entry>> sorted = new ArrayList<>(groups.values());
+            sorted.sort(Comparator.comparingLong(FernFlowerInvoker::size).reversed());
+            for (List<RawZipFile.Entry> group : sorted) {
+                int smallest = 0;
+                for (int i = 1; i < partCount; i++) {
+                    if (partSizes[i] < partSizes[smallest]) {
+                        smallest = i;
+                    }
+                }
+                for (RawZipFile.Entry entry : group) {
+                    partOf.put(entry, smallest);
+                }
+                partSizes[smallest] += size(group);
+            }
+
+            List<File> partJars = new ArrayList<>();
+            ZipWriter[] writers = new ZipWriter[partCount];
+            try {
+                for (int i = 0; i < partCount; i++) {
+                    File partJar = new File(dir, "part" + i + ".jar");
+                    writers[i] = new ZipWriter(partJar);
+                    partJars.add(partJar);
+                }
+
+                // keep the order of the jar, so every part is like the whole jar would have been
+                for (RawZipFile.Entry entry : jar.getEntries()) {
+                    writers[partOf.get(entry)].copyEntry(jar, entry);
+                }
+            } finally {
+                for (ZipWriter writer : writers) {
+                    if (writer != null) {
+                        writer.close();
+                    }
+                }
+            }
+
+            List<FernFlowerSettings> ret = new ArrayList<>();
+            for (int i = 0; i < partCount; i++) {
+                File partJar = partJars.get(i);
+                File partDir = new File(dir, "part" + i);
+                partDir.mkdirs();
+
+                Set<File> classpath = new LinkedHashSet<>(partJars);
+                classpath.remove(partJar);
+                classpath.addAll(settings.getClasspath());
+
+                String log = settings.getTaskLogFile().getName().replaceFirst("(\\.log)?$", "-part" + i + "$1");
+                ret.add(new FernFlowerSettings(partDir, partJar, new File(partDir, partJar.getName()), new File(settings.getTaskLogFile().getParentFile(), log), classpath, settings.getMapOptions()));
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Groups the classes of the jar by the outer class they are decompiled into.
+     * @param jar the jar to decompile
+     * @param resources every entry that is not a class is added to this
+     * @return outer class -&gt; the entries of it and its inner classes, sorted by the outer class
+     */
+    static Map<String, List<RawZipFile.Entry>> groupClasses(RawZipFile jar, List<RawZipFile.Entry> resources) {
+        Map<String, List<RawZipFile.Entry>> groups = new TreeMap<>();
+        for (RawZipFile.Entry entry : jar.getEntries()) {
+            String name = entry.getName();
+            if (!name.endsWith(".class")) {
+                resources.add(entry);
+                continue;
+            }
+
+            int inner = name.indexOf('$', name.lastIndexOf('/') + 1);
+            String outer = inner == -1 ? name.substring(0, name.length() - ".class".length()) : name.substring(0, inner);
+            groups.computeIfAbsent(outer, k -> new ArrayList<>()).add(entry);
+        }
+        return groups;
+    }
+
+    private static long size(List<RawZipFile.Entry> entries) {
+        long size = 0;
+        for (RawZipFile.Entry entry : entries) {
+            size += entry.getSize();
+        }
+        return size;
+    }
 }
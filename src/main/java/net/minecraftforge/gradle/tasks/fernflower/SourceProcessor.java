@@ -0,0 +1,35 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks.fernflower;
+
+/**
+ * Changes the decompiled sources before they are saved, see {@link FernFlowerInvoker#runFernFlower(FernFlowerSettings, SourceProcessor)}.
+ * It is called from several threads at once.
+ */
+public interface SourceProcessor {
+    /**
+     * @param entryName name of the source in the decompiled jar
+     * @param source the decompiled source
+     * @return the source to save
+     * @throws Exception if the source could not be processed, which fails the decompiling
+     */
+    String process(String entryName, String source) throws Exception;
+}
@@ -57,6 +57,7 @@ import net.md_5.specialsource.provider.JarProvider;
 import net.md_5.specialsource.provider.JointProvider;
 import net.minecraftforge.gradle.common.Constants;
 import net.minecraftforge.gradle.util.GradleConfigurationException;
+import net.minecraftforge.gradle.util.ParallelJarRemapper;
 import net.minecraftforge.gradle.util.mcp.ReobfExceptor;
 
 /**
@@ -223,9 +224,6 @@ public class TaskSingleReobf extends DefaultTask
             mapping.loadMappings(f);
         }
 
-        // make remapper
-        JarRemapper remapper = new JarRemapper(null, mapping);
-
         // load jar
         URLClassLoader classLoader = null;
         try (Jar inputJar = Jar.init(input))
@@ -237,7 +235,8 @@ public class TaskSingleReobf extends DefaultTask
             if (classpath != null && !classpath.isEmpty())
                 inheritanceProviders.add(new ClassLoaderProvider(classLoader = new URLClassLoader(Constants.toUrls(classpath))));
 
-            mapping.setFallbackInheritanceProvider(inheritanceProviders);
+            // make remapper
+            ParallelJarRemapper remapper = new ParallelJarRemapper(mapping, inheritanceProviders, threadMapping -> new JarRemapper(null, threadMapping));
 
             // remap jar
             remapper.remapJar(inputJar, output);
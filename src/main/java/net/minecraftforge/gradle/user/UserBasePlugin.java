@@ -97,6 +97,7 @@ import com.google.common.collect.Maps;
 import groovy.lang.Closure;
 import net.minecraftforge.gradle.common.BasePlugin;
 import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.tasks.AbstractEditJarTask;
 import net.minecraftforge.gradle.tasks.ApplyS2STask;
 import net.minecraftforge.gradle.tasks.CreateStartTask;
 import net.minecraftforge.gradle.tasks.DeobfuscateJar;
@@ -214,6 +215,19 @@ public abstract class UserBasePlugin<T extends UserBaseExtension> extends BasePl
         // add access transformers to deobf tasks
         addAtsToDeobf();
 
+        // run the source fixing in the decompiler, as far as the tasks read what the one before them writes
+        ApplyFernFlowerTask decompile = (ApplyFernFlowerTask) project.getTasks().getByName(TASK_DECOMPILE);
+        if (decompile.isFuseEnabled())
+        {
+            for (String name : new String[] { TASK_POST_DECOMP, TASK_REMAP })
+            {
+                AbstractEditJarTask stage = (AbstractEditJarTask) project.getTasks().getByName(name);
+                if (!decompile.canFuse(stage))
+                    break;
+                decompile.fuse(stage);
+            }
+        }
+
         if (ext.getMakeObfSourceJar())
         {
             project.getTasks().getByName("assemble").dependsOn(TASK_SRC_JAR);
@@ -438,6 +452,14 @@ public abstract class UserBasePlugin<T extends UserBaseExtension> extends BasePl
         });
     }
 
+    @Override
+    protected List<File> getCacheUnits()
+    {
+        List<File> units = super.getCacheUnits();
+        units.add(delayedFile(DIR_DEOBF_DEPS).call());
+        return units;
+    }
+
     /**
      * This method returns an object that resolved to the correct pattern based on the useLocalCache() method
      *
@@ -90,6 +90,15 @@ public abstract class UserVanillaBasePlugin<T extends UserBaseExtension> extends
         super.afterEvaluate();
     }
 
+    @Override
+    protected List<File> getCacheUnits()
+    {
+        List<File> units = super.getCacheUnits();
+        if (!useLocalCache(getExtension()))
+            units.add(delayedFile(CLEAN_ROOT + getJarName() + "/" + REPLACE_MC_VERSION + "/" + MCP_INSERT).call());
+        return units;
+    }
+
     /**
      * Correctly invoke the makeDecomptasks() method from the UserBasePlugin
      * @param globalPattern pattern for convenience
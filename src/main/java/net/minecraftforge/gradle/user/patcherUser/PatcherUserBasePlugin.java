@@ -32,6 +32,7 @@ import static net.minecraftforge.gradle.user.UserConstants.*;
 import static net.minecraftforge.gradle.user.patcherUser.PatcherUserConstants.*;
 
 import java.io.File;
+import java.util.List;
 
 import org.gradle.api.plugins.JavaPluginExtension;
 import org.gradle.api.tasks.SourceSet;
@@ -184,6 +185,16 @@ public abstract class PatcherUserBasePlugin<T extends UserBaseExtension> extends
                 ));
     }
 
+    @Override
+    protected List<File> getCacheUnits()
+    {
+        List<File> units = super.getCacheUnits();
+        units.add(delayedFile(DIR_USERDEV).call());
+        if (!useLocalCache(getExtension()))
+            units.add(delayedFile(DIR_API_JAR_BASE).call());
+        return units;
+    }
+
     @Override
     protected void afterDecomp(final boolean isDecomp, final boolean useLocalCache, final String mcConfig)
     {
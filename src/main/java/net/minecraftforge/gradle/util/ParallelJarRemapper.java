@@ -0,0 +1,336 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+
+import com.google.common.base.Throwables;
+import com.google.common.io.ByteStreams;
+
+import net.md_5.specialsource.Jar;
+import net.md_5.specialsource.JarMapping;
+import net.md_5.specialsource.JarRemapper;
+import net.md_5.specialsource.provider.InheritanceProvider;
+import net.md_5.specialsource.repo.ClassRepo;
+import net.md_5.specialsource.repo.CachingRepo;
+import net.minecraftforge.gradle.util.zip.ZipWriter;
+
+/**
+ * Does what {@link JarRemapper#remapJar(Jar, File)} does, but remaps the classes on several threads.
+ * <p>
+ * Neither the JarRemapper nor the JarMapping are thread safe, they cache the inheritance they look up.
+ * So every thread gets its own remapper with its own copy of the mapping, and all of them share the
+ * inheritance, which is looked up once through the given provider.
+ * <p>
+ * The jar is shared too. {@link Jar#getNode(String)} records every class it finds in a plain set of the jar,
+ * so the threads read the classes they need with {@link Jar#getResource(String)}, which only reads.
+ */
+public class ParallelJarRemapper
+{
+    private static final int THREADS     = Runtime.getRuntime().availableProcessors();
+    /** How many remapped classes may wait in memory for the ones before them to be written. */
+    private static final int MAX_PENDING = THREADS * 8;
+
+    public interface RemapperFactory
+    {
+        /**
+         * @param mapping the copy of the mapping for one thread
+         * @return a new remapper using the mapping, and processors of its own
+         */
+        JarRemapper create(JarMapping mapping);
+    }
+
+    private final JarMapping          mapping;
+    private final RemapperFactory     factory;
+    private final SharedInheritance   inheritance;
+    private boolean                   compress = true;
+
+    /**
+     * @param mapping the loaded mapping, it is copied for every thread
+     * @param inheritance the provider for the inheritance of classes, it is only used by one thread at a time
+     * @param factory makes the remapper of each thread
+     */
+    public ParallelJarRemapper(JarMapping mapping, InheritanceProvider inheritance, RemapperFactory factory)
+    {
+        this.mapping = mapping;
+        this.factory = factory;
+        this.inheritance = new SharedInheritance(inheritance);
+    }
+
+    /**
+     * @param compress whether to deflate the entries of the output. A jar that is read once by the next step doesn't need to be.
+     */
+    public void setCompress(boolean compress)
+    {
+        this.compress = compress;
+    }
+
+    /**
+     * Remaps the classes of the jar, and copies everything else but signatures.
+     * The entries are written in the order of the input jar.
+     * @param input the jar to remap
+     * @param output the file to write the remapped jar to
+     * @return the names of the entries in the output
+     * @throws IOException if the jar could not be read or written
+     */
+    public Set<String> remapJar(Jar input, File output) throws IOException
+    {
+        Set<String> written = new LinkedHashSet<>();
+
+        // look up the inheritance of everything in the jar now, instead of every thread waiting on the others for it
+        List<String> classes = new ArrayList<>();
+        for (String name : input.getEntryNames())
+        {
+            if (name.endsWith(".class"))
+                classes.add(name.substring(0, name.length() - ".class".length()));
+        }
+        inheritance.preload(classes);
+
+        ThreadLocal<Worker> workers = ThreadLocal.withInitial(() -> new Worker(input));
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try (ZipWriter out = new ZipWriter(output))
+        {
+            Deque<Future<RemappedEntry>> pending = new ArrayDeque<>();
+            for (String name : input.getEntryNames())
+            {
+                Future<RemappedEntry> entry;
+                if (name.endsWith(".class"))
+                {
+                    entry = executor.submit(() -> workers.get().remap(name));
+                }
+                else if (name.endsWith(".DSA") || name.endsWith(".SF"))
+                {
+                    // the signatures are no good for the remapped classes
+                    continue;
+                }
+                else
+                {
+                    entry = executor.submit(() -> new RemappedEntry(name, read(input, name)));
+                }
+                pending.add(entry);
+
+                if (pending.size() >= MAX_PENDING)
+                {
+                    written.add(writeNext(pending, out));
+                }
+            }
+
+            while (!pending.isEmpty())
+            {
+                written.add(writeNext(pending, out));
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        return written;
+    }
+
+    private String writeNext(Deque<Future<RemappedEntry>> pending, ZipWriter out) throws IOException
+    {
+        RemappedEntry entry;
+        try
+        {
+            entry = pending.poll().get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while remapping", e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IOException(e.getCause());
+        }
+
+        out.writeEntry(entry.name, entry.data, ZipWriter.NORMALIZED_TIME, !compress);
+        return entry.name;
+    }
+
+    private static byte[] read(Jar jar, String name) throws IOException
+    {
+        try (InputStream in = jar.getResource(name))
+        {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+    private JarMapping copyMapping()
+    {
+        JarMapping copy = new JarMapping();
+        copy.packages.putAll(mapping.packages);
+        copy.classes.putAll(mapping.classes);
+        copy.fields.putAll(mapping.fields);
+        copy.methods.putAll(mapping.methods);
+        copy.setFallbackInheritanceProvider(inheritance);
+        return copy;
+    }
+
+    private static class RemappedEntry
+    {
+        private final String name;
+        private final byte[] data;
+
+        private RemappedEntry(String name, byte[] data)
+        {
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+    /**
+     * The remapper and class repository of one thread.
+     */
+    private class Worker
+    {
+        private final Jar         input;
+        private final JarRemapper remapper;
+        private final ClassRepo   repo;
+
+        private Worker(Jar input)
+        {
+            this.input = input;
+            this.remapper = factory.create(copyMapping());
+            this.repo = new ResourceRepo(input);
+        }
+
+        private RemappedEntry remap(String name) throws IOException
+        {
+            byte[] data;
+            try (InputStream in = input.getResource(name))
+            {
+                data = remapper.remapClassFile(in, repo);
+            }
+
+            String className = name.substring(0, name.length() - ".class".length());
+            return new RemappedEntry(remapper.map(className) + ".class", data);
+        }
+    }
+
+    /**
+     * Like a {@link net.md_5.specialsource.repo.JarRepo}, but without changing the jar, for one thread.
+     */
+    private static class ResourceRepo extends CachingRepo
+    {
+        private final Jar jar;
+
+        private ResourceRepo(Jar jar)
+        {
+            this.jar = jar;
+        }
+
+        @Override
+        protected ClassNode findClass0(String internalName)
+        {
+            try (InputStream in = jar.getResource(internalName + ".class"))
+            {
+                if (in == null)
+                    return null;
+
+                ClassNode node = new ClassNode();
+                new ClassReader(in).accept(node, 0);
+                return node;
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Caches what the provider returns, so it can be read from every thread.
+     */
+    private static class SharedInheritance implements InheritanceProvider
+    {
+        /** Stands for classes the provider knows nothing about, the map can't hold null. */
+        private static final Collection<String> UNKNOWN = new ArrayList<>(0);
+
+        private final InheritanceProvider                  provider;
+        private final Map<String, Collection<String>>      parents = new ConcurrentHashMap<>();
+
+        private SharedInheritance(InheritanceProvider provider)
+        {
+            this.provider = provider;
+        }
+
+        /**
+         * Looks up the given classes and all their parents.
+         */
+        private void preload(Collection<String> classes)
+        {
+            Deque<String> queue = new ArrayDeque<>(classes);
+            while (!queue.isEmpty())
+            {
+                String name = queue.poll();
+                if (parents.containsKey(name))
+                    continue;
+
+                Collection<String> found = getParents(name);
+                if (found != null)
+                    queue.addAll(found);
+            }
+        }
+
+        @Override
+        public Collection<String> getParents(String className)
+        {
+            Collection<String> ret = parents.get(className);
+            if (ret == null)
+            {
+                synchronized (this)
+                {
+                    ret = parents.get(className);
+                    if (ret == null)
+                    {
+                        Collection<String> found = provider.getParents(className);
+                        ret = found == null ? UNKNOWN : Collections.unmodifiableList(new ArrayList<>(found));
+                        parents.put(className, ret);
+                    }
+                }
+            }
+            return ret == UNKNOWN ? null : ret;
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import net.minecraftforge.gradle.common.Constants;
+
+/**
+ * A map of file name to source, that keeps at most a given amount of characters in memory.
+ * When there are more, the sources that were not used for the longest time are written to a file
+ * and read back every time they are asked for. When a spilled source is replaced, the new one
+ * takes its place in the file if it fits, so patching every source does not double the file.
+ * <p>
+ * To replace a source without reading a spilled old one back only to return it, use {@link #store(String, String)}.
+ * <p>
+ * This is not thread safe. The spill file is deleted when the map is closed.
+ */
+public class SpillingSourceMap extends AbstractMap<String, String> implements Closeable
+{
+    private final File                 spillDir;
+    private final long                 memoryLimit;
+
+    /** name -&gt; either the source or the {@link Spilled} location of it. */
+    private final Map<String, Object>  values = new LinkedHashMap<>();
+    /** names of the sources in memory, least recently used first. */
+    private final Map<String, Boolean> inMemory = new LinkedHashMap<>(16, 0.75f, true);
+    private long                       inMemoryChars;
+    /** name -&gt; where its spilled source was, until the name is spilled again. */
+    private final Map<String, Spilled> freeSlots = new LinkedHashMap<>();
+
+    private File                       spillFile;
+    private FileChannel                spill;
+    private long                       spillSize;
+
+    /**
+     * @param spillDir directory to create the spill file in, if one is needed
+     * @param memoryLimit how many characters of sources may be kept in memory
+     */
+    public SpillingSourceMap(File spillDir, long memoryLimit)
+    {
+        this.spillDir = spillDir;
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * @return how many sources are currently written to the spill file instead of being held in memory
+     */
+    public int getSpilledCount()
+    {
+        return values.size() - inMemory.size();
+    }
+
+    @Override
+    public int size()
+    {
+        return values.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return values.containsKey(key);
+    }
+
+    @Override
+    public String get(Object key)
+    {
+        Object value = values.get(key);
+        if (value instanceof String)
+            inMemory.get(key); // mark it as used
+        return load(value);
+    }
+
+    @Override
+    public String put(String key, String value)
+    {
+        // read before storing, the new source may be spilled to the same place
+        String old = load(values.get(key));
+        store(key, value);
+        return old;
+    }
+
+    /**
+     * Like {@link #put(String, String)}, but does not read the old source back if it was spilled.
+     * @param key name of the source
+     * @param value new source
+     */
+    public void store(String key, String value)
+    {
+        Objects.requireNonNull(value, "value");
+        forget(key, values.put(key, value));
+        inMemory.put(key, Boolean.TRUE);
+        inMemoryChars += value.length();
+        spillColdest();
+    }
+
+    @Override
+    public String remove(Object key)
+    {
+        return load(forget(key, values.remove(key)));
+    }
+
+    @Override
+    public void clear()
+    {
+        values.clear();
+        inMemory.clear();
+        freeSlots.clear();
+        inMemoryChars = 0;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet()
+    {
+        return new AbstractSet<Entry<String, String>>()
+        {
+            @Override
+            public Iterator<Entry<String, String>> iterator()
+            {
+                final Iterator<Entry<String, Object>> it = values.entrySet().iterator();
+                return new Iterator<Entry<String, String>>()
+                {
+                    private Entry<String, Object> current;
+
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, String> next()
+                    {
+                        current = it.next();
+                        return new SourceEntry(current.getKey());
+                    }
+
+                    @Override
+                    public void remove()
+                    {
+                        Object value = current.getValue();
+                        it.remove();
+                        forget(current.getKey(), value);
+                    }
+                };
+            }
+
+            @Override
+            public int size()
+            {
+                return values.size();
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        clear();
+        if (spill != null)
+        {
+            spill.close();
+            spill = null;
+            spillFile.delete();
+        }
+    }
+
+    /**
+     * Stops counting a value that was replaced or removed, or keeps its place in the spill file for the next value of the name.
+     */
+    private Object forget(Object key, Object old)
+    {
+        if (old instanceof String)
+        {
+            inMemory.remove(key);
+            inMemoryChars -= ((String) old).length();
+        }
+        else if (old instanceof Spilled)
+        {
+            freeSlots.put((String) key, (Spilled) old);
+        }
+        return old;
+    }
+
+    private void spillColdest()
+    {
+        Iterator<String> it = inMemory.keySet().iterator();
+        while (inMemoryChars > memoryLimit && it.hasNext())
+        {
+            String key = it.next();
+            String value = (String) values.get(key);
+            try
+            {
+                values.put(key, write(key, value));
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+            it.remove();
+            inMemoryChars -= value.length();
+        }
+    }
+
+    private Spilled write(String key, String value) throws IOException
+    {
+        if (spill == null)
+        {
+            spillDir.mkdirs();
+            spillFile = File.createTempFile("sources", ".spill", spillDir);
+            spill = FileChannel.open(spillFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(value.getBytes(Constants.CHARSET));
+        Spilled slot = freeSlots.remove(key);
+        Spilled spilled;
+        if (slot != null && buf.remaining() <= slot.capacity)
+        {
+            spilled = new Spilled(slot.offset, buf.remaining(), slot.capacity);
+        }
+        else
+        {
+            spilled = new Spilled(spillSize, buf.remaining(), buf.remaining());
+            spillSize += buf.remaining();
+        }
+
+        long pos = spilled.offset;
+        while (buf.hasRemaining())
+        {
+            pos += spill.write(buf, pos);
+        }
+        return spilled;
+    }
+
+    private String load(Object value)
+    {
+        if (!(value instanceof Spilled))
+            return (String) value;
+
+        Spilled spilled = (Spilled) value;
+        ByteBuffer buf = ByteBuffer.allocate(spilled.length);
+        try
+        {
+            long pos = spilled.offset;
+            while (buf.hasRemaining())
+            {
+                int read = spill.read(buf, pos);
+                if (read < 0)
+                    throw new EOFException("Spill file " + spillFile + " is shorter than expected");
+                pos += read;
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return new String(buf.array(), Constants.CHARSET);
+    }
+
+    private static class Spilled
+    {
+        private final long offset;
+        private final int  length;
+        /** how many bytes the slot in the file has, a replaced source may have been longer. */
+        private final int  capacity;
+
+        private Spilled(long offset, int length, int capacity)
+        {
+            this.offset = offset;
+            this.length = length;
+            this.capacity = capacity;
+        }
+    }
+
+    private class SourceEntry implements Entry<String, String>
+    {
+        private final String key;
+
+        private SourceEntry(String key)
+        {
+            this.key = key;
+        }
+
+        @Override
+        public String getKey()
+        {
+            return key;
+        }
+
+        @Override
+        public String getValue()
+        {
+            return get(key);
+        }
+
+        @Override
+        public String setValue(String value)
+        {
+            return put(key, value);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<?, ?> other = (Entry<?, ?>) o;
+            return key.equals(other.getKey()) && getValue().equals(other.getValue());
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return key.hashCode() ^ getValue().hashCode();
+        }
+    }
+}
@@ -21,58 +21,124 @@
 package net.minecraftforge.gradle.util.caching;
 
 import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Optional;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
+/**
+ * A cached output or input of a task class.
+ * The member and its getter are looked up once when the CacheContainer of the class is built,
+ * so reading the value off a task is a single method handle call.
+ */
 class Annotated
 {
+    enum Kind
+    {
+        FILE, DIRECTORY, FILES, VALUE
+    }
+
     private final Class<?> clazz;
     private final String   symbolName;
     private final boolean  isMethod;
 
+    private final AnnotatedElement element;
+    private final MethodHandle     getter;
+    private final boolean          optional;
+    private final Kind             kind;
+
     public Annotated(Class<?> clazz, String symbolName, boolean isMethod)
     {
         this.clazz = clazz;
         this.symbolName = symbolName;
         this.isMethod = isMethod;
+
+        try
+        {
+            this.element = isMethod ? clazz.getDeclaredMethod(symbolName) : clazz.getDeclaredField(symbolName);
+            this.getter = findGetter();
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalArgumentException("Could not access " + clazz.getName() + "." + symbolName, e);
+        }
+
+        this.optional = element.isAnnotationPresent(Optional.class);
+
+        if (element.isAnnotationPresent(InputFile.class))
+            kind = Kind.FILE;
+        else if (element.isAnnotationPresent(InputDirectory.class))
+            kind = Kind.DIRECTORY;
+        else if (element.isAnnotationPresent(InputFiles.class))
+            kind = Kind.FILES;
+        else
+            kind = Kind.VALUE;
     }
 
     public Annotated(Class<?> clazz, String fieldName)
     {
-        this.clazz = clazz;
-        this.symbolName = fieldName;
-        isMethod = false;
+        this(clazz, fieldName, false);
     }
 
-    public AnnotatedElement getElement() throws NoSuchMethodException, NoSuchFieldException
+    public String getName()
     {
-        if (isMethod)
-            return clazz.getDeclaredMethod(symbolName);
-        else
-            return clazz.getDeclaredField(symbolName);
+        return symbolName;
     }
 
-    public Object getValue(Object instance) throws NoSuchMethodException, NoSuchFieldException, IllegalArgumentException, IllegalAccessException, InvocationTargetException
+    public AnnotatedElement getElement()
     {
-        Object value = getValue0(instance);
+        return element;
+    }
+
+    public boolean isOptional()
+    {
+        return optional;
+    }
+
+    public Kind getKind()
+    {
+        return kind;
+    }
+
+    public Object getValue(Object instance) throws InvocationTargetException
+    {
+        Object value;
+        try
+        {
+            value = getter.invoke(instance);
+        }
+        catch (Error | RuntimeException e)
+        {
+            throw e;
+        }
+        catch (Throwable t)
+        {
+            throw new InvocationTargetException(t);
+        }
+
         if (value instanceof Provider<?>)
             value = ((Provider<?>) value).get();
         return value;
     }
 
-    private Object getValue0(Object instance) throws NoSuchMethodException, NoSuchFieldException, IllegalArgumentException, IllegalAccessException, InvocationTargetException
+    private MethodHandle findGetter() throws ReflectiveOperationException
     {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
         Method method;
 
         if (isMethod)
-            method = clazz.getDeclaredMethod(symbolName);
+            method = (Method) element;
         else
         {
             // finds the getter, and uses that if possible.
-            Field f = clazz.getDeclaredField(symbolName);
+            Field f = (Field) element;
             String methodName = f.getType().equals(boolean.class) ? "is" : "get";
 
             char[] name = symbolName.toCharArray();
@@ -87,12 +153,12 @@ class Annotated
             {
                 // method not found. Grab the field via reflection
                 f.setAccessible(true);
-                return f.get(instance);
+                return lookup.unreflectGetter(f);
             }
         }
-        
+
         method.setAccessible(true);
 
-        return method.invoke(instance);
+        return lookup.unreflect(method);
     }
 }
@@ -23,6 +23,8 @@ package net.minecraftforge.gradle.util.caching;
 import java.io.File;
 import java.nio.charset.Charset;
 
+import net.minecraftforge.gradle.common.Constants;
+
 import org.gradle.api.Task;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
@@ -55,6 +57,9 @@ public class CacheCheckSpec implements Spec<Task>
         if (!task.doesCache() || container.cachedList.isEmpty())
             return true;
 
+        // hash the inputs fresh for this run, the write actions reuse them afterwards.
+        CacheUtil.forgetInputHashes(task);
+
         for (Annotated field : container.cachedList)
         {
             try
@@ -65,6 +70,8 @@ public class CacheCheckSpec implements Spec<Task>
                 if (!file.exists())
                 {
                     logger.info("No output file found.");
+                    if (restoreShared(field, file, task, logger))
+                        continue;
                     return true;
                 }
 
@@ -73,11 +80,13 @@ public class CacheCheckSpec implements Spec<Task>
                 {
                     logger.info("No cache file found.");
                     file.delete(); // Kill the output file if the hash doesn't exist, else gradle will think it's up-to-date
+                    if (restoreShared(field, file, task, logger))
+                        continue;
                     return true;
                 }
 
-                String foundMD5 = Files.asCharSource(CacheUtil.getHashFile(file), Charset.defaultCharset()).read();
-                String calcMD5 = CacheUtil.getHashes(field, container.inputList, task);
+                String foundMD5 = Files.asCharSource(hashFile, Charset.defaultCharset()).read();
+                String calcMD5 = CacheUtil.getHashes(file, container.inputList, task);
 
                 if (!calcMD5.equals(foundMD5))
                 {
@@ -85,7 +94,9 @@ public class CacheCheckSpec implements Spec<Task>
                     logger.info("Checksums found: {}", foundMD5);
                     logger.info("Checksums calculated: {}", calcMD5);
                     file.delete();
-                    CacheUtil.getHashFile(file).delete();
+                    hashFile.delete();
+                    if (restoreShared(field, file, task, logger))
+                        continue;
                     return true;
                 }
 
@@ -104,4 +115,22 @@ public class CacheCheckSpec implements Spec<Task>
         // no problems? all of em are here? skip the task.
         return false;
     }
+
+    /**
+     * Copies the output from the shared output store, if the task shares its outputs and another project
+     * already produced it from the same inputs. The hash file is written as if the task had run.
+     */
+    private boolean restoreShared(Annotated field, File file, ICachableTask task, Logger logger) throws Exception
+    {
+        if (!task.sharesOutputs())
+            return false;
+
+        String key = CacheUtil.getSharedKey(field, container.inputList, task);
+        if (!SharedOutputStore.retrieve(key, file))
+            return false;
+
+        Files.asCharSink(CacheUtil.getHashFile(file), Constants.CHARSET).write(CacheUtil.getHashes(file, container.inputList, task));
+        logger.lifecycle("Reusing {} from the shared cache", file.getName());
+        return true;
+    }
 }
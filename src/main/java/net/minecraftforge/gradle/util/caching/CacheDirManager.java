@@ -0,0 +1,282 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.caching;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.Files;
+
+/**
+ * Keeps the FG cache dir under a size budget by deleting whatever was used least recently.
+ * <p>
+ * The cache is split into units that are deleted as a whole. A unit is either a directory that the plugins
+ * mark with a {@value #MARKER} file every time they use it, like the data of one MC or mappings version,
+ * or a single entry of the {@link SharedOutputStore}. Files that do not belong to any unit, like the assets
+ * or the version jsons, are never deleted.
+ */
+public class CacheDirManager
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheDirManager.class);
+
+    public static final String MARKER = ".lastUsed";
+
+    /** Units used this recently may be in use by another build, and are never deleted. */
+    private static final long GRACE_MILLIS = 60 * 60 * 1000L;
+
+    /** File in the cache dir touched whenever it is trimmed by {@link #trimDaily}. */
+    public static final String LAST_TRIM = ".lastTrim";
+
+    private static final long TRIM_INTERVAL_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Marks these directories as units of the cache and records that they were just used.
+     * @param dirs directories in the cache dir
+     */
+    public static void markUsed(Collection<File> dirs)
+    {
+        long now = System.currentTimeMillis();
+        for (File dir : dirs)
+        {
+            File marker = new File(dir, MARKER);
+            try
+            {
+                if (!marker.exists())
+                {
+                    dir.mkdirs();
+                    Files.touch(marker);
+                }
+                else
+                    marker.setLastModified(now);
+            }
+            catch (IOException e)
+            {
+                LOGGER.debug("Could not mark {} as used", dir, e);
+            }
+        }
+    }
+
+    /**
+     * Finds all the units in the cache dir.
+     * @param cacheDir the FG cache dir
+     * @param sharedDir directory of the shared output store, or null
+     * @return the units, biggest first
+     */
+    public static List<Unit> scan(File cacheDir, File sharedDir)
+    {
+        List<Unit> units = new ArrayList<>();
+        scan(cacheDir, null, sharedDir, units);
+        units.removeIf(unit -> unit.files.isEmpty());
+        units.sort(Comparator.comparingLong(Unit::getSize).reversed());
+        return units;
+    }
+
+    private static void scan(File dir, Unit owner, File sharedDir, List<Unit> units)
+    {
+        File[] children = dir.listFiles();
+        if (children == null)
+            return;
+
+        File marker = new File(dir, MARKER);
+        if (marker.isFile())
+        {
+            owner = new Unit(dir, marker.lastModified());
+            units.add(owner);
+        }
+
+        for (File child : children)
+        {
+            if (child.isDirectory())
+            {
+                scan(child, owner, sharedDir, units);
+            }
+            else if (dir.getParentFile() != null && dir.getParentFile().equals(sharedDir))
+            {
+                // every entry of the shared store is its own unit
+                Unit entry = new Unit(child, child.lastModified());
+                entry.add(child);
+                units.add(entry);
+            }
+            else if (owner != null)
+            {
+                owner.add(child);
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used units until the cache fits in the budget.
+     * @param cacheDir the FG cache dir
+     * @param sharedDir directory of the shared output store, or null
+     * @param limit size budget in bytes
+     * @return the deleted units
+     */
+    public static List<Unit> trim(File cacheDir, File sharedDir, long limit)
+    {
+        List<Unit> units = scan(cacheDir, sharedDir);
+        List<Unit> deleted = new ArrayList<>();
+
+        long total = 0;
+        for (Unit unit : units)
+            total += unit.getSize();
+
+        units.sort(Comparator.comparingLong(Unit::getLastUsed));
+
+        long cutoff = System.currentTimeMillis() - GRACE_MILLIS;
+        for (Unit unit : units)
+        {
+            if (total <= limit)
+                break;
+
+            // this also keeps everything the current build marked as used
+            if (unit.getLastUsed() > cutoff)
+                continue;
+
+            LOGGER.info("Deleting {} from the cache, last used {}", unit.getRoot(), new Date(unit.getLastUsed()));
+            unit.delete();
+            total -= unit.getSize();
+            deleted.add(unit);
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Trims the cache like {@link #trim}, unless that already happened in the last day.
+     * @param cacheDir the FG cache dir
+     * @param sharedDir directory of the shared output store, or null
+     * @param limit size budget in bytes
+     * @return the deleted units, none if the cache was trimmed recently
+     */
+    public static List<Unit> trimDaily(File cacheDir, File sharedDir, long limit)
+    {
+        File lastTrim = new File(cacheDir, LAST_TRIM);
+        if (System.currentTimeMillis() - lastTrim.lastModified() < TRIM_INTERVAL_MILLIS)
+            return Collections.emptyList();
+
+        try
+        {
+            Files.touch(lastTrim);
+        }
+        catch (IOException e)
+        {
+            // it is trimmed again next time, no harm done
+        }
+
+        return trim(cacheDir, sharedDir, limit);
+    }
+
+    /**
+     * Parses sizes like 500M or 20G into bytes. Plain numbers are bytes.
+     * @param size the size
+     * @return size in bytes
+     */
+    public static long parseSize(Object size)
+    {
+        if (size instanceof Number)
+            return ((Number) size).longValue();
+
+        String str = size.toString().trim().toUpperCase();
+        if (str.endsWith("B"))
+            str = str.substring(0, str.length() - 1);
+
+        long unit = 1;
+        switch (str.isEmpty() ? ' ' : str.charAt(str.length() - 1))
+        {
+            case 'K': unit = 1L << 10; break;
+            case 'M': unit = 1L << 20; break;
+            case 'G': unit = 1L << 30; break;
+            case 'T': unit = 1L << 40; break;
+            default: return Long.parseLong(str);
+        }
+
+        return (long) (Double.parseDouble(str.substring(0, str.length() - 1).trim()) * unit);
+    }
+
+    public static class Unit
+    {
+        private final File       root;
+        private final long       lastUsed;
+        private final List<File> files = new ArrayList<>();
+        private long             size;
+
+        private Unit(File root, long lastUsed)
+        {
+            this.root = root;
+            this.lastUsed = lastUsed;
+        }
+
+        private void add(File file)
+        {
+            files.add(file);
+            size += file.length();
+        }
+
+        public File getRoot()
+        {
+            return root;
+        }
+
+        public long getLastUsed()
+        {
+            return lastUsed;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        private void delete()
+        {
+            for (File file : files)
+                file.delete();
+
+            // remove the directories that are now empty, but leave the ones of nested units
+            if (root.isDirectory())
+                deleteEmptyDirs(root);
+        }
+
+        private static boolean deleteEmptyDirs(File dir)
+        {
+            File[] children = dir.listFiles();
+            boolean empty = true;
+            if (children != null)
+            {
+                for (File child : children)
+                {
+                    if (!child.isDirectory() || !deleteEmptyDirs(child))
+                        empty = false;
+                }
+            }
+            return empty && dir.delete();
+        }
+    }
+}
@@ -23,20 +23,17 @@ package net.minecraftforge.gradle.util.caching;
 import groovy.lang.Closure;
 
 import java.io.File;
-import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import net.minecraftforge.gradle.common.Constants;
 
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.provider.Provider;
-import org.gradle.api.tasks.InputDirectory;
-import org.gradle.api.tasks.InputFile;
-import org.gradle.api.tasks.InputFiles;
-import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.util.PatternSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,6 +45,15 @@ class CacheUtil
 {
     public static final Logger LOGGER = LoggerFactory.getLogger(CacheUtil.class);
 
+    /** Project property that turns off hashing the files of an input concurrently, when set to false. */
+    private static final String PARALLEL_FLAG = "parallelHashing";
+
+    /**
+     * Input hashes calculated by the {@link CacheCheckSpec} of a task, so the {@link WriteCacheAction}s
+     * of the same run do not have to read all of the inputs again.
+     */
+    private static final Map<ICachableTask, List<String>> INPUT_HASHES = Collections.synchronizedMap(new WeakHashMap<>());
+
     protected static File getHashFile(File file)
     {
         if (file.isDirectory())
@@ -56,55 +62,108 @@ class CacheUtil
             return new File(file.getParentFile(), file.getName() + ".md5");
     }
 
-    @SuppressWarnings("rawtypes")
-    protected static String getHashes(Annotated output, List<Annotated> inputs, ICachableTask task) throws NoSuchMethodException, NoSuchFieldException, IllegalArgumentException, IllegalAccessException, InvocationTargetException
+    /**
+     * Drops the input hashes remembered for this task, so the next call to getHashes reads the inputs again.
+     * @param task the task about to be checked
+     */
+    protected static void forgetInputHashes(ICachableTask task)
+    {
+        INPUT_HASHES.remove(task);
+    }
+
+    protected static String getHashes(File output, List<Annotated> inputs, ICachableTask task) throws InvocationTargetException
     {
+        List<String> inputHashes = getRememberedInputHashes(inputs, task);
+
         // TODO: CONVERT TO CacheFile
-        List<String> hashes = Lists.newArrayListWithCapacity(inputs.size() + 5);
+        List<String> hashes = Lists.newArrayListWithCapacity(inputHashes.size() + 5);
+
+        hashes.addAll(Constants.hashAll(output, isParallel(task)));
+        hashes.addAll(inputHashes);
+
+        FileHashIndex.save();
+
+        return Joiner.on(Constants.NEWLINE).join(hashes);
+    }
+
+    /**
+     * The key of an output in the {@link SharedOutputStore}. It depends on the inputs only, so it is known before the task runs.
+     * @param output the cached output
+     * @param inputs inputs of the task
+     * @param task the task
+     * @return hash of the task type, plugin version, output name and input hashes
+     * @throws InvocationTargetException if an input getter throws
+     */
+    protected static String getSharedKey(Annotated output, List<Annotated> inputs, ICachableTask task) throws InvocationTargetException
+    {
+        List<String> inputHashes = getRememberedInputHashes(inputs, task);
+
+        // gradle generates a decorated subclass of every task type
+        Class<?> type = task.getClass();
+        while (type.getName().endsWith("_Decorated"))
+            type = type.getSuperclass();
 
-        hashes.addAll(Constants.hashAll(task.getProject().file(output.getValue(task))));
+        // a different version of the plugin may produce a different output from the same inputs
+        String version = CacheUtil.class.getPackage().getImplementationVersion();
+
+        return Constants.hash(type.getName() + "@" + version + "." + output.getName() + Constants.NEWLINE + Joiner.on(Constants.NEWLINE).join(inputHashes));
+    }
+
+    private static List<String> getRememberedInputHashes(List<Annotated> inputs, ICachableTask task) throws InvocationTargetException
+    {
+        // the inputs do not change while the task runs, only the output does.
+        List<String> inputHashes = INPUT_HASHES.get(task);
+        if (inputHashes == null)
+        {
+            inputHashes = getInputHashes(inputs, task);
+            INPUT_HASHES.put(task, inputHashes);
+        }
+        return inputHashes;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static List<String> getInputHashes(List<Annotated> inputs, ICachableTask task) throws InvocationTargetException
+    {
+        List<String> hashes = Lists.newArrayListWithCapacity(inputs.size());
+        boolean parallel = isParallel(task);
 
         for (Annotated input : inputs)
         {
-            AnnotatedElement m = input.getElement();
             Object val = input.getValue(task);
 
-            if (val == null && m.isAnnotationPresent(Optional.class))
+            if (val == null && input.isOptional())
             {
                 hashes.add("null");
             }
-            else if (m.isAnnotationPresent(InputFile.class))
+            else if (input.getKind() == Annotated.Kind.FILE)
             {
-                hashes.add(Constants.hash(task.getProject().file(input.getValue(task))));
-                LOGGER.debug("{} {}", Constants.hash(task.getProject().file(input.getValue(task))), input.getValue(task));
+                String hash = Constants.hash(task.getProject().file(val));
+                hashes.add(hash);
+                LOGGER.debug("{} {}", hash, val);
             }
-            else if (m.isAnnotationPresent(InputDirectory.class))
+            else if (input.getKind() == Annotated.Kind.DIRECTORY)
             {
-                File dir = (File) input.getValue(task);
-                hashes.addAll(Constants.hashAll(dir));
+                File dir = (File) val;
+                hashes.addAll(Constants.hashAll(dir, parallel));
             }
-            else if (m.isAnnotationPresent(InputFiles.class))
+            else if (input.getKind() == Annotated.Kind.FILES)
             {
-                FileCollection files = (FileCollection) input.getValue(task);
-                for (File file : files.getFiles())
-                {
-                    String hash = Constants.hash(file);
-                    hashes.add(hash);
-                    LOGGER.debug("{} {}", hash, input.getValue(task));
-                }
+                List<File> files = Lists.newArrayList(((FileCollection) val).getFiles());
+                logHashes(files, Constants.hashAll(files, parallel), hashes);
             }
             else
             // just @Input
             {
-                Object obj = input.getValue(task);
+                Object obj = val;
 
                 while (obj instanceof Closure)
                     obj = ((Closure) obj).call();
 
                 if (obj instanceof String)
                 {
-                    hashes.add(Constants.hash((String) obj));
-                    LOGGER.debug("{} {}", Constants.hash((String) obj), obj);
+                    String hash = Constants.hash((String) obj);
+                    hashes.add(hash);
+                    LOGGER.debug("{} {}", hash, obj);
                 }
                 else if (obj instanceof File)
                 {
@@ -113,16 +172,13 @@ class CacheUtil
                     {
                         List<File> files = Arrays.asList(file.listFiles());
                         Collections.sort(files);
-                        for (File i : files)
-                        {
-                            hashes.add(Constants.hash(i));
-                            LOGGER.debug("{} {}", Constants.hash(i), i);
-                        }
+                        logHashes(files, Constants.hashAll(files, parallel), hashes);
                     }
                     else
                     {
-                        hashes.add(Constants.hash(file));
-                        LOGGER.debug("{} {}", Constants.hash(file), file);
+                        String hash = Constants.hash(file);
+                        hashes.add(hash);
+                        LOGGER.debug("{} {}", hash, file);
                     }
                 }
                 else if (obj instanceof PatternSet)
@@ -143,6 +199,21 @@ class CacheUtil
             }
         }
 
-        return Joiner.on(Constants.NEWLINE).join(hashes);
+        return hashes;
+    }
+
+    private static void logHashes(List<File> files, List<String> fileHashes, List<String> into)
+    {
+        for (int i = 0; i < files.size(); i++)
+        {
+            LOGGER.debug("{} {}", fileHashes.get(i), files.get(i));
+        }
+
+        into.addAll(fileHashes);
+    }
+
+    private static boolean isParallel(ICachableTask task)
+    {
+        return !task.getProject().hasProperty(PARALLEL_FLAG) || Boolean.parseBoolean(task.getProject().property(PARALLEL_FLAG).toString());
     }
 }
@@ -30,6 +30,7 @@ public abstract class CachedTask extends DefaultTask implements ICachableTask
 {
     private boolean doesCache = true;
     private boolean cacheSet  = false;
+    private Boolean shareOutputs;
 
     public CachedTask()
     {
@@ -57,6 +58,25 @@ public abstract class CachedTask extends DefaultTask implements ICachableTask
         this.doesCache = cacheStuff;
     }
 
+    protected boolean defaultShareOutputs()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean sharesOutputs()
+    {
+        if (shareOutputs != null)
+            return shareOutputs;
+        else
+            return defaultShareOutputs();
+    }
+
+    public void setShareOutputs(boolean shareOutputs)
+    {
+        this.shareOutputs = shareOutputs;
+    }
+
     @Override
     public boolean cacheClassHash()
     {
@@ -0,0 +1,259 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.caching;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the hashes of files by their canonical path, length and last modified time,
+ * so files that did not change since they were last hashed do not need to be read again.
+ * The index is saved to a small binary file in the FG cache dir and shared across daemons and projects.
+ */
+public class FileHashIndex
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileHashIndex.class);
+
+    private static final int MAGIC   = 0x46474849; // FGHI
+    private static final int VERSION = 2;
+
+    /**
+     * Files modified this recently are not remembered, as another write in the same
+     * timestamp granularity would not change their length or last modified time.
+     */
+    private static final long RACY_MILLIS = 2000;
+
+    private static final Map<String, Entry> ENTRIES = new ConcurrentHashMap<>();
+    private static File    indexFile;
+    private static boolean loaded;
+    private static volatile boolean dirty;
+
+    /**
+     * Sets the file the index is loaded from and saved to. Without one, the index only lives in ram.
+     * @param file index file in the cache dir
+     */
+    public static synchronized void setIndexFile(File file)
+    {
+        if (file.equals(indexFile))
+            return;
+
+        indexFile = file;
+        loaded = false;
+    }
+
+    /**
+     * @param file file to look up
+     * @return the remembered hash of the file, or null if it was not hashed before or changed since.
+     */
+    public static String get(File file)
+    {
+        load();
+
+        String key = key(file);
+        if (key == null)
+            return null;
+
+        Entry entry = ENTRIES.get(key);
+        if (entry == null || entry.length != file.length() || entry.lastModified != file.lastModified())
+            return null;
+
+        return entry.hash;
+    }
+
+    /**
+     * Remembers the hash of this file as of its current length and last modified time.
+     * @param file file that was hashed
+     * @param hash hash of the file
+     */
+    public static void put(File file, String hash)
+    {
+        if (hash == null)
+            return;
+
+        String key = key(file);
+        if (key == null)
+            return;
+
+        long lastModified = file.lastModified();
+        if (System.currentTimeMillis() - lastModified < RACY_MILLIS)
+            return;
+
+        ENTRIES.put(key, new Entry(file.length(), lastModified, hash));
+        dirty = true;
+    }
+
+    /**
+     * Writes the index to the index file, if anything was added since it was last saved.
+     * Other daemons save to the same file, so this is done under a lock on it and
+     * their entries are merged in first.
+     */
+    public static synchronized void save()
+    {
+        if (!dirty || indexFile == null)
+            return;
+
+        dirty = false;
+
+        File dir = indexFile.getParentFile();
+        File lockFile = new File(dir, indexFile.getName() + ".lock");
+        Path temp = null;
+        try
+        {
+            dir.mkdirs();
+
+            try (FileChannel lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock lock = lockChannel.lock())
+            {
+                // whatever another daemon saved since this one loaded the index
+                read(indexFile);
+
+                temp = Files.createTempFile(dir.toPath(), indexFile.getName(), ".tmp");
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))
+                {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeInt(ENTRIES.size());
+
+                    for (Map.Entry<String, Entry> e : ENTRIES.entrySet())
+                    {
+                        out.writeUTF(e.getKey());
+                        out.writeLong(e.getValue().length);
+                        out.writeLong(e.getValue().lastModified);
+                        out.writeUTF(e.getValue().hash);
+                    }
+                }
+
+                try
+                {
+                    Files.move(temp, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                catch (AtomicMoveNotSupportedException e)
+                {
+                    Files.move(temp, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                temp = null;
+            }
+        }
+        catch (IOException | OverlappingFileLockException e)
+        {
+            // another copy of the plugin in this daemon holds the lock, or the dir is not writable
+            LOGGER.warn("Could not save the file hash index to {}", indexFile, e);
+        }
+        finally
+        {
+            if (temp != null)
+                temp.toFile().delete();
+        }
+    }
+
+    private static synchronized void load()
+    {
+        if (loaded)
+            return;
+
+        loaded = true;
+
+        if (indexFile != null)
+            read(indexFile);
+    }
+
+    private static void read(File file)
+    {
+        if (!file.isFile())
+            return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return;
+
+            int size = in.readInt();
+            for (int i = 0; i < size; i++)
+            {
+                String path = in.readUTF();
+                Entry entry = new Entry(in.readLong(), in.readLong(), in.readUTF());
+
+                // newer entries from this daemon win, and files that are gone are forgotten.
+                if (new File(path).isFile())
+                    ENTRIES.putIfAbsent(path, entry);
+                else
+                    dirty = true;
+            }
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("Could not read the file hash index {}, it will be rebuilt", file, e);
+        }
+    }
+
+    /**
+     * Forgets everything in ram, so the next lookup loads the index file again. Used by tests.
+     */
+    static synchronized void reset()
+    {
+        ENTRIES.clear();
+        loaded = false;
+        dirty = false;
+    }
+
+    private static String key(File file)
+    {
+        try
+        {
+            return file.getCanonicalPath();
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    private static final class Entry
+    {
+        final long   length;
+        final long   lastModified;
+        final String hash;
+
+        Entry(long length, long lastModified, String hash)
+        {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+}
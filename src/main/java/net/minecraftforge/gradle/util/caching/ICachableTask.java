@@ -36,4 +36,14 @@ public interface ICachableTask extends Task
      * @return should cache class hash
      */
     boolean cacheClassHash();
+
+    /**
+     * Whether or not the cached outputs of this task may be taken from, and added to, the shared output store
+     * in the FG cache dir, so other projects running this task on the same inputs can reuse them.
+     * @return TRUE if the cached outputs can be shared
+     */
+    default boolean sharesOutputs()
+    {
+        return false;
+    }
 }
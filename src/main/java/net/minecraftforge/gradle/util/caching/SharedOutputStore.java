@@ -0,0 +1,126 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.caching;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import net.minecraftforge.gradle.common.Constants;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A content addressed store of cached task outputs in the FG cache dir, keyed by the hash of the task's inputs.
+ * Workspaces that run the same task on the same inputs can take the output from here instead of producing it again.
+ * Entries are always copied in and out, never linked, so a task writing over its output in place can not damage the store.
+ */
+public class SharedOutputStore
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedOutputStore.class);
+
+    private static File directory;
+
+    /**
+     * Sets where the store keeps its entries. Without a directory, nothing is shared.
+     * @param dir directory in the cache dir
+     */
+    public static synchronized void setDirectory(File dir)
+    {
+        directory = dir;
+    }
+
+    public static synchronized File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Copies the stored output for this key to the given file.
+     * @param key hash of the task inputs
+     * @param out output file of the task
+     * @return TRUE if an entry was found and copied
+     */
+    public static boolean retrieve(String key, File out)
+    {
+        File entry = getEntry(key);
+        if (entry == null || !entry.isFile())
+            return false;
+
+        try
+        {
+            Constants.copyFile(entry, out);
+            entry.setLastModified(System.currentTimeMillis());
+            return true;
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("Could not copy {} from the shared cache", out, e);
+            out.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Copies the output into the store under this key, unless there is already an entry for it.
+     * @param key hash of the task inputs
+     * @param out output file of the task
+     */
+    public static void publish(String key, File out)
+    {
+        File entry = getEntry(key);
+        if (entry == null || entry.isFile() || !out.isFile())
+            return;
+
+        File temp = new File(entry.getParentFile(), entry.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try
+        {
+            Constants.copyFile(out, temp);
+
+            try
+            {
+                Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException e)
+        {
+            // another build probably published the same entry first
+            LOGGER.debug("Could not add {} to the shared cache", out, e);
+            temp.delete();
+        }
+    }
+
+    private static File getEntry(String key)
+    {
+        File dir = getDirectory();
+        if (dir == null || key == null)
+            return null;
+
+        return new File(dir, key.substring(0, 2) + "/" + key);
+    }
+}
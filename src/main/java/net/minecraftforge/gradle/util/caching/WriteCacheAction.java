@@ -60,7 +60,10 @@ public class WriteCacheAction implements Action<Task>
             if (outFile.exists())
             {
                 File hashFile = CacheUtil.getHashFile(outFile);
-                Files.asCharSink(hashFile, Constants.CHARSET).write(CacheUtil.getHashes(annot, inputs, task));
+                Files.asCharSink(hashFile, Constants.CHARSET).write(CacheUtil.getHashes(outFile, inputs, task));
+
+                if (task.sharesOutputs())
+                    SharedOutputStore.publish(CacheUtil.getSharedKey(annot, inputs, task), outFile);
             }
         }
         // error? spit it and do the task.
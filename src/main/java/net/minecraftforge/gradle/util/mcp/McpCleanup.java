@@ -252,68 +252,366 @@ public class McpCleanup
     // 5.8119...F to ((float)Math.PI * 185F / 100F)
     public static final Pattern CLEANUP_185pi100F = Pattern.compile("0\\.8119[0-9]*[Ff]");
 
+    // the start of each constant the numbers above are turned back into, with the replacement of its double
+    // and float literal. 185pi100F has always matched 0.8119 rather than 5.8119, kept so the output does not change
+    private static final String[][] CLEANUP_CONSTANTS = {
+            { "3.1415", "Math.PI", "(float)Math.PI" },
+            { "6.2831", "(Math.PI * 2D)", "((float)Math.PI * 2F)" },
+            { "1.5707", "(Math.PI / 2D)", "((float)Math.PI / 2F)" },
+            { "4.7123", "(Math.PI * 3D / 2D)", "((float)Math.PI * 3F / 2F)" },
+            { "0.7853", "(Math.PI / 4D)", "((float)Math.PI / 4F)" },
+            { "0.6283", "(Math.PI / 5D)", "((float)Math.PI / 5F)" },
+            { "57.295", "(180D / Math.PI)", "(180F / (float)Math.PI)" },
+            { "0.6981", "(Math.PI * 2D / 9D)", "((float)Math.PI * 2F / 9F)" },
+            { "0.3141", "(Math.PI / 10D)", "((float)Math.PI / 10F)" },
+            { "1.2566", "(Math.PI * 2D / 5D)", "((float)Math.PI * 2F / 5F)" },
+            { "0.21991", "(Math.PI * 7D / 100D)", "((float)Math.PI * 7F / 100F)" },
+            { "5.8119", "(Math.PI * 185D / 100D)", null },
+            { "0.8119", null, "((float)Math.PI * 185F / 100F)" },
+    };
+
+    private static final ThreadLocal<StringBuilder> CLEANUP_BUFFER = new ThreadLocal<StringBuilder>()
+    {
+        @Override
+        protected StringBuilder initialValue()
+        {
+            return new StringBuilder();
+        }
+    };
+
+    /**
+     * Applies the CLEANUP_ regexes above, in their order, in a single scan over the text instead of a
+     * replaceAll for each of them. Only spaces, tabs and line breaks made of \r and \n are expected as
+     * whitespace, which is all the decompiler writes. GL comments can join lines, so sources that still
+     * have a block comment get their literals rewritten in a second scan after the lines are cleaned.
+     *
+     * @param text Full file as a string
+     * @return Full file as a string, cleaned up.
+     */
     public static String cleanup(String text)
     {
-        // simple replacements
-        text = CLEANUP_header.matcher(text).replaceAll("");
-        text = CLEANUP_footer.matcher(text).replaceAll("");
-        text = CLEANUP_trailing.matcher(text).replaceAll("");
-        text = CLEANUP_newlines.matcher(text).replaceAll(Constants.NEWLINE);
-        text = CLEANUP_ifstarts.matcher(text).replaceAll("$1" + Constants.NEWLINE + "$2");
-        text = CLEANUP_blockstarts.matcher(text).replaceAll("");
-        text = CLEANUP_blockends.matcher(text).replaceAll("");
-        text = CLEANUP_gl.matcher(text).replaceAll("");
-        text = CLEANUP_maxD.matcher(text).replaceAll("Double.MAX_VALUE");
-
-        // unicode chars
+        return cleanup(text, Constants.NEWLINE);
+    }
+
+    static String cleanup(String text, String newline)
+    {
+        StringBuilder out = CLEANUP_BUFFER.get();
+        out.setLength(0);
+
+        boolean comments = text.contains("/*");
+        cleanupLines(text, newline, !comments, out);
+
+        if (comments)
+        {
+            String lines = out.toString();
+            out.setLength(0);
+            cleanupTokens(lines, 0, lines.length(), true, out);
+        }
+
+        String result = out.toString();
+        out.setLength(0);
+        return result;
+    }
+
+    private static void cleanupLines(String text, String newline, boolean tokens, StringBuilder out)
+    {
+        // header and footer
+        int start = 0;
+        int end = text.length();
+        while (start < end && isSpace(text.charAt(start)))
+        {
+            start++;
+        }
+        while (end > start && isSpace(text.charAt(end - 1)))
         {
-            Matcher matcher = CLEANUP_unicode.matcher(text);
-            int val;
-            StringBuffer buffer = new StringBuffer(text.length());
+            end--;
+        }
+
+        StringBuilder gap = new StringBuilder();
+        boolean ifConsumed = false;
+        int lineStart = start;
+        while (lineStart < end)
+        {
+            int lineBreak = lineStart;
+            while (lineBreak < end && !isLineBreak(text.charAt(lineBreak)))
+            {
+                lineBreak++;
+            }
+
+            // trailing whitespace
+            int lineEnd = lineBreak;
+            while (isSpaceOrTab(text.charAt(lineEnd - 1)))
+            {
+                lineEnd--;
+            }
 
-            while (matcher.find())
+            if (tokens)
             {
-                val = Integer.parseInt(matcher.group(1), 16);
+                cleanupTokens(text, lineStart, lineEnd, false, out);
+            }
+            else
+            {
+                out.append(text, lineStart, lineEnd);
+            }
+
+            if (lineBreak == end)
+            {
+                break;
+            }
+
+            // the line breaks up to the next line, blank lines are nothing but line breaks once their spaces are gone
+            gap.setLength(0);
+            int lastBreak = lineBreak;
+            int next = lineBreak;
+            for (char c; isLineBreak(c = text.charAt(next)) || isSpaceOrTab(c); next++)
+            {
+                if (isLineBreak(c))
+                {
+                    gap.append(c);
+                    lastBreak = next;
+                }
+            }
+            int nextStart = lastBreak + 1;
+
+            // newlines, two or more line breaks after the first one become a single one
+            int first = gap.length() > 1 && gap.charAt(0) == '\r' && gap.charAt(1) == '\n' ? 2 : 1;
+            if (gap.length() - first >= 2)
+            {
+                gap.setLength(first);
+                gap.append(newline);
+            }
+
+            // ifstarts, an if right below a line of code gets a blank line. that if can't be the line above the next one
+            boolean ifStart = !ifConsumed
+                    && isSingleLineBreak(gap)
+                    && next > nextStart
+                    && text.startsWith("if", next)
+                    && isCodeLine(text, lineStart, lineEnd);
+            if (ifStart)
+            {
+                gap.append(newline);
+            }
+            ifConsumed = ifStart;
+
+            // blockstarts and blockends keep only the last line break
+            char last = text.charAt(lineEnd - 1);
+            if (gap.length() > 1 && (last == '{' || (last == ';' || last == '}') && text.charAt(next) == '}'))
+            {
+                gap.delete(0, gap.length() - 1);
+            }
+
+            out.append(gap);
+            lineStart = nextStart;
+        }
+    }
+
+    private static void cleanupTokens(String text, int start, int end, boolean comments, StringBuilder out)
+    {
+        int i = start;
+        while (i < end)
+        {
+            char c = text.charAt(i);
+            int matchEnd;
+
+            if (comments && c == '/' && (matchEnd = matchGlComment(text, i, end)) >= 0)
+            {
+                // gl, with the whitespace around it
+                int trim = out.length();
+                while (trim > 0 && isSpace(out.charAt(trim - 1)))
+                {
+                    trim--;
+                }
+                out.setLength(trim);
+
+                i = matchEnd;
+                while (i < end && isSpace(text.charAt(i)))
+                {
+                    i++;
+                }
+                continue;
+            }
+
+            if (c == '\'' && (matchEnd = matchUnicode(text, i, end)) >= 0)
+            {
+                int val = Integer.parseInt(text.substring(i + 3, i + 7), 16);
                 // work around the replace('\u00a7', '$') call in MinecraftServer and a couple of '\u0000'
                 if (val > 255)
                 {
-                    matcher.appendReplacement(buffer, Matcher.quoteReplacement("" + val));
+                    out.append(val);
+                }
+                else
+                {
+                    out.append(text, i, matchEnd);
+                }
+                i = matchEnd;
+                continue;
+            }
+
+            // charval.. its stupid.
+            if (c == 'C' && (matchEnd = matchCharValueOf(text, i, end)) >= 0)
+            {
+                out.append(text, matchEnd - 4, matchEnd - 1);
+                i = matchEnd;
+                continue;
+            }
+
+            if (c >= '0' && c <= '9')
+            {
+                if (c == '1' && (matchEnd = matchMaxDouble(text, i, end)) >= 0)
+                {
+                    out.append("Double.MAX_VALUE");
+                    i = matchEnd;
+                    continue;
+                }
+
+                //         pi?   true
+                String replacement = null;
+                matchEnd = -1;
+                for (String[] constant : CLEANUP_CONSTANTS)
+                {
+                    if (text.startsWith(constant[0], i))
+                    {
+                        matchEnd = skipDigits(text, i + constant[0].length(), end);
+                        char suffix = matchEnd < end ? text.charAt(matchEnd) : 0;
+                        replacement = suffix == 'D' || suffix == 'd' ? constant[1] : suffix == 'F' || suffix == 'f' ? constant[2] : null;
+                        break;
+                    }
+                }
+                if (replacement != null)
+                {
+                    out.append(replacement);
+                    i = matchEnd + 1;
+                    continue;
                 }
             }
-            matcher.appendTail(buffer);
-            text = buffer.toString();
+
+            out.append(c);
+            i++;
+        }
+    }
+
+    // \s*/\*\s*GL_[^*]+\*/ from the slash, the leading whitespace is taken off the output
+    private static int matchGlComment(String text, int i, int end)
+    {
+        if (i + 1 >= end || text.charAt(i + 1) != '*')
+        {
+            return -1;
+        }
+        i += 2;
+        while (i < end && isSpace(text.charAt(i)))
+        {
+            i++;
+        }
+        if (!text.startsWith("GL_", i))
+        {
+            return -1;
+        }
+        i += 3;
+        int close = i;
+        while (close < end && text.charAt(close) != '*')
+        {
+            close++;
         }
+        if (close == i || close + 1 >= end || text.charAt(close + 1) != '/')
+        {
+            return -1;
+        }
+        return close + 2;
+    }
 
-        // charval.. its stupid.
-        text = CLEANUP_charval.matcher(text).replaceAll("$1"); // TESTING NEEDED
-
-        //         pi?   true
-        text = CLEANUP_piD.matcher(text).replaceAll("Math.PI");
-        text = CLEANUP_piF.matcher(text).replaceAll("(float)Math.PI");
-        text = CLEANUP_2piD.matcher(text).replaceAll("(Math.PI * 2D)");
-        text = CLEANUP_2piF.matcher(text).replaceAll("((float)Math.PI * 2F)");
-        text = CLEANUP_pi2D.matcher(text).replaceAll("(Math.PI / 2D)");
-        text = CLEANUP_pi2F.matcher(text).replaceAll("((float)Math.PI / 2F)");
-        text = CLEANUP_3pi2D.matcher(text).replaceAll("(Math.PI * 3D / 2D)");
-        text = CLEANUP_3pi2F.matcher(text).replaceAll("((float)Math.PI * 3F / 2F)");
-        text = CLEANUP_pi4D.matcher(text).replaceAll("(Math.PI / 4D)");
-        text = CLEANUP_pi4F.matcher(text).replaceAll("((float)Math.PI / 4F)");
-        text = CLEANUP_pi5D.matcher(text).replaceAll("(Math.PI / 5D)");
-        text = CLEANUP_pi5F.matcher(text).replaceAll("((float)Math.PI / 5F)");
-        text = CLEANUP_180piD.matcher(text).replaceAll("(180D / Math.PI)");
-        text = CLEANUP_180piF.matcher(text).replaceAll("(180F / (float)Math.PI)");
-        text = CLEANUP_2pi9D.matcher(text).replaceAll("(Math.PI * 2D / 9D)");
-        text = CLEANUP_2pi9F.matcher(text).replaceAll("((float)Math.PI * 2F / 9F)");
-        text = CLEANUP_pi10D.matcher(text).replaceAll("(Math.PI / 10D)");
-        text = CLEANUP_pi10F.matcher(text).replaceAll("((float)Math.PI / 10F)");
-        text = CLEANUP_2pi5D.matcher(text).replaceAll("(Math.PI * 2D / 5D)");
-        text = CLEANUP_2pi5F.matcher(text).replaceAll("((float)Math.PI * 2F / 5F)");
-        text = CLEANUP_7pi100D.matcher(text).replaceAll("(Math.PI * 7D / 100D)");
-        text = CLEANUP_7pi100F.matcher(text).replaceAll("((float)Math.PI * 7F / 100F)");
-        text = CLEANUP_185pi100D.matcher(text).replaceAll("(Math.PI * 185D / 100D)");
-        text = CLEANUP_185pi100F.matcher(text).replaceAll("((float)Math.PI * 185F / 100F)");
+    // '\\u([0-9a-fA-F]{4})'
+    private static int matchUnicode(String text, int i, int end)
+    {
+        if (i + 8 > end || text.charAt(i + 1) != '\\' || text.charAt(i + 2) != 'u' || text.charAt(i + 7) != '\'')
+        {
+            return -1;
+        }
+        for (int j = i + 3; j < i + 7; j++)
+        {
+            char c = text.charAt(j);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f') && (c < 'A' || c > 'F'))
+            {
+                return -1;
+            }
+        }
+        return i + 8;
+    }
 
-        return text;
+    // Character\.valueOf\(('.')\)
+    private static int matchCharValueOf(String text, int i, int end)
+    {
+        final String prefix = "Character.valueOf('";
+        int quote = i + prefix.length();
+        if (quote + 3 > end || !text.startsWith(prefix, i) || text.charAt(quote + 1) != '\'' || text.charAt(quote + 2) != ')')
+        {
+            return -1;
+        }
+        char c = text.charAt(quote);
+        if (isLineBreak(c) || c == '\u0085' || c == '\u2028' || c == '\u2029')
+        {
+            return -1;
+        }
+        return quote + 3;
+    }
+
+    // 1\.7976[0-9]*[Ee]\+308[Dd]
+    private static int matchMaxDouble(String text, int i, int end)
+    {
+        if (!text.startsWith("1.7976", i))
+        {
+            return -1;
+        }
+        i = skipDigits(text, i + 6, end);
+        if (i + 6 > end || (text.charAt(i) != 'E' && text.charAt(i) != 'e') || !text.startsWith("+308", i + 1))
+        {
+            return -1;
+        }
+        char suffix = text.charAt(i + 5);
+        return suffix == 'D' || suffix == 'd' ? i + 6 : -1;
+    }
+
+    private static int skipDigits(String text, int i, int end)
+    {
+        while (i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9')
+        {
+            i++;
+        }
+        return i;
+    }
+
+    // a line that isn't only whitespace and braces
+    private static boolean isCodeLine(String text, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            char c = text.charAt(i);
+            if (!isSpace(c) && c != '{' && c != '}')
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSingleLineBreak(CharSequence gap)
+    {
+        return gap.length() == 1 || gap.length() == 2 && gap.charAt(0) == '\r' && gap.charAt(1) == '\n';
+    }
+
+    // \s
+    private static boolean isSpace(char c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+
+    private static boolean isSpaceOrTab(char c)
+    {
+        return c == ' ' || c == '\t';
+    }
+
+    private static boolean isLineBreak(char c)
+    {
+        return c == '\n' || c == '\r';
     }
 
     /**
@@ -0,0 +1,302 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Reads a zip file from its central directory, and gives access to the still compressed data of its entries,
+ * so they can be copied to a {@link ZipWriter} without inflating and deflating them again.
+ * <p>
+ * Reads are positional, so one instance may be used from several threads at once.
+ * Zip64 archives and encrypted entries are not supported.
+ */
+public class RawZipFile implements Closeable
+{
+    static final int LOCAL_HEADER      = 0x04034b50;
+    static final int CENTRAL_HEADER    = 0x02014b50;
+    static final int END_OF_CENTRAL    = 0x06054b50;
+    static final int DATA_DESCRIPTOR   = 0x08074b50;
+
+    static final int LOCAL_HEADER_SIZE = 30;
+    private static final int END_SIZE  = 22;
+
+    private final File        file;
+    private final FileChannel channel;
+    private final List<Entry> entries;
+
+    public RawZipFile(File file) throws IOException
+    {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try
+        {
+            this.entries = Collections.unmodifiableList(readCentralDirectory());
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the entries in the order of the central directory
+     */
+    public List<Entry> getEntries()
+    {
+        return entries;
+    }
+
+    /**
+     * Reads and inflates the contents of the entry.
+     * @param entry an entry of this file
+     * @return the uncompressed contents
+     * @throws IOException if the data could not be read or is not valid
+     */
+    public byte[] getBytes(Entry entry) throws IOException
+    {
+        byte[] raw = getRawBytes(entry);
+        if (entry.method == ZipEntry.STORED)
+            return raw;
+
+        Inflater inflater = new Inflater(true);
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(raw), inflater))
+        {
+            byte[] data = new byte[(int) entry.size];
+            ByteStreams.readFully(in, data);
+            return data;
+        }
+        catch (EOFException e)
+        {
+            throw new ZipException("Entry " + entry.name + " in " + file + " is shorter than its recorded size");
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Reads the data of the entry as it is stored in the file.
+     * @param entry an entry of this file
+     * @return the compressed contents
+     * @throws IOException if the data could not be read
+     */
+    public byte[] getRawBytes(Entry entry) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate((int) entry.compressedSize);
+        readFully(buf, getDataOffset(entry));
+        return buf.array();
+    }
+
+    /**
+     * Copies the data of the entry as it is stored in the file.
+     * @param entry an entry of this file
+     * @param out stream to copy to
+     * @throws IOException if the data could not be read or written
+     */
+    void copyRaw(Entry entry, OutputStream out) throws IOException
+    {
+        long pos = getDataOffset(entry);
+        long remaining = entry.compressedSize;
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(remaining, 64 * 1024));
+        while (remaining > 0)
+        {
+            buf.clear();
+            buf.limit((int) Math.min(remaining, buf.capacity()));
+            readFully(buf, pos);
+            out.write(buf.array(), 0, buf.limit());
+            pos += buf.limit();
+            remaining -= buf.limit();
+        }
+    }
+
+    private long getDataOffset(Entry entry) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(header, entry.localHeaderOffset);
+        if (header.getInt(0) != LOCAL_HEADER)
+            throw new ZipException("Bad local header for " + entry.name + " in " + file);
+
+        // the extra field of the local header does not need to match the central one
+        return entry.localHeaderOffset + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException
+    {
+        // the end record is followed by a comment of up to 64k
+        long size = channel.size();
+        int tail = (int) Math.min(size, END_SIZE + 0xFFFF);
+        ByteBuffer buf = ByteBuffer.allocate(tail).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(buf, size - tail);
+
+        int end = -1;
+        for (int i = tail - END_SIZE; i >= 0; i--)
+        {
+            if (buf.getInt(i) == END_OF_CENTRAL)
+            {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0)
+            throw new ZipException("Not a zip file: " + file);
+
+        int count = buf.getShort(end + 10) & 0xFFFF;
+        long cdSize = buf.getInt(end + 12) & 0xFFFFFFFFL;
+        long cdOffset = buf.getInt(end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || cdSize == 0xFFFFFFFFL || cdOffset == 0xFFFFFFFFL)
+            throw new ZipException("Zip64 files are not supported: " + file);
+
+        ByteBuffer cd = ByteBuffer.allocate((int) cdSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(cd, cdOffset);
+        cd.flip();
+
+        List<Entry> ret = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            if (cd.getInt() != CENTRAL_HEADER)
+                throw new ZipException("Bad central directory in " + file);
+
+            cd.position(cd.position() + 4); // versions
+            int flags = cd.getShort() & 0xFFFF;
+            int method = cd.getShort() & 0xFFFF;
+            int dosTime = cd.getInt();
+            int crc = cd.getInt();
+            long compressedSize = cd.getInt() & 0xFFFFFFFFL;
+            long uncompressedSize = cd.getInt() & 0xFFFFFFFFL;
+            int nameLen = cd.getShort() & 0xFFFF;
+            int extraLen = cd.getShort() & 0xFFFF;
+            int commentLen = cd.getShort() & 0xFFFF;
+            cd.position(cd.position() + 8); // disk, internal and external attributes
+            long offset = cd.getInt() & 0xFFFFFFFFL;
+
+            byte[] name = new byte[nameLen];
+            cd.get(name);
+            cd.position(cd.position() + extraLen + commentLen);
+
+            if ((flags & 1) != 0)
+                throw new ZipException("Encrypted entries are not supported: " + file);
+            if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED)
+                throw new ZipException("Unsupported compression method " + method + " in " + file);
+
+            // names are UTF-8 in every jar we deal with, flagged or not
+            ret.add(new Entry(new String(name, StandardCharsets.UTF_8), method, dosTime, crc, compressedSize, uncompressedSize, offset));
+        }
+        return ret;
+    }
+
+    private void readFully(ByteBuffer buf, long pos) throws IOException
+    {
+        while (buf.hasRemaining())
+        {
+            int read = channel.read(buf, pos);
+            if (read < 0)
+                throw new EOFException("Unexpected end of " + file);
+            pos += read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    public static class Entry
+    {
+        private final String name;
+        final int            method;
+        final int            dosTime;
+        final int            crc;
+        final long           compressedSize;
+        private final long   size;
+        private final long   localHeaderOffset;
+
+        private Entry(String name, int method, int dosTime, int crc, long compressedSize, long size, long localHeaderOffset)
+        {
+            this.name = name;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public boolean isDirectory()
+        {
+            return name.endsWith("/");
+        }
+
+        public int getMethod()
+        {
+            return method;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public long getCompressedSize()
+        {
+            return compressedSize;
+        }
+
+        public long getCrc()
+        {
+            return crc & 0xFFFFFFFFL;
+        }
+
+        @Override
+        public String toString()
+        {
+            return name;
+        }
+    }
+}
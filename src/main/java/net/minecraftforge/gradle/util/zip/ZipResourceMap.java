@@ -0,0 +1,217 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.zip;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A map of entry name to contents, where entries of a {@link RawZipFile} are only referenced
+ * and inflated every time they are asked for, instead of being held in memory.
+ * <p>
+ * Contents that are put in the map are held in memory as usual. The zip must stay open as long as the map is used.
+ * To replace contents without inflating the old ones only to return them, use {@link #store(String, byte[])}.
+ */
+public class ZipResourceMap extends AbstractMap<String, byte[]>
+{
+    private final RawZipFile zip;
+    /** name -&gt; either a {@link RawZipFile.Entry} of the zip or the byte[] that was put. */
+    private final Map<String, Object> values = new LinkedHashMap<>();
+
+    public ZipResourceMap(RawZipFile zip)
+    {
+        this.zip = zip;
+    }
+
+    public RawZipFile getZip()
+    {
+        return zip;
+    }
+
+    /**
+     * Adds a reference to an entry of the zip, which is only read when it is asked for.
+     * @param entry an entry of the zip
+     */
+    public void putEntry(RawZipFile.Entry entry)
+    {
+        values.put(entry.getName(), entry);
+    }
+
+    /**
+     * @param name name of an entry
+     * @return the entry of the zip, if the contents of the name were not replaced since they were added with {@link #putEntry(RawZipFile.Entry)}
+     */
+    public RawZipFile.Entry getUnchangedEntry(String name)
+    {
+        Object value = values.get(name);
+        return value instanceof RawZipFile.Entry ? (RawZipFile.Entry) value : null;
+    }
+
+    @Override
+    public int size()
+    {
+        return values.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return values.containsKey(key);
+    }
+
+    @Override
+    public byte[] get(Object key)
+    {
+        return load(values.get(key));
+    }
+
+    @Override
+    public byte[] put(String key, byte[] value)
+    {
+        return load(values.put(key, value));
+    }
+
+    /**
+     * Like {@link #put(String, byte[])}, but does not read the old contents.
+     * @param key name of the entry
+     * @param value new contents
+     */
+    public void store(String key, byte[] value)
+    {
+        values.put(key, value);
+    }
+
+    @Override
+    public byte[] remove(Object key)
+    {
+        return load(values.remove(key));
+    }
+
+    @Override
+    public void clear()
+    {
+        values.clear();
+    }
+
+    @Override
+    public Set<Entry<String, byte[]>> entrySet()
+    {
+        return new AbstractSet<Entry<String, byte[]>>()
+        {
+            @Override
+            public Iterator<Entry<String, byte[]>> iterator()
+            {
+                final Iterator<Entry<String, Object>> it = values.entrySet().iterator();
+                return new Iterator<Entry<String, byte[]>>()
+                {
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, byte[]> next()
+                    {
+                        return new LazyEntry(it.next());
+                    }
+
+                    @Override
+                    public void remove()
+                    {
+                        it.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size()
+            {
+                return values.size();
+            }
+        };
+    }
+
+    private class LazyEntry implements Entry<String, byte[]>
+    {
+        private final Entry<String, Object> backing;
+
+        LazyEntry(Entry<String, Object> backing)
+        {
+            this.backing = backing;
+        }
+
+        @Override
+        public String getKey()
+        {
+            return backing.getKey();
+        }
+
+        @Override
+        public byte[] getValue()
+        {
+            return load(backing.getValue());
+        }
+
+        @Override
+        public byte[] setValue(byte[] value)
+        {
+            return load(backing.setValue(value));
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<?, ?> other = (Entry<?, ?>) o;
+            return getKey().equals(other.getKey()) && Objects.equals(getValue(), other.getValue());
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return getKey().hashCode() ^ Objects.hashCode(getValue());
+        }
+    }
+
+    private byte[] load(Object value)
+    {
+        if (!(value instanceof RawZipFile.Entry))
+            return (byte[]) value;
+
+        try
+        {
+            return zip.getBytes((RawZipFile.Entry) value);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.zip;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A minimal replacement for {@link java.util.zip.ZipOutputStream} that can also copy entries of a
+ * {@link RawZipFile} as they are, without inflating and deflating them again.
+ * <p>
+ * Entries are written like the ZipOutputStream writes them: deflated entries with a data descriptor, and
+ * stored entries with the size and CRC the caller set on the {@link ZipEntry}. Zip64 is not supported.
+ */
+public class ZipWriter extends OutputStream
+{
+    private static final int FLAG_DESCRIPTOR = 0x08;
+    private static final int FLAG_UTF8       = 0x800;
+
+    /**
+     * A constant time for entries, so the same contents make the same zip.
+     * It is 1980-02-01 in the local time zone, so it is the same DOS time everywhere, and still valid after converting it to UTC.
+     */
+    public static final long NORMALIZED_TIME = LocalDateTime.of(1980, 2, 1, 0, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+    private final OutputStream       out;
+    private long                     written;
+    private final List<CentralEntry> central = new ArrayList<>();
+    private final Set<String>        names   = new HashSet<>();
+
+    private final Deflater           deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final byte[]             buffer   = new byte[8192];
+    private final CRC32              crc      = new CRC32();
+    private CentralEntry             current;
+    private long                     currentSize;
+    private boolean                  closed;
+
+    public ZipWriter(File file) throws IOException
+    {
+        this(new FileOutputStream(file));
+    }
+
+    public ZipWriter(OutputStream out)
+    {
+        this.out = new BufferedOutputStream(out, 64 * 1024);
+    }
+
+    /**
+     * Begins writing a new entry, closing the current one if there is one.
+     * If the method of the entry is {@link ZipEntry#STORED}, its size and CRC must be set.
+     * @param entry the entry, only its name, method, time, size and CRC are used
+     * @throws IOException if the entry is a duplicate or could not be written
+     */
+    public void putNextEntry(ZipEntry entry) throws IOException
+    {
+        closeEntry();
+
+        CentralEntry ce = new CentralEntry(entry.getName(), toDosTime(entry.getTime() == -1 ? System.currentTimeMillis() : entry.getTime()));
+        if (entry.getMethod() == ZipEntry.STORED)
+        {
+            if (entry.getSize() == -1 || entry.getCrc() == -1)
+                throw new ZipException("STORED entry missing size or crc: " + entry.getName());
+            ce.method = ZipEntry.STORED;
+            ce.size = ce.compressedSize = entry.getSize();
+            ce.crc = (int) entry.getCrc();
+        }
+        else
+        {
+            ce.method = ZipEntry.DEFLATED;
+            ce.flags |= FLAG_DESCRIPTOR;
+        }
+
+        addEntry(ce);
+        current = ce;
+        currentSize = 0;
+        crc.reset();
+        deflater.reset();
+    }
+
+    /**
+     * Writes a whole entry at once.
+     * @param name name of the entry
+     * @param data contents of the entry
+     * @param time modification time of the entry
+     * @param stored whether to store the data as it is instead of deflating it
+     * @throws IOException if the entry is a duplicate or could not be written
+     */
+    public void writeEntry(String name, byte[] data, long time, boolean stored) throws IOException
+    {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(time);
+        if (stored)
+        {
+            CRC32 dataCrc = new CRC32();
+            dataCrc.update(data);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(data.length);
+            entry.setCrc(dataCrc.getValue());
+        }
+
+        putNextEntry(entry);
+        write(data);
+        closeEntry();
+    }
+
+    /**
+     * Copies the entry as it is stored in the other file, under the same name.
+     * @param from the file containing the entry
+     * @param entry the entry to copy
+     * @throws IOException if the entry is a duplicate or could not be copied
+     */
+    public void copyEntry(RawZipFile from, RawZipFile.Entry entry) throws IOException
+    {
+        copyRawEntry(from, entry, entry.dosTime);
+    }
+
+    /**
+     * Copies the entry as it is stored in the other file, under the same name but with another modification time.
+     * @param from the file containing the entry
+     * @param entry the entry to copy
+     * @param time modification time of the copy
+     * @throws IOException if the entry is a duplicate or could not be copied
+     */
+    public void copyEntry(RawZipFile from, RawZipFile.Entry entry, long time) throws IOException
+    {
+        copyRawEntry(from, entry, toDosTime(time));
+    }
+
+    private void copyRawEntry(RawZipFile from, RawZipFile.Entry entry, int dosTime) throws IOException
+    {
+        closeEntry();
+
+        CentralEntry ce = new CentralEntry(entry.getName(), dosTime);
+        ce.method = entry.method;
+        ce.crc = entry.crc;
+        ce.compressedSize = entry.compressedSize;
+        ce.size = entry.getSize();
+
+        addEntry(ce);
+        from.copyRaw(entry, out);
+        written += ce.compressedSize;
+    }
+
+    /**
+     * @param name name of an entry
+     * @return whether an entry of that name was written already
+     */
+    public boolean hasEntry(String name)
+    {
+        return names.contains(name);
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        if (current == null)
+            throw new ZipException("no current ZIP entry");
+
+        crc.update(b, off, len);
+        currentSize += len;
+        if (current.method == ZipEntry.STORED)
+        {
+            out.write(b, off, len);
+            written += len;
+        }
+        else
+        {
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput())
+                deflate();
+        }
+    }
+
+    /**
+     * Finishes the current entry, if there is one.
+     * @throws IOException if the entry could not be written, or a stored entry does not match its size or CRC
+     */
+    public void closeEntry() throws IOException
+    {
+        if (current == null)
+            return;
+
+        CentralEntry ce = current;
+        current = null;
+
+        if (ce.method == ZipEntry.STORED)
+        {
+            if (currentSize != ce.size)
+                throw new ZipException("invalid entry size (expected " + ce.size + " but got " + currentSize + " bytes)");
+            if ((int) crc.getValue() != ce.crc)
+                throw new ZipException("invalid entry crc-32 for " + ce.name);
+            return;
+        }
+
+        deflater.finish();
+        while (!deflater.finished())
+            deflate();
+
+        ce.crc = (int) crc.getValue();
+        ce.size = currentSize;
+        ce.compressedSize = deflater.getBytesWritten();
+        checkSize(ce.size);
+        checkSize(ce.compressedSize);
+
+        writeInt(RawZipFile.DATA_DESCRIPTOR);
+        writeInt(ce.crc);
+        writeInt((int) ce.compressedSize);
+        writeInt((int) ce.size);
+    }
+
+    private void deflate() throws IOException
+    {
+        int len = deflater.deflate(buffer, 0, buffer.length);
+        if (len > 0)
+        {
+            out.write(buffer, 0, len);
+            written += len;
+        }
+    }
+
+    private void addEntry(CentralEntry ce) throws IOException
+    {
+        if (!names.add(ce.name))
+            throw new ZipException("duplicate entry: " + ce.name);
+        if (central.size() == 0xFFFF)
+            throw new ZipException("Too many entries for a zip without Zip64");
+        checkSize(written);
+
+        ce.offset = written;
+        central.add(ce);
+
+        byte[] name = ce.name.getBytes(StandardCharsets.UTF_8);
+        boolean descriptor = (ce.flags & FLAG_DESCRIPTOR) != 0;
+        writeInt(RawZipFile.LOCAL_HEADER);
+        writeShort(ce.method == ZipEntry.STORED ? 10 : 20);
+        writeShort(ce.flags);
+        writeShort(ce.method);
+        writeInt(ce.dosTime);
+        writeInt(descriptor ? 0 : ce.crc);
+        writeInt(descriptor ? 0 : (int) ce.compressedSize);
+        writeInt(descriptor ? 0 : (int) ce.size);
+        writeShort(name.length);
+        writeShort(0);
+        writeBytes(name);
+    }
+
+    /**
+     * Writes the central directory. The underlying stream is not closed.
+     * @throws IOException if it could not be written
+     */
+    public void finish() throws IOException
+    {
+        if (closed)
+            return;
+        closeEntry();
+        closed = true;
+
+        checkSize(written);
+        long start = written;
+        for (CentralEntry ce : central)
+        {
+            byte[] name = ce.name.getBytes(StandardCharsets.UTF_8);
+            writeInt(RawZipFile.CENTRAL_HEADER);
+            writeShort(20);
+            writeShort(ce.method == ZipEntry.STORED ? 10 : 20);
+            writeShort(ce.flags);
+            writeShort(ce.method);
+            writeInt(ce.dosTime);
+            writeInt(ce.crc);
+            writeInt((int) ce.compressedSize);
+            writeInt((int) ce.size);
+            writeShort(name.length);
+            writeShort(0); // extra
+            writeShort(0); // comment
+            writeShort(0); // disk
+            writeShort(0); // internal attributes
+            writeInt(0);   // external attributes
+            writeInt((int) ce.offset);
+            writeBytes(name);
+        }
+        long size = written - start;
+        checkSize(written);
+
+        writeInt(RawZipFile.END_OF_CENTRAL);
+        writeShort(0);
+        writeShort(0);
+        writeShort(central.size());
+        writeShort(central.size());
+        writeInt((int) size);
+        writeInt((int) start);
+        writeShort(0);
+        out.flush();
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            finish();
+        }
+        finally
+        {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    private static void checkSize(long size) throws ZipException
+    {
+        if (size >= 0xFFFFFFFFL)
+            throw new ZipException("Too large for a zip without Zip64");
+    }
+
+    private void writeShort(int v) throws IOException
+    {
+        out.write(v & 0xFF);
+        out.write((v >>> 8) & 0xFF);
+        written += 2;
+    }
+
+    private void writeInt(int v) throws IOException
+    {
+        writeShort(v);
+        writeShort(v >>> 16);
+    }
+
+    private void writeBytes(byte[] b) throws IOException
+    {
+        out.write(b);
+        written += b.length;
+    }
+
+    static int toDosTime(long time)
+    {
+        LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        if (date.getYear() < 1980)
+            return (1 << 21) | (1 << 16); // 1980-01-01
+        return (date.getYear() - 1980) << 25 | date.getMonthValue() << 21 | date.getDayOfMonth() << 16
+                | date.getHour() << 11 | date.getMinute() << 5 | date.getSecond() >> 1;
+    }
+
+    private static class CentralEntry
+    {
+        private final String name;
+        private int          flags = FLAG_UTF8;
+        private int          method;
+        private final int    dosTime;
+        private int          crc;
+        private long         compressedSize;
+        private long         size;
+        private long         offset;
+
+        private CentralEntry(String name, int dosTime)
+        {
+            this.name = name;
+            this.dosTime = dosTime;
+        }
+    }
+}
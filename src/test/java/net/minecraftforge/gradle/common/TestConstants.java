@@ -28,6 +28,10 @@ import org.junit.rules.TemporaryFolder;
 
 import java.io.*;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 import java.util.jar.*;
 import java.util.zip.*;
 
@@ -53,7 +57,88 @@ public class TestConstants implements UsesTemporaryFiles
         }
 
         // when the zip entry has no contents only its name is hashed so these should match
-        Assert.assertEquals(EXPECTED_STRING_HASH, Constants.hash(zipFile));
+        Assert.assertEquals(EXPECTED_STRING_HASH, Constants.hashZip(zipFile, Constants.HASH_FUNC));
+    }
+
+    @Test
+    public void testHashZipIgnoresEntryOrder() throws Exception
+    {
+        File first = temporaryFolder.newFile("first.zip");
+        File second = temporaryFolder.newFile("second.zip");
+        writeZip(first, ZipEntry.DEFLATED, "a/A.class", "b/B.class", "c.txt");
+        writeZip(second, ZipEntry.STORED, "c.txt", "b/B.class", "a/A.class");
+
+        Assert.assertEquals(Constants.hash(first), Constants.hash(second));
+        Assert.assertNotEquals(Constants.hash(first), Constants.hash(temporaryFolder.newFile("empty.txt")));
+    }
+
+    private static void writeZip(File file, int method, String... names) throws IOException
+    {
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(file.toPath())))
+        {
+            out.setMethod(method);
+            for (String name : names)
+            {
+                byte[] data = name.getBytes();
+                ZipEntry entry = new ZipEntry(name);
+                if (method == ZipEntry.STORED)
+                {
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    entry.setSize(data.length);
+                    entry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(entry);
+                out.write(data);
+                out.closeEntry();
+            }
+        }
+    }
+
+    @Test
+    public void testHashAllParallelKeepsOrder() throws Exception
+    {
+        Random random = new Random(42);
+        File dir = temporaryFolder.newFolder("hashAll");
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 32; i++)
+        {
+            byte[] contents = new byte[random.nextInt(64 * 1024)];
+            random.nextBytes(contents);
+            File file = new File(dir, "file" + i + ".bin");
+            Files.write(file.toPath(), contents);
+            files.add(file);
+        }
+        File zip = new File(dir, "file.zip");
+        writeZip(zip, ZipEntry.DEFLATED, "a/A.class", "b/B.class");
+        files.add(zip);
+
+        List<String> expected = new ArrayList<>();
+        for (File file : files)
+        {
+            expected.add(Constants.hash(file));
+        }
+
+        Assert.assertEquals(expected, Constants.hashAll(files, false));
+        Assert.assertEquals(expected, Constants.hashAll(files, true));
+
+        Collections.reverse(files);
+        Collections.reverse(expected);
+        Assert.assertEquals(expected, Constants.hashAll(files, true));
+
+        Assert.assertEquals(Constants.hashAll(dir, false), Constants.hashAll(dir, true));
+    }
+
+    @Test
+    public void testHashFileMatchesBytes() throws Exception
+    {
+        // bigger than the hash buffer, so the file is digested in several reads
+        byte[] contents = new byte[200 * 1024 + 17];
+        new Random(42).nextBytes(contents);
+        File file = temporaryFolder.newFile("file.bin");
+        Files.write(file.toPath(), contents);
+
+        Assert.assertEquals(Constants.hash(contents), Constants.hash(file));
     }
 
     @Test
@@ -22,9 +22,15 @@ package net.minecraftforge.gradle.tasks;
 
 import net.minecraftforge.gradle.testsupport.TaskTest;
 import net.minecraftforge.gradle.testsupport.TestResource;
+import net.minecraftforge.gradle.util.zip.ZipWriter;
 import org.junit.Assert;
 import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
 import java.util.jar.*;
 import java.util.zip.*;
@@ -113,6 +119,209 @@ public class TestAbstractEditJarTask extends TaskTest<AbstractEditJarTask>
         }
     }
 
+    @Test
+    public void runTaskInParallel() throws Throwable
+    {
+        AbstractEditJarTask task = getTask(AbstractEditJarTaskParallel.class);
+        File inJar = TestResource.ORG_EXAMPLE_EXAMPLE_SRC_JAR.getFile(temporaryFolder);
+        File outJar = temporaryFolder.newFile("out.jar");
+        task.setInJar(inJar);
+        task.setOutJar(outJar);
+        task.doTask();
+
+        List<String> expectedOrder = new ArrayList<>();
+        try (ZipFile inJarFile = new ZipFile(inJar);
+             ZipFile outJarFile = new ZipFile(outJar))
+        {
+            for (ZipEntry e : Collections.list(inJarFile.entries()))
+            {
+                if (e.getName().startsWith("META-INF/"))
+                    continue;
+                expectedOrder.add(e.getName());
+
+                ZipEntry other = outJarFile.getEntry(e.getName());
+                Assert.assertNotNull(other);
+                if (e.getName().endsWith(".java"))
+                {
+                    String source = new String(ByteStreams.toByteArray(inJarFile.getInputStream(e)), StandardCharsets.UTF_8);
+                    Assert.assertEquals(source + "// " + e.getName(), new String(ByteStreams.toByteArray(outJarFile.getInputStream(other)), StandardCharsets.UTF_8));
+                }
+                else
+                {
+                    Assert.assertEquals(e.getSize(), other.getSize());
+                }
+            }
+
+            List<String> outOrder = new ArrayList<>();
+            for (ZipEntry e : Collections.list(outJarFile.entries()))
+                outOrder.add(e.getName());
+            Assert.assertEquals("Entries should be written in the order of the input jar", expectedOrder, outOrder);
+        }
+    }
+
+    @Test
+    public void runTaskInRam() throws Throwable
+    {
+        AbstractEditJarTask task = getTask(AbstractEditJarTaskInRam.class);
+        File inJar = TestResource.ACTUAL_CLEAN_JAR.getFile(temporaryFolder);
+        File outJar = temporaryFolder.newFile("out.jar");
+        task.setInJar(inJar);
+        task.setOutJar(outJar);
+        task.doTask();
+
+        try (ZipFile inJarFile = new ZipFile(inJar);
+             ZipFile outJarFile = new ZipFile(outJar))
+        {
+            for (ZipEntry e : Collections.list(inJarFile.entries()))
+            {
+                if (e.getName().startsWith("META-INF/"))
+                    continue;
+                ZipEntry other = outJarFile.getEntry(e.getName());
+                Assert.assertNotNull(other);
+                Assert.assertArrayEquals(ByteStreams.toByteArray(inJarFile.getInputStream(e)), ByteStreams.toByteArray(outJarFile.getInputStream(other)));
+            }
+
+            ZipEntry added = outJarFile.getEntry("test/Added.java");
+            Assert.assertNotNull(added);
+            Assert.assertEquals("class Added {}", new String(ByteStreams.toByteArray(outJarFile.getInputStream(added)), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void saveJarIsReproducible() throws Throwable
+    {
+        AbstractEditJarTask task = getTask(AbstractEditJarTaskInRam.class);
+        File inJar = TestResource.ACTUAL_CLEAN_JAR.getFile(temporaryFolder);
+        File outJar1 = temporaryFolder.newFile("out1.jar");
+        File outJar2 = temporaryFolder.newFile("out2.jar");
+
+        task.setInJar(inJar);
+        task.setOutJar(outJar1);
+        task.doTask();
+        task.setOutJar(outJar2);
+        task.doTask();
+
+        Assert.assertArrayEquals("Same input should make the same jar", Files.readAllBytes(outJar1.toPath()), Files.readAllBytes(outJar2.toPath()));
+
+        try (ZipFile outJarFile = new ZipFile(outJar1))
+        {
+            List<String> names = new ArrayList<>();
+            for (ZipEntry e : Collections.list(outJarFile.entries()))
+            {
+                names.add(e.getName());
+                Assert.assertEquals(ZipWriter.NORMALIZED_TIME, e.getTime());
+                if (e.getName().equals("test/Added.java"))
+                    Assert.assertEquals("Tiny entries should be stored", ZipEntry.STORED, e.getMethod());
+            }
+
+            List<String> sorted = new ArrayList<>(names);
+            Collections.sort(sorted);
+            Assert.assertEquals("Entries should be sorted", sorted, names);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void legacyHooksStillWrite() throws Throwable
+    {
+        AbstractEditJarTaskLegacyHooks task = (AbstractEditJarTaskLegacyHooks) getTask(AbstractEditJarTaskLegacyHooks.class);
+        File inJar = TestResource.ACTUAL_CLEAN_JAR.getFile(temporaryFolder);
+        File outJar = temporaryFolder.newFile("out.jar");
+        task.setInJar(inJar);
+        task.setOutJar(outJar);
+        task.doTask();
+
+        try (ZipFile outJarFile = new ZipFile(outJar))
+        {
+            List<String> names = new ArrayList<>();
+            for (ZipEntry e : Collections.list(outJarFile.entries()))
+            {
+                if (!e.getName().equals("test/Legacy.txt"))
+                    names.add(e.getName());
+            }
+            Assert.assertEquals("Every entry should be passed to the old hook", names, task.written);
+
+            ZipEntry added = outJarFile.getEntry("test/Legacy.txt");
+            Assert.assertNotNull(added);
+            Assert.assertEquals(String.join("\n", names), new String(ByteStreams.toByteArray(outJarFile.getInputStream(added)), StandardCharsets.UTF_8));
+        }
+    }
+
+    static class AbstractEditJarTaskInRam extends AbstractEditJarTaskDoNothing
+    {
+        public AbstractEditJarTaskInRam()
+        {
+            super();
+        }
+
+        @Override
+        public void doStuffMiddle(Map<String, String> sourceMap, Map<String, byte[]> resourceMap)
+        {
+            // read every resource back, and replace one with the same contents
+            for (Map.Entry<String, byte[]> entry : resourceMap.entrySet())
+            {
+                if (!entry.getKey().endsWith("/"))
+                {
+                    entry.setValue(entry.getValue().clone());
+                    break;
+                }
+            }
+            sourceMap.put("test/Added.java", "class Added {}");
+        }
+
+        @Override
+        protected boolean storeJarInRam()
+        {
+            return true;
+        }
+    }
+
+    static class AbstractEditJarTaskParallel extends AbstractEditJarTaskDoNothing
+    {
+        public AbstractEditJarTaskParallel()
+        {
+            super();
+        }
+
+        @Override
+        public String asRead(String name, String file)
+        {
+            return file + "// " + name;
+        }
+
+        @Override
+        protected boolean isAsReadThreadSafe()
+        {
+            return true;
+        }
+    }
+
+    static class AbstractEditJarTaskLegacyHooks extends AbstractEditJarTaskDoNothing
+    {
+        final List<String> written = new ArrayList<>();
+
+        public AbstractEditJarTaskLegacyHooks()
+        {
+            super();
+        }
+
+        @Override
+        @Deprecated
+        protected void postWriteEntry(JarOutputStream jarOut, String entryName)
+        {
+            written.add(entryName);
+        }
+
+        @Override
+        @Deprecated
+        protected void postWrite(JarOutputStream jarOut) throws IOException
+        {
+            jarOut.putNextEntry(new JarEntry("test/Legacy.txt"));
+            jarOut.write(String.join("\n", written).getBytes(StandardCharsets.UTF_8));
+            jarOut.closeEntry();
+        }
+    }
+
     static class AbstractEditJarTaskDoNothing extends AbstractEditJarTask
     {
         public AbstractEditJarTaskDoNothing()
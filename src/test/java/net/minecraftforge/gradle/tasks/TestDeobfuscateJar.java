@@ -23,9 +23,16 @@ package net.minecraftforge.gradle.tasks;
 import net.minecraftforge.gradle.testsupport.JarComparison;
 import net.minecraftforge.gradle.testsupport.TaskTest;
 import net.minecraftforge.gradle.testsupport.TestResource;
+import org.junit.Assert;
 import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.jar.*;
 
 public class TestDeobfuscateJar extends TaskTest<DeobfuscateJar>
@@ -52,4 +59,72 @@ public class TestDeobfuscateJar extends TaskTest<DeobfuscateJar>
             JarComparison.compareJarClassMembers(expectedJarFile, outJarFile);
         }
     }
+
+    @Test
+    public void runTaskWithChangedAts() throws IOException
+    {
+        File outJar = temporaryFolder.newFile("out.jar");
+        File at = temporaryFolder.newFile("test_at.cfg");
+        DeobfuscateJar deobfuscateJar = getTask(DeobfuscateJar.class);
+        deobfuscateJar.setExceptorCfg(temporaryFolder.newFile("empty.exc"));
+        deobfuscateJar.setSrg(TestResource.OBFUSCATE_SRG.getFile(temporaryFolder));
+        deobfuscateJar.setInJar(TestResource.ACTUAL_CLEAN_JAR.getFile(temporaryFolder));
+        deobfuscateJar.setOutJar(outJar);
+        deobfuscateJar.addAt(at);
+
+        Files.write(at.toPath(), "public test.actual.NonDepUser method1()V\n".getBytes(StandardCharsets.UTF_8));
+        deobfuscateJar.doTask();
+        Assert.assertEquals(Opcodes.ACC_PUBLIC, getMethodAccess(outJar, "test/actual/NonDepUser", "method1") & 7);
+
+        // only the AT changed, the method has to be protected and not stay public from the last run
+        Files.write(at.toPath(), "protected test.actual.NonDepUser method1()V\n".getBytes(StandardCharsets.UTF_8));
+        deobfuscateJar.doTask();
+        Assert.assertEquals(Opcodes.ACC_PROTECTED, getMethodAccess(outJar, "test/actual/NonDepUser", "method1") & 7);
+
+        Files.write(at.toPath(), new byte[0]);
+        deobfuscateJar.doTask();
+        Assert.assertEquals(Opcodes.ACC_PRIVATE, getMethodAccess(outJar, "test/actual/NonDepUser", "method1") & 7);
+    }
+
+    @Test
+    public void runTaskWithRenamedAts() throws IOException
+    {
+        File outJar = temporaryFolder.newFile("out.jar");
+        File at = temporaryFolder.newFile("test_at.cfg");
+        File methods = temporaryFolder.newFile("methods.csv");
+        DeobfuscateJar deobfuscateJar = getTask(DeobfuscateJar.class);
+        deobfuscateJar.setExceptorCfg(temporaryFolder.newFile("empty.exc"));
+        deobfuscateJar.setSrg(TestResource.OBFUSCATE_SRG.getFile(temporaryFolder));
+        deobfuscateJar.setInJar(TestResource.ACTUAL_CLEAN_JAR.getFile(temporaryFolder));
+        deobfuscateJar.setOutJar(outJar);
+        deobfuscateJar.setMethodCsv(methods);
+        deobfuscateJar.setFailOnAtError(false);
+        deobfuscateJar.addAt(at);
+
+        Files.write(at.toPath(), "public test.actual.NonDepUser func_1_a()V\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(methods.toPath(), "searge,name,side,desc\nfunc_1_a,method1,0,\n".getBytes(StandardCharsets.UTF_8));
+        deobfuscateJar.doTask();
+        Assert.assertEquals(Opcodes.ACC_PUBLIC, getMethodAccess(outJar, "test/actual/NonDepUser", "method1") & 7);
+
+        // the names of the changed CSV have to be used, not the ones of the last run
+        Files.write(methods.toPath(), "searge,name,side,desc\nfunc_1_a,method2,0,\n".getBytes(StandardCharsets.UTF_8));
+        deobfuscateJar.doTask();
+        Assert.assertEquals(Opcodes.ACC_PRIVATE, getMethodAccess(outJar, "test/actual/NonDepUser", "method1") & 7);
+    }
+
+    private static int getMethodAccess(File jar, String className, String methodName) throws IOException
+    {
+        try (JarFile jarFile = new JarFile(jar);
+             InputStream in = jarFile.getInputStream(jarFile.getEntry(className + ".class")))
+        {
+            ClassNode node = new ClassNode();
+            new ClassReader(in).accept(node, 0);
+            for (MethodNode method : node.methods)
+            {
+                if (method.name.equals(methodName))
+                    return method.access;
+            }
+        }
+        throw new AssertionError("No method " + methodName + " in " + className);
+    }
 }
@@ -0,0 +1,194 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks;
+
+import net.minecraftforge.gradle.testsupport.TaskTest;
+import net.minecraftforge.gradle.testsupport.TestResource;
+import net.minecraftforge.gradle.util.zip.ZipWriter;
+import org.gradle.api.Project;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.*;
+
+public class TestEditJarPipeline extends TaskTest<AbstractEditJarTask>
+{
+    @Test
+    public void sameAsStaged() throws Throwable
+    {
+        File inJar = TestResource.ORG_EXAMPLE_EXAMPLE_SRC_JAR.getFile(temporaryFolder);
+        Project project = getTask(AddingStage.class).getProject();
+
+        // each stage reading what the one before wrote
+        File firstJar = temporaryFolder.newFile("first.jar");
+        File stagedJar = temporaryFolder.newFile("staged.jar");
+        AbstractEditJarTask first = project.getTasks().create("stagedFirst", AddingStage.class);
+        first.setInJar(inJar);
+        first.setOutJar(firstJar);
+        first.doTask();
+        AbstractEditJarTask second = project.getTasks().create("stagedSecond", MarkingStage.class);
+        second.setInJar(firstJar);
+        second.setOutJar(stagedJar);
+        second.doTask();
+
+        // the same stages, without the jar between them
+        File processedJar = temporaryFolder.newFile("processed.jar");
+        File fusedJar = temporaryFolder.newFile("fused.jar");
+        AddingStage fusedFirst = project.getTasks().create("fusedFirst", AddingStage.class);
+        EditJarPipeline pipeline = new EditJarPipeline(ImmutableList.of(fusedFirst, project.getTasks().create("fusedSecond", MarkingStage.class)));
+        pipeline.begin();
+        pipeline.processJar(inJar, processedJar);
+        pipeline.writeJar(processedJar, fusedJar);
+        pipeline.end();
+
+        Assert.assertEquals("The same entries should be written in the same order", new ArrayList<>(readJar(stagedJar).entrySet()), new ArrayList<>(readJar(fusedJar).entrySet()));
+        Assert.assertTrue("The added entry should be processed by the stage after it", readJar(fusedJar).get("org/example/Injected.java").endsWith("// marked"));
+        Assert.assertEquals("Every stage should be finished", 1, fusedFirst.finished);
+    }
+
+    @Test
+    public void processFailureIsThrown() throws Throwable
+    {
+        File inJar = TestResource.ORG_EXAMPLE_EXAMPLE_SRC_JAR.getFile(temporaryFolder);
+        AbstractEditJarTask failing = getTask(FailingStage.class);
+        EditJarPipeline pipeline = new EditJarPipeline(ImmutableList.of(failing));
+        try
+        {
+            pipeline.processJar(inJar, temporaryFolder.newFile("processed.jar"));
+            Assert.fail("The failure of the stage should be thrown");
+        }
+        catch (IllegalStateException e)
+        {
+            Assert.assertEquals("failed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void onlyStreamingTasksCanBeFused() throws Throwable
+    {
+        Project project = getTask(MarkingStage.class).getProject();
+        Assert.assertTrue(project.getTasks().create("marking", MarkingStage.class).canBeFused());
+        Assert.assertFalse(project.getTasks().create("inRam", InRamStage.class).canBeFused());
+    }
+
+    private static Map<String, String> readJar(File jar) throws IOException
+    {
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(jar))
+        {
+            for (ZipEntry e : Collections.list(zip.entries()))
+                entries.put(e.getName(), new String(ByteStreams.toByteArray(zip.getInputStream(e)), StandardCharsets.UTF_8));
+        }
+        return entries;
+    }
+
+    static class AddingStage extends TestAbstractEditJarTask.AbstractEditJarTaskDoNothing
+    {
+        private final Set<String> packages = new TreeSet<>();
+        int finished;
+
+        public AddingStage()
+        {
+            super();
+        }
+
+
+        @Override
+        public String asRead(String name, String file)
+        {
+            return file + "// added";
+        }
+
+        @Override
+        protected void postWriteEntry(ZipWriter jarOut, String entryName)
+        {
+            if (entryName.endsWith(".java"))
+                packages.add(entryName.substring(0, entryName.lastIndexOf('/')));
+        }
+
+        @Override
+        protected void postWrite(ZipWriter jarOut) throws IOException
+        {
+            for (String pkg : packages)
+                writeEntry(jarOut, pkg + "/Injected.java", ("package " + pkg.replace('/', '.') + "; class Injected {}").getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void doStuffAfter()
+        {
+            finished++;
+        }
+    }
+
+    static class MarkingStage extends TestAbstractEditJarTask.AbstractEditJarTaskDoNothing
+    {
+        public MarkingStage()
+        {
+            super();
+        }
+
+        @Override
+        public String asRead(String name, String file)
+        {
+            return file + "// marked";
+        }
+
+        @Override
+        protected boolean isAsReadThreadSafe()
+        {
+            return true;
+        }
+    }
+
+    static class FailingStage extends TestAbstractEditJarTask.AbstractEditJarTaskDoNothing
+    {
+        public FailingStage()
+        {
+            super();
+        }
+
+        @Override
+        public String asRead(String name, String file)
+        {
+            throw new IllegalStateException("failed");
+        }
+    }
+
+    static class InRamStage extends TestAbstractEditJarTask.AbstractEditJarTaskDoNothing
+    {
+        public InRamStage()
+        {
+            super();
+        }
+
+        @Override
+        protected boolean storeJarInRam()
+        {
+            return true;
+        }
+    }
+}
@@ -27,8 +27,22 @@ import net.minecraftforge.gradle.testsupport.TaskTest;
 import net.minecraftforge.gradle.testsupport.TestResource;
 import org.junit.Assert;
 import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import com.google.common.io.ByteStreams;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.*;
 import java.util.jar.*;
 import java.util.stream.*;
@@ -83,6 +97,274 @@ public class TestMergeJars extends TaskTest<MergeJars>
         }
     }
 
+    @Test
+    public void mergeMembers() throws IOException
+    {
+        byte[] client = makeClass(new String[] { "a", "b", "c", "d" }, new String[] { "m1", "m2" });
+        byte[] server = makeClass(new String[] { "a", "x", "c", "y" }, new String[] { "m1", "m3" });
+
+        ClassNode merged = new ClassNode();
+        new ClassReader(getTask(MergeJars.class).processClass(client, server)).accept(merged, 0);
+
+        Assert.assertEquals(Arrays.asList("a", "b", "x", "c", "d", "y"), merged.fields.stream().map(f -> f.name).collect(Collectors.toList()));
+        Assert.assertEquals(Arrays.asList(null, "CLIENT", "SERVER", null, "CLIENT", "SERVER"), merged.fields.stream().map(f -> getSide(f.visibleAnnotations)).collect(Collectors.toList()));
+
+        Assert.assertEquals(Arrays.asList("m1", "m2", "m3"), merged.methods.stream().map(m -> m.name).collect(Collectors.toList()));
+        Assert.assertEquals(Arrays.asList(null, "CLIENT", "SERVER"), merged.methods.stream().map(m -> getSide(m.visibleAnnotations)).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void parallelMergeIsSequential() throws IOException
+    {
+        // the fixture resources, and more classes than the workers are allowed to have pending
+        File client = temporaryFolder.newFile("client.jar");
+        File server = temporaryFolder.newFile("server.jar");
+        List<String> resources = withClasses(TestResource.MERGE_A_ZIP.getFile(temporaryFolder), client, 0, 250);
+        for (String resource : withClasses(TestResource.MERGE_B_ZIP.getFile(temporaryFolder), server, 50, 300))
+        {
+            if (!resources.contains(resource))
+                resources.add(resource);
+        }
+
+        MergeJars mergeJars = getTask(MergeJars.class);
+        mergeJars.setClient(fileClosure(client));
+        mergeJars.setServer(fileClosure(server));
+
+        File sequential = temporaryFolder.newFile("sequential.jar");
+        mergeJars.threads = 1;
+        mergeJars.setOutJar(sequential);
+        mergeJars.doTask();
+
+        mergeJars.threads = 8;
+        for (int run = 0; run < 2; run++)
+        {
+            File parallel = temporaryFolder.newFile("parallel" + run + ".jar");
+            mergeJars.setOutJar(parallel);
+            mergeJars.doTask();
+            Assert.assertArrayEquals("run " + run, Files.readAllBytes(sequential.toPath()), Files.readAllBytes(parallel.toPath()));
+        }
+
+        try (JarFile outJar = new JarFile(sequential))
+        {
+            List<String> names = outJar.stream().map(ZipEntry::getName).collect(Collectors.toList());
+            Assert.assertEquals(300 + 2 + resources.size(), names.size());
+
+            // the resources are copied first in the order of the jars, and Side and SideOnly are added last
+            Assert.assertEquals(resources, names.subList(0, resources.size()));
+            Assert.assertEquals(Arrays.asList(zipName(SideOnly.class), zipName(Side.class)), names.subList(names.size() - 2, names.size()));
+        }
+    }
+
+    @Test
+    public void streamingMergeMatchesTree() throws IOException
+    {
+        Random random = new Random(1);
+        Map<String, byte[]> clientClasses = new LinkedHashMap<>();
+        Map<String, byte[]> serverClasses = new LinkedHashMap<>();
+
+        for (int i = 0; i < 2000; i++)
+        {
+            // fields are in the same order on both sides, like in real jars. methods only sometimes
+            List<String> cFields = pick(random, "abcdefg");
+            List<String> sFields = pick(random, "abcdefg");
+            Collections.sort(cFields);
+            Collections.sort(sFields);
+            List<String> cMethods = pick(random, "pqrstuvPQ");
+            List<String> sMethods = pick(random, "pqrstuvPQ");
+            if (random.nextBoolean())
+            {
+                Collections.sort(cMethods);
+                Collections.sort(sMethods);
+            }
+
+            String name = "pkg/C" + i;
+            clientClasses.put(name, makeClassWithCode(name, cFields, cMethods, pick(random, "ABCD")));
+            serverClasses.put(name, makeClassWithCode(name, sFields, sMethods, pick(random, "ABCD")));
+        }
+
+        File client = temporaryFolder.newFile("client.jar");
+        File server = temporaryFolder.newFile("server.jar");
+        File out = temporaryFolder.newFile("out.jar");
+        writeClasses(client, clientClasses);
+        writeClasses(server, serverClasses);
+
+        MergeJars mergeJars = getTask(MergeJars.class);
+        mergeJars.setClient(fileClosure(client));
+        mergeJars.setServer(fileClosure(server));
+        mergeJars.setOutJar(out);
+        mergeJars.doTask();
+
+        try (ZipFile outJar = new ZipFile(out))
+        {
+            for (String name : clientClasses.keySet())
+            {
+                byte[] merged;
+                try (InputStream stream = outJar.getInputStream(outJar.getEntry(name + ".class")))
+                {
+                    merged = ByteStreams.toByteArray(stream);
+                }
+                Assert.assertEquals(name, describe(mergeJars.processClassTree(clientClasses.get(name), serverClasses.get(name))), describe(merged));
+            }
+        }
+    }
+
+    private static void writeClasses(File jar, Map<String, byte[]> classes) throws IOException
+    {
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar.toPath())))
+        {
+            for (Map.Entry<String, byte[]> entry : classes.entrySet())
+            {
+                out.putNextEntry(new ZipEntry(entry.getKey() + ".class"));
+                out.write(entry.getValue());
+            }
+        }
+    }
+
+    @Test
+    public void streamingMergeFallsBackToTree() throws IOException
+    {
+        // the server has the overloads of q the other way around, so the client methods have to move
+        byte[] client = makeClassWithCode("Merged", Arrays.asList("a"), Arrays.asList("P", "q", "r", "Q"), Collections.emptyList());
+        byte[] server = makeClassWithCode("Merged", Arrays.asList("a"), Arrays.asList("Q", "q"), Collections.emptyList());
+
+        MergeJars mergeJars = getTask(MergeJars.class);
+        byte[] merged = mergeJars.processClass(client, server);
+        Assert.assertArrayEquals(mergeJars.processClassTree(client, server), merged);
+
+        ClassNode node = new ClassNode();
+        new ClassReader(merged).accept(node, 0);
+        // q(I) moves up in front of r, next to the other q
+        Assert.assertEquals(Arrays.asList("p(I)I", "q()I", "q(I)I", "r()I"), node.methods.stream().map(m -> m.name + m.desc).collect(Collectors.toList()));
+        Assert.assertEquals(Arrays.asList("CLIENT", null, null, "CLIENT"), node.methods.stream().map(m -> getSide(m.visibleAnnotations)).collect(Collectors.toList()));
+    }
+
+    private static List<String> pick(Random random, String pool)
+    {
+        List<String> picked = new ArrayList<>();
+        for (char c : pool.toCharArray())
+        {
+            if (random.nextInt(3) > 0)
+                picked.add(String.valueOf(c));
+        }
+        Collections.shuffle(picked, random);
+        return picked;
+    }
+
+    /**
+     * Methods named with a capital letter are overloads of the lower case ones, taking an int.
+     */
+    private static byte[] makeClassWithCode(String name, List<String> fields, List<String> methods, List<String> inners)
+    {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        for (String inner : inners)
+            writer.visitInnerClass(name + "$" + inner, name, inner, Opcodes.ACC_PUBLIC);
+        for (String field : fields)
+            writer.visitField(Opcodes.ACC_PUBLIC, field, "I", null, null).visitEnd();
+        for (String method : methods)
+        {
+            String desc = Character.isUpperCase(method.charAt(0)) ? "(I)I" : "()I";
+            MethodVisitor visitor = writer.visitMethod(Opcodes.ACC_PUBLIC, method.toLowerCase(Locale.ROOT), desc, null, null);
+            visitor.visitCode();
+            visitor.visitLdcInsn(method);
+            visitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+            visitor.visitInsn(Opcodes.IRETURN);
+            visitor.visitMaxs(2, 2);
+            visitor.visitEnd();
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    /**
+     * The members, their sides and code, and the inner classes. The constant pools of both merges are not the same.
+     */
+    private static String describe(byte[] data)
+    {
+        ClassNode node = new ClassNode();
+        new ClassReader(data).accept(node, 0);
+
+        StringBuilder builder = new StringBuilder();
+        for (FieldNode field : node.fields)
+            builder.append("F ").append(field.name).append(' ').append(getSide(field.visibleAnnotations)).append('\n');
+        for (MethodNode method : node.methods)
+        {
+            builder.append("M ").append(method.name).append(method.desc).append(' ').append(getSide(method.visibleAnnotations));
+            for (AbstractInsnNode insn : method.instructions)
+            {
+                builder.append(' ').append(insn.getOpcode());
+                if (insn instanceof LdcInsnNode)
+                    builder.append(((LdcInsnNode) insn).cst);
+            }
+            builder.append('\n');
+        }
+        // the tree merge may list an inner class twice, which means the same
+        for (String inner : new LinkedHashSet<>(node.innerClasses.stream().map(i -> i.name).collect(Collectors.toList())))
+            builder.append("I ").append(inner).append('\n');
+        return builder.toString();
+    }
+
+    /**
+     * Copies the files of the zip and adds the classes pkg/C{from} up to pkg/C{to}.
+     * @return the files copied
+     */
+    private static List<String> withClasses(File zip, File jar, int from, int to) throws IOException
+    {
+        List<String> resources = new ArrayList<>();
+        try (ZipFile in = new ZipFile(zip);
+             ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar.toPath())))
+        {
+            for (ZipEntry entry : Collections.list(in.entries()))
+            {
+                if (entry.isDirectory())
+                    continue;
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                try (InputStream stream = in.getInputStream(entry))
+                {
+                    ByteStreams.copy(stream, out);
+                }
+                resources.add(entry.getName());
+            }
+
+            for (int i = from; i < to; i++)
+            {
+                out.putNextEntry(new ZipEntry("pkg/C" + i + ".class"));
+                // each side has a field and method of its own
+                out.write(makeClass("pkg/C" + i, new String[] { "shared", "f" + from }, new String[] { "shared", "m" + from }));
+            }
+        }
+        return resources;
+    }
+
+    private static byte[] makeClass(String[] fields, String[] methods)
+    {
+        return makeClass("Merged", fields, methods);
+    }
+
+    private static byte[] makeClass(String name, String[] fields, String[] methods)
+    {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        for (String field : fields)
+            writer.visitField(Opcodes.ACC_PUBLIC, field, "I", null, null).visitEnd();
+        for (String method : methods)
+            writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, method, "()V", null, null).visitEnd();
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static String getSide(List<AnnotationNode> annotations)
+    {
+        if (annotations == null)
+            return null;
+        for (AnnotationNode ann : annotations)
+        {
+            if (Type.getDescriptor(SideOnly.class).equals(ann.desc))
+                return ((String[]) ann.values.get(1))[1];
+        }
+        return null;
+    }
+
     /**
      * directory entries are not required by the zip spec so it's fine if those aren't matching
      */
@@ -0,0 +1,143 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks.fernflower;
+
+import com.google.common.io.ByteStreams;
+import net.minecraftforge.gradle.testsupport.TaskTest;
+import net.minecraftforge.gradle.util.caching.CacheCheckSpec;
+import net.minecraftforge.gradle.util.caching.CacheContainer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * @see ApplyFernFlowerTask
+ */
+public class TestApplyFernFlowerTask extends TaskTest<ApplyFernFlowerTask>
+{
+    @Test
+    public void decompileChangedClassesAfterCacheCheck() throws IOException
+    {
+        ApplyFernFlowerTask task = getTask(ApplyFernFlowerTask.class);
+        task.getProject().getExtensions().getExtraProperties().set("forkDecompile", "false");
+        File in = temporaryFolder.newFile("in.jar");
+        File out = new File(temporaryFolder.getRoot(), "out.jar");
+        task.setInJar(in);
+        task.setOutJar(out);
+        task.setClasspath(task.getProject().files());
+        task.setForkedClasspath(task.getProject().files());
+
+        writeJar(in, 1);
+        task.applyFernFlower();
+        Assert.assertEquals(Arrays.asList("a/A.java", "a/B.java"), getSourceNames(out));
+        String sourceA = readSource(out, "a/A.java");
+        Assert.assertTrue(readSource(out, "a/B.java").contains("return 1;"));
+
+        // changing a class changes the input hash, so the cache check deletes the output before running again
+        writeJar(in, 2);
+        Assert.assertTrue("The task should run again", new CacheCheckSpec(CacheContainer.getCache(task)).isSatisfiedBy(task));
+        Assert.assertFalse(out.exists());
+
+        task.applyFernFlower();
+        Assert.assertEquals(Arrays.asList("a/A.java", "a/B.java"), getSourceNames(out));
+        Assert.assertEquals(sourceA, readSource(out, "a/A.java"));
+        String sourceB = readSource(out, "a/B.java");
+        Assert.assertTrue("The output should have the changed class, not the last run's: " + sourceB, sourceB.contains("return 2;"));
+
+        // A is taken from the last run, only B is decompiled again
+        File cached = new File(task.getTemporaryDir(), "incremental/cached.jar");
+        Assert.assertTrue("The classes that did not change should be reused", cached.isFile());
+        Assert.assertEquals(Collections.singletonList("a/A.java"), getSourceNames(cached));
+    }
+
+    private static void writeJar(File jar, int version) throws IOException
+    {
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar.toPath())))
+        {
+            out.putNextEntry(new ZipEntry("a/A.class"));
+            out.write(makeClass("a/A", 1));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("a/B.class"));
+            out.write(makeClass("a/B", version));
+            out.closeEntry();
+        }
+    }
+
+    /**
+     * @return a class with a method returning the given value
+     */
+    private static byte[] makeClass(String name, int value)
+    {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        MethodVisitor mv = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "get", "()I", null, null);
+        mv.visitCode();
+        mv.visitIntInsn(Opcodes.BIPUSH, value);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static String readSource(File jar, String name) throws IOException
+    {
+        try (ZipFile zip = new ZipFile(jar))
+        {
+            ZipEntry entry = zip.getEntry(name);
+            Assert.assertNotNull(name, entry);
+            try (InputStream in = zip.getInputStream(entry))
+            {
+                return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    private static List<String> getSourceNames(File jar) throws IOException
+    {
+        List<String> names = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(jar))
+        {
+            for (ZipEntry entry : Collections.list(zip.entries()))
+            {
+                if (entry.getName().endsWith(".java"))
+                    names.add(entry.getName());
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+}
@@ -21,6 +21,8 @@
 package net.minecraftforge.gradle.tasks.fernflower;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.CharStreams;
 import net.minecraftforge.gradle.testsupport.TestResource;
@@ -31,6 +33,9 @@ import org.junit.rules.TemporaryFolder;
 
 import java.io.*;
 import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.jar.*;
 
 public class TestArtifactSaver
@@ -79,6 +84,152 @@ public class TestArtifactSaver
         copyFirstEntry(TestResource.MERGE_EXPECTED_ZIP);
     }
 
+    @Test
+    public void mergeArchives() throws IOException
+    {
+        for (String folder : FOLDERS)
+            saver.saveFolder(folder);
+
+        saver.createArchive(FOLDERS[0], ARCHIVE, new Manifest());
+        saver.saveDirEntry(FOLDERS[0], ARCHIVE, "b/");
+        saver.saveClassEntry(FOLDERS[0], ARCHIVE, "b.B", "b/B.java", "package b; public class B { }");
+        saver.closeArchive(FOLDERS[0], ARCHIVE);
+
+        saver.createArchive(FOLDERS[1], ARCHIVE, null);
+        saver.saveDirEntry(FOLDERS[1], ARCHIVE, "b/");
+        saver.saveClassEntry(FOLDERS[1], ARCHIVE, "b.A", "b/A.java", "package b; public class A { }");
+        saver.saveClassEntry(FOLDERS[1], ARCHIVE, "a.A", "a/A.java", "package a; public class A { }");
+        saver.closeArchive(FOLDERS[1], ARCHIVE);
+
+        File merged = new File(saveFolder, "merged.jar");
+        ArtifactSaver.mergeArchives(ImmutableList.of(new File(saveFolder, FOLDERS[0] + '/' + ARCHIVE), new File(saveFolder, FOLDERS[1] + '/' + ARCHIVE)), merged);
+
+        List<String> names = Lists.newArrayList();
+        try (JarInputStream jarInputStream = new JarInputStream(Files.newInputStream(merged.toPath())))
+        {
+            Assert.assertNotNull("The manifest should be first", jarInputStream.getManifest());
+
+            JarEntry entry;
+            while ((entry = jarInputStream.getNextJarEntry()) != null)
+            {
+                names.add(entry.getName());
+                if (entry.getName().equals("b/A.java"))
+                {
+                    Assert.assertEquals("package b; public class A { }", new String(ByteStreams.toByteArray(jarInputStream), Charsets.UTF_8));
+                }
+            }
+        }
+        Assert.assertEquals(ImmutableList.of("a/A.java", "b/", "b/A.java", "b/B.java"), names);
+    }
+
+    @Test
+    public void saveToOutput() throws IOException
+    {
+        File output = new File(saveFolder, "out/decompiled.jar");
+        saver = new ArtifactSaver(saveFolder, ARCHIVE, output);
+
+        saver.saveFolder("");
+        saver.createArchive("", ARCHIVE, null);
+        saver.saveClassEntry("", ARCHIVE, "a.A", "a/A.java", "package a; public class A { }");
+        saver.closeArchive("", ARCHIVE);
+
+        Assert.assertFalse("The archive should not be written to the save folder", new File(saveFolder, ARCHIVE).exists());
+        try (JarInputStream jarInputStream = new JarInputStream(Files.newInputStream(output.toPath())))
+        {
+            Assert.assertEquals("a/A.java", jarInputStream.getNextEntry().getName());
+            Assert.assertEquals("package a; public class A { }", new String(ByteStreams.toByteArray(jarInputStream), Charsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void saveProcessed() throws IOException
+    {
+        File source = TestResource.ACTUAL_CLEAN_JAR.getFile(temporaryFolder);
+        String resource;
+        try (JarInputStream jarInputStream = new JarInputStream(Files.newInputStream(source.toPath())))
+        {
+            resource = jarInputStream.getNextEntry().getName();
+        }
+
+        saver = new ArtifactSaver(saveFolder, ARCHIVE, new File(saveFolder, "out.jar"), (name, content) -> content + "// " + name);
+        saver.saveFolder("");
+        saver.createArchive("", ARCHIVE, null);
+        List<String> expected = Lists.newArrayList();
+        for (int i = 0; i < 100; i++)
+        {
+            saver.saveClassEntry("", ARCHIVE, "a.A" + i, "a/A" + i + ".java", "class A" + i + " { }");
+            expected.add("a/A" + i + ".java");
+            if (i == 50)
+            {
+                saver.copyEntry(source.getAbsolutePath(), "", ARCHIVE, resource);
+                expected.add(resource);
+            }
+        }
+        saver.closeArchive("", ARCHIVE);
+        saver.checkProcessed();
+        saver.close();
+
+        List<String> names = Lists.newArrayList();
+        try (JarInputStream jarInputStream = new JarInputStream(Files.newInputStream(new File(saveFolder, "out.jar").toPath())))
+        {
+            JarEntry entry;
+            while ((entry = jarInputStream.getNextJarEntry()) != null)
+            {
+                names.add(entry.getName());
+                if (entry.getName().equals("a/A7.java"))
+                {
+                    Assert.assertEquals("class A7 { }// a/A7.java", new String(ByteStreams.toByteArray(jarInputStream), Charsets.UTF_8));
+                }
+            }
+        }
+        Assert.assertEquals("Entries should be saved in the order the decompiler saved them", expected, names);
+    }
+
+    @Test
+    public void saveProcessedOnSharedExecutor() throws IOException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            for (int part = 0; part < 2; part++)
+            {
+                File output = new File(saveFolder, "out" + part + ".jar");
+                saver = new ArtifactSaver(saveFolder, ARCHIVE, output, (name, content) -> content + "// " + name, executor);
+                saver.saveFolder("");
+                saver.createArchive("", ARCHIVE, null);
+                saver.saveClassEntry("", ARCHIVE, "a.A", "a/A.java", "class A { }");
+                saver.closeArchive("", ARCHIVE);
+                saver.checkProcessed();
+                saver.close();
+                Assert.assertFalse("The executor belongs to the caller", executor.isShutdown());
+
+                try (JarInputStream jarInputStream = new JarInputStream(Files.newInputStream(output.toPath())))
+                {
+                    Assert.assertEquals("a/A.java", jarInputStream.getNextEntry().getName());
+                    Assert.assertEquals("class A { }// a/A.java", new String(ByteStreams.toByteArray(jarInputStream), Charsets.UTF_8));
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void saveProcessedFailure() throws IOException
+    {
+        saver = new ArtifactSaver(saveFolder, ARCHIVE, new File(saveFolder, "out.jar"), (name, content) -> {
+            throw new IllegalStateException("failed");
+        });
+        saver.saveFolder("");
+        saver.createArchive("", ARCHIVE, null);
+        saver.saveClassEntry("", ARCHIVE, "a.A", "a/A.java", "class A { }");
+        saver.closeArchive("", ARCHIVE);
+        saver.close();
+        saver.checkProcessed();
+    }
+
     private void saveClassEntry(String className, String contents, Manifest manifest) throws IOException
     {
         String entryName = className.replace('.', '/') + ".java";
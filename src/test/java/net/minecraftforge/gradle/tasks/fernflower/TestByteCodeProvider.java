@@ -0,0 +1,98 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks.fernflower;
+
+import com.google.common.io.ByteStreams;
+import net.minecraftforge.gradle.testsupport.TestResource;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+public class TestByteCodeProvider
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void readClasses() throws IOException
+    {
+        File jar = TestResource.ACTUAL_CLEAN_JAR.getFile(temporaryFolder);
+
+        try (ByteCodeProvider provider = new ByteCodeProvider())
+        {
+            assertReadsJar(provider, jar);
+            // again, from the archive that is already open
+            assertReadsJar(provider, jar);
+        }
+    }
+
+    @Test
+    public void readClassesCached() throws IOException
+    {
+        File jar = TestResource.ACTUAL_CLEAN_JAR.getFile(temporaryFolder);
+
+        try (ByteCodeProvider provider = new ByteCodeProvider(1024 * 1024))
+        {
+            assertReadsJar(provider, jar);
+            assertReadsJar(provider, jar);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void readMissingEntry() throws IOException
+    {
+        File jar = TestResource.ACTUAL_CLEAN_JAR.getFile(temporaryFolder);
+
+        try (ByteCodeProvider provider = new ByteCodeProvider())
+        {
+            provider.getBytecode(jar.getAbsolutePath(), "does/not/Exist.class");
+        }
+    }
+
+    private static void assertReadsJar(ByteCodeProvider provider, File jar) throws IOException
+    {
+        try (JarFile jarFile = new JarFile(jar))
+        {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements())
+            {
+                JarEntry entry = entries.nextElement();
+                if (entry.isDirectory())
+                    continue;
+
+                byte[] expected;
+                try (InputStream in = jarFile.getInputStream(entry))
+                {
+                    expected = ByteStreams.toByteArray(in);
+                }
+                Assert.assertArrayEquals(entry.getName(), expected, provider.getBytecode(jar.getAbsolutePath(), entry.getName()));
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks.fernflower;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class TestDecompiledClassCache
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void decompileChangedClasses() throws IOException
+    {
+        File in = temporaryFolder.newFile("in.jar");
+        File library = temporaryFolder.newFile("library.jar");
+        File tempDir = temporaryFolder.newFolder("temp");
+        File decompiledJar = new File(tempDir, "in.jar");
+        File index = new File(tempDir, "classCache.json");
+        FernFlowerSettings settings = new FernFlowerSettings(tempDir, in, decompiledJar, new File(tempDir, "decompile.log"), ImmutableSet.of(library), Collections.emptyMap());
+
+        writeJar(in, ImmutableMap.of("a/A.class", "A", "a/A$1.class", "A$1", "a/B.class", "B", "res.txt", "res"));
+
+        // nothing is cached the first time
+        DecompiledClassCache cache = new DecompiledClassCache(index, decompiledJar, "base");
+        Assert.assertSame(settings, cache.prepare(settings));
+        writeJar(decompiledJar, ImmutableMap.of("a/A.java", "A 1", "a/B.java", "B 1", "res.txt", "res"));
+        cache.merge(settings);
+        cache.finish();
+
+        // only B changed
+        writeJar(in, ImmutableMap.of("a/A.class", "A", "a/A$1.class", "A$1", "a/B.class", "B changed", "res.txt", "res"));
+        cache = new DecompiledClassCache(index, decompiledJar, "base");
+        FernFlowerSettings changed = cache.prepare(settings);
+        Assert.assertEquals(2, cache.getClassCount());
+        Assert.assertEquals(1, cache.getCachedCount());
+
+        Assert.assertEquals(ImmutableMap.of("res.txt", "res", "a/B.class", "B changed"), readJar(changed.getJarFrom()));
+        List<File> classpath = new ArrayList<>(changed.getClasspath());
+        Assert.assertEquals(library, classpath.get(1));
+        Assert.assertEquals(ImmutableMap.of("a/A.class", "A", "a/A$1.class", "A$1"), readJar(classpath.get(0)));
+
+        writeJar(changed.getJarTo(), ImmutableMap.of("a/B.java", "B 2", "res.txt", "res"));
+        cache.merge(changed);
+        cache.finish();
+        Assert.assertEquals(ImmutableList.of("a/A.java", "a/B.java", "res.txt"), new ArrayList<>(readJar(decompiledJar).keySet()));
+        Assert.assertEquals(ImmutableMap.of("a/A.java", "A 1", "a/B.java", "B 2", "res.txt", "res"), readJar(decompiledJar));
+
+        // with other options or libraries, everything is decompiled again
+        cache = new DecompiledClassCache(index, decompiledJar, "other base");
+        Assert.assertSame(settings, cache.prepare(settings));
+    }
+
+    private static void writeJar(File jar, Map<String, String> entries) throws IOException
+    {
+        jar.getParentFile().mkdirs();
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar.toPath())))
+        {
+            for (Map.Entry<String, String> entry : entries.entrySet())
+            {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static Map<String, String> readJar(File jar) throws IOException
+    {
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(jar))
+        {
+            Enumeration<? extends ZipEntry> e = zip.entries();
+            while (e.hasMoreElements())
+            {
+                ZipEntry entry = e.nextElement();
+                try (InputStream in = zip.getInputStream(entry))
+                {
+                    entries.put(entry.getName(), new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks.fernflower;
+
+import com.google.common.collect.ImmutableList;
+import net.minecraftforge.gradle.testsupport.TestResource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.jar.JarFile;
+
+public class TestFernFlowerDaemon
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<File> daemonDirs = new ArrayList<>();
+
+    @After
+    public void stopDaemons() throws IOException
+    {
+        for (File dir : daemonDirs)
+        {
+            FernFlowerDaemon.stop(dir);
+        }
+    }
+
+    @Test
+    public void decompileTwice() throws IOException
+    {
+        File jar = TestResource.ACTUAL_CLEAN_JAR.getFile(temporaryFolder);
+        File daemonDir = newDaemonFolder();
+
+        List<File> classpath = new ArrayList<>();
+        for (String path : System.getProperty("java.class.path").split(File.pathSeparator))
+        {
+            classpath.add(new File(path));
+        }
+
+        // the second time goes to the daemon started the first time
+        List<String> addresses = new ArrayList<>();
+        for (int i = 0; i < 2; i++)
+        {
+            File dir = temporaryFolder.newFolder("out" + i);
+            FernFlowerSettings settings = new FernFlowerSettings(dir, jar, new File(dir, jar.getName()), new File(dir, "decompile.log"), Collections.emptySet(), new HashMap<>());
+            FernFlowerDaemon.decompile(daemonDir, ImmutableList.of("-Xmx512M"), classpath, 1, settings);
+
+            try (JarFile decompiled = new JarFile(settings.getJarTo()))
+            {
+                Assert.assertNotNull(decompiled.getEntry("test/actual/NonDepUser.java"));
+            }
+            addresses.add(new String(Files.readAllBytes(new File(daemonDir, "daemon.address").toPath()), StandardCharsets.UTF_8));
+        }
+        Assert.assertEquals("The second decompile should reuse the daemon", addresses.get(0), addresses.get(1));
+
+        FernFlowerDaemon.stop(daemonDir);
+        Assert.assertFalse("The stopped daemon should remove its address", isAddressKept(daemonDir));
+    }
+
+    @Test(expected = IOException.class)
+    public void decompileMissingJar() throws IOException
+    {
+        File dir = temporaryFolder.newFolder("out");
+        List<File> classpath = new ArrayList<>();
+        for (String path : System.getProperty("java.class.path").split(File.pathSeparator))
+        {
+            classpath.add(new File(path));
+        }
+
+        FernFlowerSettings settings = new FernFlowerSettings(dir, new File(dir, "missing.jar"), new File(dir, "missing.jar"), new File(dir, "decompile.log"), Collections.emptySet(), new HashMap<>());
+        FernFlowerDaemon.decompile(newDaemonFolder(), ImmutableList.of("-Xmx512M"), classpath, 1, settings);
+    }
+
+    private File newDaemonFolder() throws IOException
+    {
+        File dir = temporaryFolder.newFolder("daemon");
+        daemonDirs.add(dir);
+        return dir;
+    }
+
+    /**
+     * @return whether the address file is still there after a few seconds
+     */
+    private static boolean isAddressKept(File daemonDir)
+    {
+        File address = new File(daemonDir, "daemon.address");
+        for (int i = 0; i < 50 && address.exists(); i++)
+        {
+            try
+            {
+                Thread.sleep(100);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return address.exists();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks.fernflower;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class TestFernFlowerInvoker
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void splitJar() throws IOException
+    {
+        File jar = temporaryFolder.newFile("in.jar");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar.toPath())))
+        {
+            writeEntry(out, "META-INF/MANIFEST.MF", 10);
+            writeEntry(out, "a/", 0);
+            writeEntry(out, "a/A.class", 400);
+            writeEntry(out, "a/A$1.class", 50);
+            writeEntry(out, "a/A$Inner.class", 50);
+            writeEntry(out, "a/B.class", 300);
+            writeEntry(out, "a/C.class", 200);
+            writeEntry(out, "a/D.class", 100);
+            writeEntry(out, "res.txt", 5);
+        }
+        File library = temporaryFolder.newFile("library.jar");
+        File log = new File(temporaryFolder.getRoot(), "decompile.log");
+        FernFlowerSettings settings = new FernFlowerSettings(temporaryFolder.newFolder("cache"), jar, temporaryFolder.newFile("out.jar"), log, ImmutableSet.of(library), Collections.emptyMap());
+
+        List<FernFlowerSettings> parts = FernFlowerInvoker.splitJar(settings, 2);
+        Assert.assertEquals(2, parts.size());
+
+        // the inner classes stay with A, and the resources are all in the first part
+        Assert.assertEquals(ImmutableList.of("META-INF/MANIFEST.MF", "a/", "a/A.class", "a/A$1.class", "a/A$Inner.class", "a/D.class", "res.txt"), getEntryNames(parts.get(0).getJarFrom()));
+        Assert.assertEquals(ImmutableList.of("a/B.class", "a/C.class"), getEntryNames(parts.get(1).getJarFrom()));
+
+        // every part sees the others before the libraries
+        Assert.assertEquals(ImmutableList.of(parts.get(1).getJarFrom(), library), new ArrayList<>(parts.get(0).getClasspath()));
+        Assert.assertEquals(ImmutableList.of(parts.get(0).getJarFrom(), library), new ArrayList<>(parts.get(1).getClasspath()));
+
+        Assert.assertEquals("decompile-part1.log", parts.get(1).getTaskLogFile().getName());
+        Assert.assertNotEquals(parts.get(0).getCacheDirectory(), parts.get(1).getCacheDirectory());
+
+        // there are not more parts than classes with their inner classes
+        Assert.assertEquals(4, FernFlowerInvoker.splitJar(settings, 16).size());
+    }
+
+    private static void writeEntry(ZipOutputStream out, String name, int size) throws IOException
+    {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(new byte[size]);
+        out.closeEntry();
+    }
+
+    private static List<String> getEntryNames(File jar) throws IOException
+    {
+        List<String> names = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(jar))
+        {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements())
+            {
+                names.add(entries.nextElement().getName());
+            }
+        }
+        return names;
+    }
+}
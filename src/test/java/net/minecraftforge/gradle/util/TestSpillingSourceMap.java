@@ -0,0 +1,146 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Strings;
+
+public class TestSpillingSourceMap
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testSpillsColdestSources() throws Exception
+    {
+        File dir = temporaryFolder.newFolder("spill");
+        Map<String, String> expected = new HashMap<>();
+
+        try (SpillingSourceMap map = new SpillingSourceMap(dir, 250))
+        {
+            for (int i = 0; i < 10; i++)
+            {
+                String source = "class C" + i + " { é }" + Strings.repeat(" ", i * 10);
+                map.put("C" + i + ".java", source);
+                expected.put("C" + i + ".java", source);
+
+                // C0 is used all the time, so it stays in memory
+                map.get("C0.java");
+            }
+
+            Assert.assertTrue("Should have spilled some sources", map.getSpilledCount() > 0);
+            Assert.assertTrue("Should have kept some sources in memory", map.getSpilledCount() < map.size());
+            Assert.assertEquals(1, dir.list().length);
+            Assert.assertEquals(expected, map);
+
+            // replace a spilled and an in memory source, and remove one
+            map.put("C1.java", "patched");
+            expected.put("C1.java", "patched");
+            for (Map.Entry<String, String> entry : map.entrySet())
+            {
+                if (entry.getKey().equals("C9.java"))
+                    entry.setValue("patched too");
+            }
+            expected.put("C9.java", "patched too");
+            for (Iterator<String> it = map.keySet().iterator(); it.hasNext(); )
+            {
+                if (it.next().equals("C5.java"))
+                    it.remove();
+            }
+            expected.remove("C5.java");
+            Assert.assertEquals("class C2 { é }" + Strings.repeat(" ", 20), map.remove("C2.java"));
+            expected.remove("C2.java");
+
+            Assert.assertEquals(expected, map);
+            Assert.assertEquals(expected.keySet(), map.keySet());
+        }
+
+        Assert.assertEquals("Spill file should be deleted", 0, dir.list().length);
+    }
+
+    @Test
+    public void testReturnsSpilledSources() throws Exception
+    {
+        File dir = temporaryFolder.newFolder("spill");
+        try (SpillingSourceMap map = new SpillingSourceMap(dir, 10))
+        {
+            map.put("A.java", "class A { }");
+            Assert.assertEquals(1, map.getSpilledCount());
+            Assert.assertEquals("Spilled sources should be read back", "class A { }", map.put("A.java", "class A {  }"));
+            Assert.assertEquals("class A {  }", map.put("A.java", "A"));
+            map.store("A.java", "class A {   }");
+            Assert.assertEquals("class A {   }", map.get("A.java"));
+            Assert.assertEquals("class A {   }", map.remove("A.java"));
+
+            map.put("B.java", "B");
+            Assert.assertEquals("B", map.remove("B.java"));
+            Assert.assertTrue(map.isEmpty());
+        }
+    }
+
+    @Test
+    public void testReusesSpillSlots() throws Exception
+    {
+        File dir = temporaryFolder.newFolder("spill");
+        try (SpillingSourceMap map = new SpillingSourceMap(dir, 0))
+        {
+            for (int i = 0; i < 10; i++)
+                map.put("C" + i + ".java", Strings.repeat("a", 100));
+            File spillFile = dir.listFiles()[0];
+            Assert.assertEquals(1000, spillFile.length());
+
+            for (int i = 0; i < 10; i++)
+                map.put("C" + i + ".java", Strings.repeat("b", 100));
+            for (int i = 0; i < 10; i++)
+                map.store("C" + i + ".java", Strings.repeat("c", 50 + i));
+            Assert.assertEquals("Sources that fit should take the place of the old ones", 1000, spillFile.length());
+
+            map.put("C0.java", Strings.repeat("d", 150));
+            Assert.assertEquals(1150, spillFile.length());
+
+            Assert.assertEquals(Strings.repeat("d", 150), map.get("C0.java"));
+            for (int i = 1; i < 10; i++)
+                Assert.assertEquals(Strings.repeat("c", 50 + i), map.get("C" + i + ".java"));
+        }
+    }
+
+    @Test
+    public void testNoSpillUnderLimit() throws Exception
+    {
+        File dir = temporaryFolder.newFolder("spill");
+        try (SpillingSourceMap map = new SpillingSourceMap(dir, 1000))
+        {
+            map.put("A.java", "class A {}");
+            map.put("B.java", "class B {}");
+            Assert.assertEquals(0, map.getSpilledCount());
+            Assert.assertEquals(0, dir.list().length);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.caching;
+
+import java.io.File;
+
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Optional;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @see Annotated
+ */
+public class TestAnnotated
+{
+    @Test
+    public void testField() throws Exception
+    {
+        Member member = new Member();
+
+        // the getter is used when there is one
+        Annotated cached = new Annotated(Member.class, "cached");
+        Assert.assertEquals(Annotated.Kind.VALUE, cached.getKind());
+        Assert.assertFalse(cached.isOptional());
+        Assert.assertEquals("getter", cached.getValue(member));
+
+        // the private field itself otherwise
+        Annotated input = new Annotated(Member.class, "input");
+        Assert.assertEquals(Annotated.Kind.FILE, input.getKind());
+        Assert.assertTrue(input.isOptional());
+        Assert.assertEquals(new File("input.txt"), input.getValue(member));
+
+        member.input = new File("changed.txt");
+        Assert.assertEquals(new File("changed.txt"), input.getValue(member));
+    }
+
+    @Test
+    public void testMethod() throws Exception
+    {
+        Member member = new Member();
+
+        Annotated method = new Annotated(Member.class, "getMethod", true);
+        Assert.assertEquals(Annotated.Kind.FILE, method.getKind());
+        Assert.assertEquals("getMethod", method.getName());
+        Assert.assertEquals(new File("method.txt"), method.getValue(member));
+    }
+
+    public static class Member
+    {
+        @Input
+        @Cached
+        private String cached = "field";
+
+        @InputFile
+        @Optional
+        private File input = new File("input.txt");
+
+        public String getCached()
+        {
+            return "getter";
+        }
+
+        @InputFile
+        private File getMethod()
+        {
+            return new File("method.txt");
+        }
+    }
+}
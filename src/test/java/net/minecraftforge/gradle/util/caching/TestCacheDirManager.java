@@ -0,0 +1,138 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.caching;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.minecraftforge.gradle.testsupport.UsesTemporaryFiles;
+
+/**
+ * @see CacheDirManager
+ */
+public class TestCacheDirManager implements UsesTemporaryFiles
+{
+    private static final long NOW = System.currentTimeMillis();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File cacheDir;
+    private File sharedDir;
+
+    private File oldest;
+    private File older;
+    private File sharedEntry;
+    private File recent;
+    private File assets;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        cacheDir = temporaryFolder.newFolder("cache");
+        sharedDir = new File(cacheDir, "shared");
+
+        // 100 bytes each, 400 in units, plus assets that belong to no unit
+        oldest = unit("versions/1.7.10", NOW - TimeUnit.DAYS.toMillis(3));
+        older = unit("versions/1.8.9", NOW - TimeUnit.DAYS.toMillis(2));
+        sharedEntry = file("shared/ab/abcdef", 100, NOW - TimeUnit.DAYS.toMillis(1));
+        recent = unit("versions/1.12.2", NOW - TimeUnit.MINUTES.toMillis(30));
+        assets = file("assets/objects/00/0000", 1000, NOW - TimeUnit.DAYS.toMillis(10));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed()
+    {
+        List<CacheDirManager.Unit> deleted = CacheDirManager.trim(cacheDir, sharedDir, 250);
+
+        Assert.assertEquals(Arrays.asList(oldest, older), roots(deleted));
+        Assert.assertFalse(oldest.exists());
+        Assert.assertFalse(older.exists());
+        Assert.assertTrue(sharedEntry.exists());
+        Assert.assertTrue(recent.exists());
+        Assert.assertTrue(assets.exists());
+    }
+
+    @Test
+    public void testKeepsRecentlyUsed()
+    {
+        List<CacheDirManager.Unit> deleted = CacheDirManager.trim(cacheDir, sharedDir, 0);
+
+        // the unit used half an hour ago may be in use by another build
+        Assert.assertEquals(Arrays.asList(oldest, older, sharedEntry), roots(deleted));
+        Assert.assertTrue(recent.exists());
+        Assert.assertTrue(new File(recent, CacheDirManager.MARKER).exists());
+        Assert.assertTrue(assets.exists());
+    }
+
+    @Test
+    public void testTrimsOnceADay()
+    {
+        Assert.assertEquals(2, CacheDirManager.trimDaily(cacheDir, sharedDir, 250).size());
+
+        // over the limit again, but it was just trimmed
+        Assert.assertTrue(CacheDirManager.trimDaily(cacheDir, sharedDir, 0).isEmpty());
+        Assert.assertTrue(sharedEntry.exists());
+
+        Assert.assertTrue(new File(cacheDir, CacheDirManager.LAST_TRIM).setLastModified(NOW - TimeUnit.HOURS.toMillis(25)));
+        Assert.assertEquals(Arrays.asList(sharedEntry), roots(CacheDirManager.trimDaily(cacheDir, sharedDir, 0)));
+    }
+
+    private File unit(String path, long lastUsed) throws IOException
+    {
+        File dir = new File(cacheDir, path);
+        file(path + "/data.bin", 60, lastUsed);
+        file(path + "/nested/more.bin", 40, lastUsed);
+        CacheDirManager.markUsed(Arrays.asList(dir));
+        Assert.assertTrue(new File(dir, CacheDirManager.MARKER).setLastModified(lastUsed));
+        return dir;
+    }
+
+    private File file(String path, int size, long lastModified) throws IOException
+    {
+        File file = new File(cacheDir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), new byte[size]);
+        Assert.assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+
+    private static List<File> roots(List<CacheDirManager.Unit> units)
+    {
+        List<File> roots = new ArrayList<>();
+        for (CacheDirManager.Unit unit : units)
+        {
+            roots.add(unit.getRoot());
+        }
+        return roots;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.caching;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.minecraftforge.gradle.testsupport.UsesTemporaryFiles;
+
+/**
+ * @see FileHashIndex
+ */
+public class TestFileHashIndex implements UsesTemporaryFiles
+{
+    private static final long OLD = System.currentTimeMillis() - 60_000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File index;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        index = new File(temporaryFolder.newFolder("cache"), "fileHashes.bin");
+        FileHashIndex.setIndexFile(index);
+        FileHashIndex.reset();
+    }
+
+    @After
+    public void tearDown()
+    {
+        FileHashIndex.reset();
+    }
+
+    @Test
+    public void testHit() throws IOException
+    {
+        File file = file("a.txt", "abc", OLD);
+        FileHashIndex.put(file, "hashA");
+
+        Assert.assertEquals("hashA", FileHashIndex.get(file));
+    }
+
+    @Test
+    public void testMissAfterChange() throws IOException
+    {
+        File length = file("length.txt", "abc", OLD);
+        File modified = file("modified.txt", "abc", OLD);
+        FileHashIndex.put(length, "hashLength");
+        FileHashIndex.put(modified, "hashModified");
+
+        // same last modified time, different length
+        Files.write(length.toPath(), "d".getBytes(), StandardOpenOption.APPEND);
+        Assert.assertTrue(length.setLastModified(OLD));
+        Assert.assertNull(FileHashIndex.get(length));
+
+        // same length, different last modified time
+        Assert.assertTrue(modified.setLastModified(OLD - 10_000));
+        Assert.assertNull(FileHashIndex.get(modified));
+    }
+
+    @Test
+    public void testSkipsRacyFiles() throws IOException
+    {
+        File file = file("racy.txt", "abc", System.currentTimeMillis());
+        FileHashIndex.put(file, "hashRacy");
+
+        Assert.assertNull(FileHashIndex.get(file));
+    }
+
+    @Test
+    public void testSaveMergesWithSavedIndex() throws IOException
+    {
+        File first = file("first.txt", "abc", OLD);
+        File second = file("second.txt", "def", OLD);
+
+        // a second daemon that did not see the first one's save
+        FileHashIndex.put(first, "hashFirst");
+        FileHashIndex.save();
+        FileHashIndex.reset();
+        FileHashIndex.put(second, "hashSecond");
+        FileHashIndex.save();
+
+        FileHashIndex.reset();
+        Assert.assertEquals("hashFirst", FileHashIndex.get(first));
+        Assert.assertEquals("hashSecond", FileHashIndex.get(second));
+
+        // nothing but the index and its lock is left behind
+        String[] names = index.getParentFile().list();
+        Assert.assertNotNull(names);
+        Assert.assertEquals(2, names.length);
+    }
+
+    private File file(String name, String contents, long lastModified) throws IOException
+    {
+        File file = temporaryFolder.newFile(name);
+        Files.write(file.toPath(), contents.getBytes());
+        Assert.assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.caching;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.gradle.api.Project;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.minecraftforge.gradle.testsupport.UsesTemporaryFiles;
+
+/**
+ * @see SharedOutputStore
+ */
+public class TestSharedOutputStore implements UsesTemporaryFiles
+{
+    private static final String CONTENTS = "shared contents";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File shared;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        shared = temporaryFolder.newFolder("shared");
+        SharedOutputStore.setDirectory(shared);
+    }
+
+    @After
+    public void tearDown()
+    {
+        SharedOutputStore.setDirectory(null);
+    }
+
+    @Test
+    public void testPublishAndRestore() throws Exception
+    {
+        // the first workspace runs the task and publishes its output
+        UpperCaseTask first = createTask("first");
+        CacheContainer container = CacheContainer.getCache(first);
+        CacheCheckSpec spec = new CacheCheckSpec(container);
+
+        Assert.assertTrue(spec.isSatisfiedBy(first));
+        first.doTask();
+        runWriteActions(container, first);
+
+        File[] keyDirs = shared.listFiles();
+        Assert.assertNotNull(keyDirs);
+        Assert.assertEquals(1, keyDirs.length);
+        File[] entries = keyDirs[0].listFiles();
+        Assert.assertNotNull(entries);
+        Assert.assertEquals("the entry is moved in place, no temp file is left", 1, entries.length);
+        Assert.assertEquals(CONTENTS.toUpperCase(), read(entries[0]));
+
+        // the second workspace has the same inputs, so it takes the output instead of running
+        UpperCaseTask second = createTask("second");
+        Assert.assertFalse(spec.isSatisfiedBy(second));
+        Assert.assertEquals(CONTENTS.toUpperCase(), read(second.getOutput()));
+
+        File hashFile = CacheUtil.getHashFile(second.getOutput());
+        Assert.assertTrue(hashFile.isFile());
+        Assert.assertEquals(read(CacheUtil.getHashFile(first.getOutput())), read(hashFile));
+
+        // and the restored output is up to date from now on, without the store
+        SharedOutputStore.setDirectory(null);
+        Assert.assertFalse(new CacheCheckSpec(container).isSatisfiedBy(second));
+
+        // until an input changes
+        Files.write(second.getInput().toPath(), "other".getBytes(StandardCharsets.UTF_8));
+        Assert.assertTrue(new CacheCheckSpec(container).isSatisfiedBy(second));
+        Assert.assertFalse(second.getOutput().exists());
+    }
+
+    private UpperCaseTask createTask(String workspace) throws IOException
+    {
+        File dir = temporaryFolder.newFolder(workspace);
+        Project project = ProjectBuilder.builder().withProjectDir(dir).build();
+        UpperCaseTask task = project.getTasks().create("upperCase", UpperCaseTask.class);
+
+        File input = new File(dir, "input.txt");
+        Files.write(input.toPath(), CONTENTS.getBytes(StandardCharsets.UTF_8));
+        task.setInput(input);
+        task.setOutput(new File(dir, "build/output.txt"));
+        return task;
+    }
+
+    private static void runWriteActions(CacheContainer container, ICachableTask task)
+    {
+        for (WriteCacheAction action : container.lastActions)
+        {
+            action.execute(task);
+        }
+    }
+
+    private static String read(File file) throws IOException
+    {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    public static class UpperCaseTask extends CachedTask
+    {
+        @InputFile
+        private File input;
+
+        @OutputFile
+        @Cached
+        private File output;
+
+        public UpperCaseTask()
+        {
+            super();
+        }
+
+        @TaskAction
+        public void doTask() throws IOException
+        {
+            output.getParentFile().mkdirs();
+            Files.write(output.toPath(), read(input).toUpperCase().getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        protected boolean defaultShareOutputs()
+        {
+            return true;
+        }
+
+        public File getInput()
+        {
+            return input;
+        }
+
+        public void setInput(File input)
+        {
+            this.input = input;
+        }
+
+        public File getOutput()
+        {
+            return output;
+        }
+
+        public void setOutput(File output)
+        {
+            this.output = output;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.mcp;
+
+import static net.minecraftforge.gradle.util.mcp.McpCleanup.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.regex.Matcher;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class McpCleanupTest
+{
+    private static final String[] INPUTS = new String[] {"TestClass", "AnonymousTest", "StripComments", "JavadocInserterTest"};
+    private static final String[] NEWLINES = new String[] {"\n", "\r\n"};
+
+    private static final String SAMPLE = String.join("\n",
+            "",
+            "   package net.minecraft.src;   ",
+            "",
+            "",
+            "",
+            "public class Sample {",
+            "",
+            "",
+            "   private static final double MAX = 1.7976931348623157E+308D;",
+            "   float a = 3.1415927F; double b = 3.141592653589793D;",
+            "   float c = 6.2831855F * 1.5707964F * 4.712389F * 0.7853982F * 0.62831855F * 57.295776F;",
+            "   double d = 6.283185307179586D * 1.5707963267948966D * 4.71238898038469D * 0.7853981633974483D;",
+            "   double e = 0.6283185307179586D * 57.29577951308232D * 0.6981317007977318D * 0.3141592653589793D;",
+            "   float f = 0.69813174F * 0.31415927F * 1.2566371F * 0.21991149F * 0.81194687F * 5.811946F;",
+            "   double g = 1.2566370614359172d + 0.21991148575128552d + 5.811946409141117d + 13.1415D;",
+            "   char h = '\\u2603'; char i = '\\u00a7'; char j = '\\u0000';",
+            "   Character k = Character.valueOf('k');",
+            "   int l = 3 /* GL_QUADS */ + 4; /* not GL */",
+            "",
+            "   void m() {",
+            "      int n = 1;",
+            "      if(n == 1) {",
+            "",
+            "         n = 2;",
+            "      }",
+            "      if(n == 2) {",
+            "         n = 3;",
+            "",
+            "      }",
+            "",
+            "   }",
+            "   {",
+            "      if(true) {",
+            "      }",
+            "   }",
+            "}",
+            "   ",
+            "");
+
+    @Test
+    public void testSameAsRegexes() throws IOException
+    {
+        for (String newline : NEWLINES)
+        {
+            assertSame(SAMPLE, newline);
+            assertSame(SAMPLE.replace("\n", "\r\n"), newline);
+            assertSame(SAMPLE.replace("\n", "\r"), newline);
+
+            for (String i : INPUTS)
+            {
+                String input = readResource(i);
+                assertSame(input, newline);
+                assertSame(McpCleanup.stripComments(input), newline);
+                assertSame(input.replace("\r\n", "\n").replace("\n", "\r\n"), newline);
+            }
+        }
+    }
+
+    @Test
+    public void testSameAsRegexesRandom()
+    {
+        final String[] parts = new String[] {
+                " ", "\t", "   ", "\n", "\n", "\r\n", "\r\n", "\r", "{", "}", ";", "{}", "x", "int a = 1;", "if", "if(a)", "iff",
+                "    if(a) {", "\tif", "1.7976931348623157E+308D", "1.79e+308d", "3.14159F", "3.1415D", "13.1415d", "57.2957F",
+                "0.8119F", "0.81194D", "5.8119F", "5.8119D", "0.21991f", "1.25663D", "6.2831F", "'\\u2603'", "'\\u00e9'",
+                "'\\u12G4'", "'", "Character.valueOf('a')", "Character.valueOf(", "/* GL_QUADS */", "/*GL_X*/", "/* other */",
+                "/*", "*/", "GL_", "a", "b", "(", ")",
+        };
+
+        Random random = new Random(42);
+        StringBuilder input = new StringBuilder();
+        for (int run = 0; run < 20000; run++)
+        {
+            input.setLength(0);
+            int count = random.nextInt(40);
+            for (int i = 0; i < count; i++)
+            {
+                input.append(parts[random.nextInt(parts.length)]);
+            }
+            assertSame(input.toString(), NEWLINES[run % NEWLINES.length]);
+        }
+    }
+
+    @Test
+    public void testConstants()
+    {
+        Assert.assertEquals("float a = ((float)Math.PI * 185F / 100F) + 5.8119F;\n"
+                        + "\n"
+                        + "    if (a > (180D / Math.PI)) {\n"
+                        + "        b = Double.MAX_VALUE;\n"
+                        + "}",
+                McpCleanup.cleanup("float a = 0.8119F + 5.8119F;   \n    if (a > 57.2957795D) {\n\n\n        b = 1.7976E+308D;\n\n}\n\n", "\n"));
+    }
+
+    private static void assertSame(String input, String newline)
+    {
+        Assert.assertEquals(escape(input), escape(regexCleanup(input, newline)), escape(McpCleanup.cleanup(input, newline)));
+    }
+
+    private static String escape(String text)
+    {
+        return text.replace("\r", "\\r").replace("\n", "\\n\n");
+    }
+
+    private String readResource(String name) throws IOException
+    {
+        InputStream stream = this.getClass().getClassLoader().getResourceAsStream(name);
+        return new String(ByteStreams.toByteArray(stream));
+    }
+
+    /**
+     * The regex version cleanup was before it was a single scan, the output is compared against it.
+     */
+    private static String regexCleanup(String text, String newline)
+    {
+        // simple replacements
+        text = CLEANUP_header.matcher(text).replaceAll("");
+        text = CLEANUP_footer.matcher(text).replaceAll("");
+        text = CLEANUP_trailing.matcher(text).replaceAll("");
+        text = CLEANUP_newlines.matcher(text).replaceAll(newline);
+        text = CLEANUP_ifstarts.matcher(text).replaceAll("$1" + newline + "$2");
+        text = CLEANUP_blockstarts.matcher(text).replaceAll("");
+        text = CLEANUP_blockends.matcher(text).replaceAll("");
+        text = CLEANUP_gl.matcher(text).replaceAll("");
+        text = CLEANUP_maxD.matcher(text).replaceAll("Double.MAX_VALUE");
+
+        // unicode chars
+        {
+            Matcher matcher = CLEANUP_unicode.matcher(text);
+            int val;
+            StringBuffer buffer = new StringBuffer(text.length());
+
+            while (matcher.find())
+            {
+                val = Integer.parseInt(matcher.group(1), 16);
+                // work around the replace('\u00a7', '$') call in MinecraftServer and a couple of '\u0000'
+                if (val > 255)
+                {
+                    matcher.appendReplacement(buffer, Matcher.quoteReplacement("" + val));
+                }
+            }
+            matcher.appendTail(buffer);
+            text = buffer.toString();
+        }
+
+        // charval.. its stupid.
+        text = CLEANUP_charval.matcher(text).replaceAll("$1"); // TESTING NEEDED
+
+        //         pi?   true
+        text = CLEANUP_piD.matcher(text).replaceAll("Math.PI");
+        text = CLEANUP_piF.matcher(text).replaceAll("(float)Math.PI");
+        text = CLEANUP_2piD.matcher(text).replaceAll("(Math.PI * 2D)");
+        text = CLEANUP_2piF.matcher(text).replaceAll("((float)Math.PI * 2F)");
+        text = CLEANUP_pi2D.matcher(text).replaceAll("(Math.PI / 2D)");
+        text = CLEANUP_pi2F.matcher(text).replaceAll("((float)Math.PI / 2F)");
+        text = CLEANUP_3pi2D.matcher(text).replaceAll("(Math.PI * 3D / 2D)");
+        text = CLEANUP_3pi2F.matcher(text).replaceAll("((float)Math.PI * 3F / 2F)");
+        text = CLEANUP_pi4D.matcher(text).replaceAll("(Math.PI / 4D)");
+        text = CLEANUP_pi4F.matcher(text).replaceAll("((float)Math.PI / 4F)");
+        text = CLEANUP_pi5D.matcher(text).replaceAll("(Math.PI / 5D)");
+        text = CLEANUP_pi5F.matcher(text).replaceAll("((float)Math.PI / 5F)");
+        text = CLEANUP_180piD.matcher(text).replaceAll("(180D / Math.PI)");
+        text = CLEANUP_180piF.matcher(text).replaceAll("(180F / (float)Math.PI)");
+        text = CLEANUP_2pi9D.matcher(text).replaceAll("(Math.PI * 2D / 9D)");
+        text = CLEANUP_2pi9F.matcher(text).replaceAll("((float)Math.PI * 2F / 9F)");
+        text = CLEANUP_pi10D.matcher(text).replaceAll("(Math.PI / 10D)");
+        text = CLEANUP_pi10F.matcher(text).replaceAll("((float)Math.PI / 10F)");
+        text = CLEANUP_2pi5D.matcher(text).replaceAll("(Math.PI * 2D / 5D)");
+        text = CLEANUP_2pi5F.matcher(text).replaceAll("((float)Math.PI * 2F / 5F)");
+        text = CLEANUP_7pi100D.matcher(text).replaceAll("(Math.PI * 7D / 100D)");
+        text = CLEANUP_7pi100F.matcher(text).replaceAll("((float)Math.PI * 7F / 100F)");
+        text = CLEANUP_185pi100D.matcher(text).replaceAll("(Math.PI * 185D / 100D)");
+        text = CLEANUP_185pi100F.matcher(text).replaceAll("((float)Math.PI * 185F / 100F)");
+
+        return text;
+    }
+}
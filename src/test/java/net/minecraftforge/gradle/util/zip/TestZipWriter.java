@@ -0,0 +1,145 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2023 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.zip;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.ByteStreams;
+
+public class TestZipWriter
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testCopyAndWrite() throws IOException
+    {
+        Random rand = new Random(42);
+        byte[] noise = new byte[100000];
+        rand.nextBytes(noise);
+        byte[] text = new byte[50000];
+        Arrays.fill(text, (byte) 'a');
+
+        // written by the JDK, so the deflated entries have data descriptors
+        File source = temporaryFolder.newFile("source.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(source)))
+        {
+            out.putNextEntry(new ZipEntry("dir/"));
+            out.putNextEntry(new ZipEntry("dir/text.txt"));
+            out.write(text);
+            out.putNextEntry(stored("noise.bin", noise));
+            out.write(noise);
+            out.putNextEntry(new ZipEntry("empty.txt"));
+            out.closeEntry();
+        }
+
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        expected.put("dir/", new byte[0]);
+        expected.put("dir/text.txt", text);
+        expected.put("noise.bin", noise);
+        expected.put("empty.txt", new byte[0]);
+        expected.put("new/deflated.txt", text);
+        expected.put("new/stored.bin", noise);
+
+        File output = temporaryFolder.newFile("output.zip");
+        try (RawZipFile in = new RawZipFile(source);
+             ZipWriter out = new ZipWriter(output))
+        {
+            Assert.assertEquals(4, in.getEntries().size());
+            for (RawZipFile.Entry entry : in.getEntries())
+            {
+                Assert.assertArrayEquals(entry.getName(), expected.get(entry.getName()), in.getBytes(entry));
+                out.copyEntry(in, entry);
+            }
+
+            out.putNextEntry(new ZipEntry("new/deflated.txt"));
+            out.write(text, 0, 100);
+            out.write(text, 100, text.length - 100);
+            out.putNextEntry(stored("new/stored.bin", noise));
+            out.write(noise);
+
+            try
+            {
+                out.copyEntry(in, in.getEntries().get(1));
+                Assert.fail("Duplicate entries should not be written");
+            }
+            catch (ZipException e)
+            {
+                Assert.assertTrue(out.hasEntry("dir/text.txt"));
+            }
+        }
+
+        // both the central directory and the local headers should be readable
+        try (ZipFile zip = new ZipFile(output))
+        {
+            Assert.assertEquals(expected.size(), zip.size());
+            for (Map.Entry<String, byte[]> e : expected.entrySet())
+            {
+                ZipEntry entry = zip.getEntry(e.getKey());
+                Assert.assertNotNull(e.getKey(), entry);
+                Assert.assertArrayEquals(e.getKey(), e.getValue(), ByteStreams.toByteArray(zip.getInputStream(entry)));
+            }
+            Assert.assertEquals(ZipEntry.STORED, zip.getEntry("noise.bin").getMethod());
+            Assert.assertEquals(ZipEntry.DEFLATED, zip.getEntry("dir/text.txt").getMethod());
+        }
+
+        try (ZipInputStream zin = new ZipInputStream(new FileInputStream(output)))
+        {
+            int count = 0;
+            ZipEntry entry;
+            while ((entry = zin.getNextEntry()) != null)
+            {
+                Assert.assertArrayEquals(entry.getName(), expected.get(entry.getName()), ByteStreams.toByteArray(zin));
+                count++;
+            }
+            Assert.assertEquals(expected.size(), count);
+        }
+    }
+
+    private static ZipEntry stored(String name, byte[] data)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCrc(crc.getValue());
+        return entry;
+    }
+}